@@ -37,10 +37,13 @@ import com.stardust.util.Supplier;
 import com.stardust.util.UiHandler;
 import com.stardust.view.accessibility.AccessibilityInfoProvider;
 import com.stardust.autojs.core.record.accessibility.AccessibilityActionRecorder;
+import com.stardust.view.accessibility.AccessibilityEventDispatcher;
 import com.stardust.view.accessibility.AccessibilityService;
 import com.stardust.scriptdroid.tool.AccessibilityServiceTool;
 import com.stardust.view.accessibility.LayoutInspector;
 import com.stardust.view.accessibility.NotificationListener;
+import com.stardust.view.accessibility.WindowContentObserver;
+import com.stardust.view.accessibility.WindowSnapshotCache;
 
 
 /**
@@ -60,6 +63,8 @@ public class AutoJs {
     }
 
     private final AccessibilityActionRecorder mAccessibilityActionRecorder = new AccessibilityActionRecorder();
+    private final WindowContentObserver mWindowContentObserver = new WindowContentObserver();
+    private final WindowSnapshotCache mWindowSnapshotCache = new WindowSnapshotCache(mWindowContentObserver);
     private final NotificationListener.Observer mNotificationObserver;
     private ScriptEngineManager mScriptEngineManager;
     private final LayoutInspector mLayoutInspector = new LayoutInspector();
@@ -80,6 +85,8 @@ public class AutoJs {
         mNotificationObserver = new NotificationListener.Observer(context);
         mAccessibilityInfoProvider = new AccessibilityInfoProvider(context.getPackageManager());
         mScriptEngineService = buildScriptEngineService();
+        // 引擎的创建依赖mScriptEngineService，因此在其构建完成后再启用引擎池
+        mScriptEngineManager.setEnginePool(JavaScriptSource.ENGINE, 1, 3, 60 * 1000);
         addAccessibilityServiceDelegates();
         mScriptEngineService.registerGlobalScriptExecutionListener(new ScriptExecutionGlobalListener());
         registerActivityLifecycleCallbacks();
@@ -148,9 +155,11 @@ public class AutoJs {
     }
 
     private void addAccessibilityServiceDelegates() {
-        AccessibilityService.addDelegate(100, mAccessibilityInfoProvider);
+        // 很快的代理在服务线程中直接调用；录制需要在事件发生时取得控件
+        AccessibilityService.addDelegate(100, mAccessibilityInfoProvider, new AccessibilityEventDispatcher.Options().sync());
         AccessibilityService.addDelegate(200, mNotificationObserver);
-        AccessibilityService.addDelegate(300, mAccessibilityActionRecorder);
+        AccessibilityService.addDelegate(300, mAccessibilityActionRecorder, new AccessibilityEventDispatcher.Options().sync());
+        AccessibilityService.addDelegate(400, mWindowContentObserver, new AccessibilityEventDispatcher.Options().sync());
     }
 
     public AccessibilityActionRecorder getAccessibilityActionRecorder() {
@@ -226,6 +235,16 @@ public class AutoJs {
             return mNotificationObserver;
         }
 
+        @Override
+        public WindowContentObserver getWindowContentObserver() {
+            return mWindowContentObserver;
+        }
+
+        @Override
+        public WindowSnapshotCache getWindowSnapshotCache() {
+            return mWindowSnapshotCache;
+        }
+
     }
 
     private class ScreenCaptureRequesterImpl extends ScreenCaptureRequester.AbstractScreenCaptureRequester {
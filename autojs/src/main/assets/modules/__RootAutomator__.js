@@ -2,7 +2,8 @@ module.exports = function(__runtime__, scope){
     function RootAutomator(){
         this.__ra__ = Object.create(new com.stardust.autojs.runtime.api.RootAutomator(scope.context));
         var methods = ["sendEvent", "touch", "setScreenMetrics", "touchX", "touchY", "sendSync",  "sendMtSync", "tap",
-            "swipe", "press", "longPress", "touchDown", "touchUp", "touchMove", "getDefaultId", "setDefaultId", "exit"];
+            "swipe", "press", "longPress", "touchDown", "touchUp", "touchMove", "getDefaultId", "setDefaultId", "exit",
+            "flush", "getReportRate", "setReportRate"];
         for(var i = 0; i < methods.length; i++){
             var method = methods[i];
             this[method] = this.__ra__[method].bind(this.__ra__);
@@ -10,5 +11,35 @@ module.exports = function(__runtime__, scope){
         return this;
    }
     var p = RootAutomator.prototype;
+    p.gesture = function(start, duration){
+        if(typeof(duration) != 'number'){
+            return this.gestures([start].concat(Array.prototype.slice.call(arguments, 1)));
+        }
+        return this.gestures([start, duration].concat(Array.prototype.slice.call(arguments, 2)));
+    }
+    //每个参数为[start, duration, [x1, y1], [x2, y2], ...]，start可省略
+    p.gestures = function(){
+        var len = arguments.length;
+        var strokes = java.lang.reflect.Array.newInstance(com.stardust.autojs.core.inputevent.TouchGesture.Stroke, len);
+        for(var i = 0; i < len; i++){
+            var gesture = arguments[i];
+            var pointsIndex = 1;
+            if(typeof(gesture[1]) == 'number'){
+                var start = gesture[0];
+                var duration = gesture[1];
+                pointsIndex = 2;
+            }else{
+                var start = 0;
+                var duration = gesture[0];
+            }
+            var stroke = new com.stardust.autojs.core.inputevent.TouchGesture.Stroke(this.getDefaultId() + i, start, duration);
+            stroke.moveTo(gesture[pointsIndex][0], gesture[pointsIndex][1]);
+            for(var j = pointsIndex + 1; j < gesture.length; j++){
+                stroke.lineTo(gesture[j][0], gesture[j][1]);
+            }
+            strokes[i] = stroke;
+        }
+        this.__ra__.gestures(strokes);
+    }
     return RootAutomator;
 }
\ No newline at end of file
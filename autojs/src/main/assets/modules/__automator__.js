@@ -106,7 +106,8 @@ module.exports = function(__runtime__, scope){
 
     var modes = {
         "normal": 0,
-        "fast": 1
+        "fast": 1,
+        "snapshot": 2
     }
 
     scope.auto = function(mode){
@@ -11,6 +11,14 @@ module.exports = function(__runtime__, scope){
         return eval(console.rawInput.call(console, [].slice(arguments)) + "");
     }
 
+    console.setLogFile = function(path, options){
+        options = options || {};
+        __runtime__.console.setLogFile(path ? path + "" : null,
+            options.level === undefined ? android.util.Log.VERBOSE : options.level,
+            options.maxFileSize === undefined ? 1024 * 1024 : options.maxFileSize,
+            options.maxBackups === undefined ? 3 : options.maxBackups);
+    }
+
     scope.print = console.print.bind(console, android.util.Log.DEBUG);
 
     scope.log = console.log.bind(console);
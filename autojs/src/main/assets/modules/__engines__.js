@@ -33,6 +33,17 @@ module.exports = function(__runtime__, scope){
                 config.path(c.path);
             }
         }
+        if(typeof(c.priority) == "number"){
+            config.priority(c.priority);
+        }
+        if(typeof(c.optimizationLevel) == "number"){
+            config.optimizationLevel(c.optimizationLevel);
+        }
+        if(c.playback){
+            var p = c.playback;
+            config.playback(p.from || 0, typeof(p.to) == "number" ? p.to : -1, p.speed || 1,
+                typeof(p.loopTimes) == "number" ? p.loopTimes : 1);
+        }
         c.delay = c.delay || 0;
         c.interval = c.interval || 0;
         c.loopTimes = c.loopTimes || 1;
@@ -17,6 +17,23 @@ module.exports = function(__runtime__, scope){
 
    images.captureScreen = rtImages.captureScreen.bind(rtImages);
 
+   images.tryCaptureScreen = function(afterSequence){
+        return rtImages.tryCaptureScreen(afterSequence === undefined ? -1 : afterSequence);
+   }
+
+   images.getFrameSequence = rtImages.getFrameSequence.bind(rtImages);
+
+   images.getFrameTimestamp = rtImages.getFrameTimestamp.bind(rtImages);
+
+   images.readPixels = function(img, region, out){
+        region = region || [];
+        var x = region[0] || 0;
+        var y = region[1] || 0;
+        var width = region[2] || (img.getWidth() - x);
+        var height = region[3] || (img.getHeight() - y);
+        return rtImages.readPixels(img, new android.graphics.Rect(x, y, width + x, height + y), out || null);
+   }
+
    images.saveImage = rtImages.saveImage.bind(rtImages);
 
    images.pixel = rtImages.pixel;
@@ -30,9 +47,20 @@ module.exports = function(__runtime__, scope){
         return colorDetector.detectsColor(colors.red(pixel), colors.green(pixel), colors.blue(pixel));
    }
 
+   images.createCaptureRegion = function(x, y, width, height, scale){
+        return rtImages.createCaptureRegion(new android.graphics.Rect(x, y, x + width, y + height), scale || 1);
+   }
+
+   images.captureRegion = rtImages.captureRegion.bind(rtImages);
+
    images.findColor = function(img, color, options){
         color = parseColor(color);
         options = options || {};
+        if(img instanceof com.stardust.autojs.runtime.api.image.CaptureRegion){
+            var regionThreshold = options.similarity ? parseInt(255 * (1 - options.similarity)) : (options.threshold || 16);
+            var detector = getColorDetector(color, options.algorithm || "rgb", regionThreshold);
+            return colorFinder.findColor(img, detector, options.threads || 1);
+        }
         var region = options.region || [];
         var x = region[0] || 0;
         var y = region[1] || 0;
@@ -67,6 +95,53 @@ module.exports = function(__runtime__, scope){
        });
    }
 
+   images.findMultiColors = function(img, firstColor, colors, options){
+        options = options || {};
+        var region = options.region || [];
+        var x = region[0] || 0;
+        var y = region[1] || 0;
+        var width = region[2] || (img.getWidth() - x);
+        var height = region[3] || (img.getHeight() - y);
+        var threads = options.threads || 1;
+        var threshold = options.threshold || 16;
+        var rect = new android.graphics.Rect(x, y, width + x, height + y);
+        var offsetsAndColors = java.lang.reflect.Array.newInstance(java.lang.Integer.TYPE, [colors.length, 3]);
+        for(var i = 0; i < colors.length; i++){
+            offsetsAndColors[i][0] = colors[i][0];
+            offsetsAndColors[i][1] = colors[i][1];
+            offsetsAndColors[i][2] = parseColor(colors[i][2]);
+        }
+        if(options.all){
+            return colorFinder.findAllMultiColors(img, parseColor(firstColor), offsetsAndColors, rect, threshold, threads);
+        }
+        return colorFinder.findMultiColors(img, parseColor(firstColor), offsetsAndColors, rect, threshold, threads);
+   }
+
+   images.readTemplate = function(path, maxLevel){
+        if(maxLevel === undefined){
+            return rtImages.readTemplate(path);
+        }
+        return rtImages.readTemplate(path, maxLevel);
+   }
+
+   images.findImage = function(img, template, options){
+        if(typeof(template) == 'string'){
+            template = images.readTemplate(template);
+        }
+        options = options || {};
+        var region = options.region || [];
+        var x = region[0] || 0;
+        var y = region[1] || 0;
+        var width = region[2] || (img.getWidth() - x);
+        var height = region[3] || (img.getHeight() - y);
+        var rect = new android.graphics.Rect(x, y, width + x, height + y);
+        var threshold = options.threshold || 0.9;
+        var method = options.method == "sad" ? 1 : 0;
+        var level = options.level === undefined ? 3 : options.level;
+        var threads = options.threads || java.lang.Runtime.getRuntime().availableProcessors();
+        return rtImages.findImage(img, template, threshold, rect, method, level, threads);
+   }
+
    function getColorDetector(color, algorithm, threshold){
         switch(algorithm){
             case "rgb":
@@ -94,7 +169,7 @@ module.exports = function(__runtime__, scope){
       return color;
    }
 
-   scope.__asGlobal__(images, ['requestScreenCapture', 'captureScreen', 'findColor', 'findColorInRegion', 'findColorEquals']);
+   scope.__asGlobal__(images, ['requestScreenCapture', 'captureScreen', 'findColor', 'findColorInRegion', 'findColorEquals', 'findMultiColors', 'findImage']);
 
    scope.colors = colors;
 
@@ -6,6 +6,7 @@ import com.stardust.autojs.engine.JavaScriptEngine;
 import com.stardust.autojs.engine.ScriptEngine;
 import com.stardust.autojs.engine.ScriptEngineManager;
 import com.stardust.autojs.execution.ExecutionConfig;
+import com.stardust.autojs.execution.ExecutionScheduler;
 import com.stardust.autojs.execution.RunnableScriptExecution;
 import com.stardust.autojs.execution.ScriptExecuteActivity;
 import com.stardust.autojs.execution.ScriptExecution;
@@ -17,7 +18,6 @@ import com.stardust.autojs.runtime.ScriptRuntime;
 import com.stardust.autojs.runtime.api.Console;
 import com.stardust.autojs.script.JavaScriptSource;
 import com.stardust.autojs.script.ScriptSource;
-import com.stardust.lang.ThreadCompat;
 import com.stardust.util.TextUtils;
 import com.stardust.util.UiHandler;
 
@@ -41,6 +41,9 @@ import static com.stardust.autojs.runtime.exception.ScriptInterruptedException.c
 public class ScriptEngineService {
 
     private static final String LOG_TAG = "ScriptEngineService";
+    // 常驻的脚本(例如监听事件的脚本)也会占用一个位置，因此默认的上限比CPU核数大很多
+    private static final int DEFAULT_MAX_CONCURRENT_SCRIPTS = Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+    private static final int DEFAULT_MAX_QUEUED_SCRIPTS = 128;
     private static final EventBus EVENT_BUS = new EventBus();
     private static final ScriptExecutionListener GLOBAL_LISTENER = new SimpleScriptExecutionListener() {
         @Override
@@ -82,6 +85,7 @@ public class ScriptEngineService {
     private UiHandler mUiHandler;
     private final Console mGlobalConsole;
     private final ScriptEngineManager mScriptEngineManager;
+    private final ExecutionScheduler mExecutionScheduler;
     private final EngineLifecycleObserver mEngineLifecycleObserver = new EngineLifecycleObserver();
     private ScriptExecutionObserver mScriptExecutionObserver = new ScriptExecutionObserver();
 
@@ -90,6 +94,8 @@ public class ScriptEngineService {
         mContext = mUiHandler.getContext();
         mScriptEngineManager = builder.mScriptEngineManager;
         mGlobalConsole = builder.mGlobalConsole;
+        mExecutionScheduler = builder.mExecutionScheduler != null ? builder.mExecutionScheduler
+                : new ExecutionScheduler(DEFAULT_MAX_CONCURRENT_SCRIPTS, DEFAULT_MAX_QUEUED_SCRIPTS);
         mScriptEngineManager.setEngineLifecycleCallback(mEngineLifecycleObserver);
         mScriptExecutionObserver.registerScriptExecutionListener(GLOBAL_LISTENER);
         EVENT_BUS.register(this);
@@ -132,7 +138,7 @@ public class ScriptEngineService {
         }
         RunnableScriptExecution r = new RunnableScriptExecution(mScriptEngineManager, task);
         if (task.getConfig().runInNewThread) {
-            new ThreadCompat(r).start();
+            mExecutionScheduler.execute(r);
         } else {
             r.run();
         }
@@ -165,7 +171,11 @@ public class ScriptEngineService {
     }
 
     public int stopAll() {
-        return mScriptEngineManager.stopAll();
+        return mExecutionScheduler.cancelQueued() + mScriptEngineManager.stopAll();
+    }
+
+    public ExecutionScheduler getExecutionScheduler() {
+        return mExecutionScheduler;
     }
 
 
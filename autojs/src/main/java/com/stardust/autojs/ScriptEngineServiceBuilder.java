@@ -1,6 +1,7 @@
 package com.stardust.autojs;
 
 import com.stardust.autojs.engine.ScriptEngineManager;
+import com.stardust.autojs.execution.ExecutionScheduler;
 import com.stardust.autojs.runtime.ScriptRuntime;
 import com.stardust.autojs.runtime.api.Console;
 import com.stardust.util.Supplier;
@@ -15,6 +16,7 @@ public class ScriptEngineServiceBuilder {
     ScriptEngineManager mScriptEngineManager;
     Console mGlobalConsole;
     UiHandler mUiHandler;
+    ExecutionScheduler mExecutionScheduler;
 
     public ScriptEngineServiceBuilder() {
 
@@ -35,6 +37,11 @@ public class ScriptEngineServiceBuilder {
         return this;
     }
 
+    public ScriptEngineServiceBuilder executionScheduler(ExecutionScheduler scheduler) {
+        mExecutionScheduler = scheduler;
+        return this;
+    }
+
     public ScriptEngineService build() {
         return new ScriptEngineService(this);
     }
@@ -8,6 +8,8 @@ import android.view.accessibility.AccessibilityNodeInfo;
 import com.stardust.view.accessibility.AccessibilityInfoProvider;
 import com.stardust.view.accessibility.AccessibilityService;
 import com.stardust.view.accessibility.NotificationListener;
+import com.stardust.view.accessibility.WindowContentObserver;
+import com.stardust.view.accessibility.WindowSnapshotCache;
 
 /**
  * Created by Stardust on 2017/4/2.
@@ -17,6 +19,7 @@ public abstract class AccessibilityBridge {
 
     public static final int MODE_NORMAL = 0;
     public static final int MODE_FAST = 1;
+    public static final int MODE_SNAPSHOT = 2;
 
     private int mMode = MODE_NORMAL;
 
@@ -47,6 +50,16 @@ public abstract class AccessibilityBridge {
         mMode = mode;
     }
 
+    public int getMode() {
+        return mMode;
+    }
+
     @NonNull
     public abstract NotificationListener.Observer getNotificationObserver();
+
+    @NonNull
+    public abstract WindowContentObserver getWindowContentObserver();
+
+    @NonNull
+    public abstract WindowSnapshotCache getWindowSnapshotCache();
 }
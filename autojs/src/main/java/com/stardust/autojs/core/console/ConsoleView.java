@@ -36,15 +36,15 @@ public class ConsoleView extends FrameLayout implements StardustConsole.LogListe
             .entry(Log.ASSERT, 0xffff534e)
             .sparseArray();
 
-    private static final int REFRESH_INTERVAL = 100;
     private SparseArray<Integer> mColors = COLORS;
     private StardustConsole mConsole;
     private RecyclerView mLogListRecyclerView;
     private EditText mEditText;
     private ResizableExpandableFloatyWindow mWindow;
     private LinearLayout mInputContainer;
-    private boolean mShouldStopRefresh = false;
     private ArrayList<StardustConsole.Log> mLogs = new ArrayList<>();
+    private ArrayList<StardustConsole.Log> mNewLogs = new ArrayList<>();
+    private long mNextSequence = 0;
 
     public ConsoleView(Context context) {
         super(context);
@@ -118,29 +118,14 @@ public class ConsoleView extends FrameLayout implements StardustConsole.LogListe
     }
 
     @Override
-    public void onNewLog(StardustConsole.Log log) {
-
+    public void onNewLogs() {
+        refreshLog();
     }
 
     @Override
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
-        mShouldStopRefresh = false;
-        postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                refreshLog();
-                if (!mShouldStopRefresh) {
-                    postDelayed(this, REFRESH_INTERVAL);
-                }
-            }
-        }, REFRESH_INTERVAL);
-    }
-
-    @Override
-    protected void onDetachedFromWindow() {
-        super.onDetachedFromWindow();
-        mShouldStopRefresh = true;
+        refreshLog();
     }
 
 
@@ -158,24 +143,21 @@ public class ConsoleView extends FrameLayout implements StardustConsole.LogListe
     private void refreshLog() {
         if (mConsole == null)
             return;
-        int oldSize = mLogs.size();
-        ArrayList<StardustConsole.Log> logs = mConsole.getAllLogs();
-        final int size = logs.size();
-        if (size == 0) {
-            return;
-        }
-        if (oldSize >= size) {
+        mNextSequence = mConsole.getLogs(mNextSequence, mNewLogs);
+        if (mNewLogs.isEmpty()) {
             return;
         }
-        if (oldSize == 0) {
-            mLogs.addAll(logs);
-        } else {
-            for (int i = oldSize; i < size; i++) {
-                mLogs.add(logs.get(i));
-            }
+        int oldSize = mLogs.size();
+        mLogs.addAll(mNewLogs);
+        mNewLogs.clear();
+        mLogListRecyclerView.getAdapter().notifyItemRangeInserted(oldSize, mLogs.size() - oldSize);
+        // 与控制台一样只保留最近的日志
+        int overflow = mLogs.size() - mConsole.getCapacity();
+        if (overflow > 0) {
+            mLogs.subList(0, overflow).clear();
+            mLogListRecyclerView.getAdapter().notifyItemRangeRemoved(0, overflow);
         }
-        mLogListRecyclerView.getAdapter().notifyItemRangeInserted(oldSize, size - 1);
-        mLogListRecyclerView.scrollToPosition(size - 1);
+        mLogListRecyclerView.scrollToPosition(mLogs.size() - 1);
     }
 
     public void setWindow(ResizableExpandableFloatyWindow window) {
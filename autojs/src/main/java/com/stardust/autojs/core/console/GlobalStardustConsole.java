@@ -37,22 +37,7 @@ public class GlobalStardustConsole extends StardustConsole {
     }
 
     private String getLevelChar(int level) {
-        switch (level) {
-            case android.util.Log.VERBOSE:
-                return "V";
-            case android.util.Log.DEBUG:
-                return "D";
-            case android.util.Log.INFO:
-                return "I";
-            case android.util.Log.WARN:
-                return "W";
-            case android.util.Log.ERROR:
-                return "E";
-            case android.util.Log.ASSERT:
-                return "A";
-
-        }
-        return "";
+        return LogFileSink.getLevelChar(level);
     }
 
 }
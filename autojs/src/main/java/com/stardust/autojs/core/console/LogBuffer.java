@@ -0,0 +1,107 @@
+package com.stardust.autojs.core.console;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Created by Stardust on 2017/11/3.
+ * <p>
+ * 有界的环形日志缓冲区，可以被多个线程同时写入而不加锁。
+ * 每条日志有递增的序号，读取时传入上次读到的序号，只取得之后的新日志；写满后最旧的日志被覆盖。
+ */
+public class LogBuffer<T> {
+
+    private static class Entry<T> {
+        final long sequence;
+        final T value;
+
+        Entry(long sequence, T value) {
+            this.sequence = sequence;
+            this.value = value;
+        }
+    }
+
+    private final AtomicReferenceArray<Entry<T>> mEntries;
+    private final int mMask;
+    private final AtomicLong mSequence = new AtomicLong(0);
+    private volatile long mClearedSequence = 0;
+
+    /**
+     * @param capacity 容量，会向上取整为2的幂
+     */
+    public LogBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity = " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mEntries = new AtomicReferenceArray<>(size);
+        mMask = size - 1;
+    }
+
+    public int getCapacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * @return 这条日志的序号
+     */
+    public long add(T value) {
+        long sequence = mSequence.getAndIncrement();
+        Entry<T> entry = new Entry<>(sequence, value);
+        int index = (int) (sequence & mMask);
+        while (true) {
+            Entry<T> old = mEntries.get(index);
+            // 写得慢的线程不能覆盖已经绕了一圈的新日志
+            if (old != null && old.sequence > sequence) {
+                return sequence;
+            }
+            if (mEntries.compareAndSet(index, old, entry)) {
+                return sequence;
+            }
+        }
+    }
+
+    /**
+     * 读取序号不小于fromSequence的日志并加入out中。已经被覆盖或清除的日志会被跳过。
+     *
+     * @return 下次读取时应传入的序号
+     */
+    public long read(long fromSequence, List<? super T> out) {
+        long end = mSequence.get();
+        long sequence = Math.max(fromSequence, Math.max(end - getCapacity(), mClearedSequence));
+        for (; sequence < end; sequence++) {
+            Entry<T> entry = mEntries.get((int) (sequence & mMask));
+            if (entry == null || entry.sequence < sequence) {
+                // 序号已分配但还没写入，下次再读
+                return sequence;
+            }
+            if (entry.sequence == sequence) {
+                out.add(entry.value);
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * @return 下一条日志的序号
+     */
+    public long getSequence() {
+        return mSequence.get();
+    }
+
+    /**
+     * 清除现有的日志。正在写入的日志可能在清除之后仍被读到
+     */
+    public void clear() {
+        mClearedSequence = mSequence.get();
+    }
+
+    public int size() {
+        long end = mSequence.get();
+        return (int) (end - Math.max(end - getCapacity(), mClearedSequence));
+    }
+}
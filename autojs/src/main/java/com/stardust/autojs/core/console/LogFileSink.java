@@ -0,0 +1,221 @@
+package com.stardust.autojs.core.console;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by Stardust on 2017/11/3.
+ * <p>
+ * 把日志异步写入文件。日志先放入有界队列，由一个后台线程写入，队列满时丢弃新日志而不阻塞脚本。
+ * 文件超过maxFileSize后轮转为file.1, file.2 ...，最多保留maxBackups个旧文件。
+ */
+public class LogFileSink {
+
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static class Entry {
+        final long time;
+        final int level;
+        final String content;
+        final boolean newLine;
+
+        Entry(long time, int level, String content, boolean newLine) {
+            this.time = time;
+            this.level = level;
+            this.content = content;
+            this.newLine = newLine;
+        }
+    }
+
+    private static final Entry END = new Entry(0, 0, null, false);
+
+    private final File mFile;
+    private final int mMinLevel;
+    private final long mMaxFileSize;
+    private final int mMaxBackups;
+    private final BlockingQueue<Entry> mQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicInteger mDroppedCount = new AtomicInteger();
+    private final Thread mWriterThread;
+    private volatile boolean mClosed = false;
+
+    // 以下只在写入线程中访问
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.getDefault());
+    private OutputStream mOutputStream;
+    private long mFileSize;
+    private boolean mAtLineStart = true;
+
+    /**
+     * @param minLevel    低于此级别的日志不写入
+     * @param maxFileSize 单个文件的最大字节数，小于等于0表示不轮转
+     * @param maxBackups  保留的旧文件个数
+     */
+    public LogFileSink(File file, int minLevel, long maxFileSize, int maxBackups) {
+        mFile = file;
+        mMinLevel = minLevel;
+        mMaxFileSize = maxFileSize;
+        mMaxBackups = Math.max(0, maxBackups);
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "LogFileSink");
+        mWriterThread.setDaemon(true);
+        mWriterThread.start();
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * @return 是否放入了队列。级别被过滤、队列已满或已关闭时返回false
+     */
+    public boolean offer(int level, CharSequence content, boolean newLine) {
+        if (level < mMinLevel || mClosed) {
+            return false;
+        }
+        if (!mQueue.offer(new Entry(System.currentTimeMillis(), level, String.valueOf(content), newLine))) {
+            mDroppedCount.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return 因队列已满而丢弃的日志数
+     */
+    public int getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * 写完队列中的日志后关闭文件，不等待写入完成
+     */
+    public void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        if (!mQueue.offer(END)) {
+            mWriterThread.interrupt();
+        }
+    }
+
+    /**
+     * 等待写入线程结束，用于测试
+     */
+    void awaitTermination(long millis) throws InterruptedException {
+        mWriterThread.join(millis);
+    }
+
+    private void writeLoop() {
+        try {
+            open();
+            while (true) {
+                Entry entry = mQueue.poll();
+                if (entry == null) {
+                    // 队列空闲时才刷新，连续的日志合并成一次写入
+                    mOutputStream.flush();
+                    entry = mQueue.take();
+                }
+                if (entry == END) {
+                    break;
+                }
+                write(entry);
+            }
+        } catch (InterruptedException ignored) {
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeOutputStream();
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        StringBuilder sb = new StringBuilder(entry.content.length() + 32);
+        if (mAtLineStart) {
+            sb.append(mDateFormat.format(new Date(entry.time))).append(' ')
+                    .append(getLevelChar(entry.level)).append(": ");
+        }
+        sb.append(entry.content);
+        if (entry.newLine) {
+            sb.append('\n');
+        }
+        mAtLineStart = entry.newLine;
+        byte[] bytes = sb.toString().getBytes(UTF_8);
+        mOutputStream.write(bytes);
+        mFileSize += bytes.length;
+        if (mMaxFileSize > 0 && mFileSize >= mMaxFileSize && mAtLineStart) {
+            rotate();
+        }
+    }
+
+    private void open() throws IOException {
+        File parent = mFile.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        mOutputStream = new BufferedOutputStream(new FileOutputStream(mFile, true), 8 * 1024);
+        mFileSize = mFile.length();
+    }
+
+    private void rotate() throws IOException {
+        mOutputStream.close();
+        if (mMaxBackups == 0) {
+            mFile.delete();
+        } else {
+            new File(mFile.getPath() + "." + mMaxBackups).delete();
+            for (int i = mMaxBackups - 1; i >= 1; i--) {
+                File backup = new File(mFile.getPath() + "." + i);
+                if (backup.exists()) {
+                    backup.renameTo(new File(mFile.getPath() + "." + (i + 1)));
+                }
+            }
+            mFile.renameTo(new File(mFile.getPath() + ".1"));
+        }
+        open();
+    }
+
+    private void closeOutputStream() {
+        if (mOutputStream == null) {
+            return;
+        }
+        try {
+            mOutputStream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    static String getLevelChar(int level) {
+        switch (level) {
+            case android.util.Log.VERBOSE:
+                return "V";
+            case android.util.Log.DEBUG:
+                return "D";
+            case android.util.Log.INFO:
+                return "I";
+            case android.util.Log.WARN:
+                return "W";
+            case android.util.Log.ERROR:
+                return "E";
+            case android.util.Log.ASSERT:
+                return "A";
+
+        }
+        return "";
+    }
+}
@@ -14,15 +14,21 @@ import com.stardust.enhancedfloaty.FloatyService;
 import com.stardust.enhancedfloaty.ResizableExpandableFloatyWindow;
 import com.stardust.util.UiHandler;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import ezy.assist.compat.SettingsCompat;
 
 /**
  * Created by Stardust on 2017/5/2.
+ * <p>
+ * 日志保存在有界的{@link LogBuffer}中，只保留最近的{@link #DEFAULT_CAPACITY}条。
+ * 新日志不会逐条通知，而是合并为每帧最多一次{@link LogListener#onNewLogs()}，监听者再按序号取得新日志。
  */
 
 public class StardustConsole extends AbstractConsole {
@@ -54,17 +60,25 @@ public class StardustConsole extends AbstractConsole {
     }
 
     public interface LogListener {
-        void onNewLog(Log log);
+        /**
+         * 有新的日志，在UI线程调用。用{@link #getLogs(long, List)}取得
+         */
+        void onNewLogs();
 
         void onLogClear();
     }
 
+    public static final int DEFAULT_CAPACITY = 4096;
+    private static final long NOTIFY_DELAY = 16;
+
     private final Console mGlobalConsole;
-    private final ArrayList<Log> mLogs = new ArrayList<>();
+    private final LogBuffer<Log> mLogs = new LogBuffer<>(DEFAULT_CAPACITY);
+    private final AtomicBoolean mNotificationPending = new AtomicBoolean(false);
+    private volatile LogFileSink mLogFileSink;
     private AtomicInteger mIdCounter = new AtomicInteger(0);
     private ResizableExpandableFloatyWindow mFloatyWindow;
     private ConsoleFloaty mConsoleFloaty;
-    private LogListener mLogListener;
+    private volatile LogListener mLogListener;
     private UiHandler mUiHandler;
     private BlockingQueue<String> mInput = new ArrayBlockingQueue<>(1);
     private ConsoleView mConsoleView;
@@ -100,7 +114,22 @@ public class StardustConsole extends AbstractConsole {
     }
 
     public ArrayList<Log> getAllLogs() {
-        return mLogs;
+        ArrayList<Log> logs = new ArrayList<>(mLogs.size());
+        mLogs.read(0, logs);
+        return logs;
+    }
+
+    /**
+     * 取得序号不小于fromSequence的日志
+     *
+     * @return 下次读取时应传入的序号
+     */
+    public long getLogs(long fromSequence, List<Log> out) {
+        return mLogs.read(fromSequence, out);
+    }
+
+    public int getCapacity() {
+        return mLogs.getCapacity();
     }
 
     @Override
@@ -110,9 +139,11 @@ public class StardustConsole extends AbstractConsole {
         if (mGlobalConsole != null) {
             mGlobalConsole.println(level, charSequence);
         }
-        if (mLogListener != null) {
-            mLogListener.onNewLog(log);
+        LogFileSink sink = mLogFileSink;
+        if (sink != null) {
+            sink.offer(level, charSequence, true);
         }
+        notifyNewLogs();
     }
 
 
@@ -123,11 +154,50 @@ public class StardustConsole extends AbstractConsole {
         if (mGlobalConsole != null) {
             mGlobalConsole.print(level, charSequence);
         }
-        if (mLogListener != null) {
-            mLogListener.onNewLog(log);
+        LogFileSink sink = mLogFileSink;
+        if (sink != null) {
+            sink.offer(level, charSequence, false);
+        }
+        notifyNewLogs();
+    }
+
+    private void notifyNewLogs() {
+        if (mLogListener != null && mNotificationPending.compareAndSet(false, true)) {
+            mUiHandler.postDelayed(mNewLogsNotification, NOTIFY_DELAY);
         }
     }
 
+    private final Runnable mNewLogsNotification = new Runnable() {
+        @Override
+        public void run() {
+            mNotificationPending.set(false);
+            LogListener listener = mLogListener;
+            if (listener != null) {
+                listener.onNewLogs();
+            }
+        }
+    };
+
+    /**
+     * 把日志异步写入文件，path为null时停止写入
+     *
+     * @param minLevel    低于此级别的日志不写入
+     * @param maxFileSize 单个文件的最大字节数，超过后轮转
+     * @param maxBackups  保留的旧文件个数
+     */
+    @ScriptInterface
+    public void setLogFile(String path, int minLevel, long maxFileSize, int maxBackups) {
+        LogFileSink old = mLogFileSink;
+        mLogFileSink = path == null ? null : new LogFileSink(new File(path), minLevel, maxFileSize, maxBackups);
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    public void closeLogFile() {
+        setLogFile(null, 0, 0, 0);
+    }
+
 
     @Override
     public void clear() {
@@ -1,15 +1,24 @@
 package com.stardust.autojs.core.inputevent;
 
 import android.content.Context;
+import android.os.Build;
 import android.support.annotation.NonNull;
 import android.text.TextUtils;
+import android.util.Log;
 
-import com.stardust.autojs.core.record.inputevent.EventFormatException;
 import com.stardust.autojs.runtime.api.Shell;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Created by Stardust on 2017/8/4.
@@ -17,31 +26,22 @@ import java.util.regex.Pattern;
 
 public class InputEventObserver {
 
+    /**
+     * 输入事件。同一个读取线程的事件都写入同一个对象，监听者不能在onInputEvent之后继续持有它
+     */
     public static class InputEvent {
-        static final Pattern PATTERN = Pattern.compile("^\\[([^\\]]*)\\]\\s+([^:]*):\\s+([^\\s]*)\\s+([^\\s]*)\\s+([^\\s]*)\\s*$");
 
-        static InputEvent parse(String eventStr) {
-            Matcher matcher = PATTERN.matcher(eventStr);
-            if (!matcher.matches()) {
-                throw new EventFormatException(eventStr);
-            }
-            double time;
-            try {
-                time = Double.parseDouble(matcher.group(1));
-            } catch (NumberFormatException e) {
-                throw new EventFormatException(eventStr, e);
-            }
-            return new InputEvent(time, matcher.group(2), matcher.group(3), matcher.group(4), matcher.group(5));
-        }
+        public double time;
+        public int device;
+        public int type;
+        public int code;
+        public int value;
 
+        public InputEvent() {
 
-        public double time;
-        public String device;
-        public String type;
-        public String code;
-        public String value;
+        }
 
-        public InputEvent(double time, String device, String type, String code, String value) {
+        public InputEvent(double time, int device, int type, int code, int value) {
             this.time = time;
             this.device = device;
             this.type = type;
@@ -49,15 +49,73 @@ public class InputEventObserver {
             this.value = value;
         }
 
+        /**
+         * 解析getevent -t的一行输出，例如"[   1234.567890] /dev/input/event2: 0003 0035 000001a4"
+         *
+         * @return 格式不对时返回false
+         */
+        static boolean parse(String eventStr, InputEvent out) {
+            int timeEnd = eventStr.indexOf(']');
+            int deviceEnd = eventStr.indexOf(':', timeEnd);
+            if (!eventStr.startsWith("[") || timeEnd < 0 || deviceEnd < 0) {
+                return false;
+            }
+            try {
+                out.time = Double.parseDouble(eventStr.substring(1, timeEnd).trim());
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            int deviceStart = deviceEnd;
+            while (deviceStart > timeEnd && Character.isDigit(eventStr.charAt(deviceStart - 1))) {
+                deviceStart--;
+            }
+            out.device = deviceStart == deviceEnd ? -1 : (int) parseNumber(eventStr, deviceStart, deviceEnd, 10);
+            int[] fields = new int[3];
+            int i = deviceEnd + 1;
+            for (int f = 0; f < 3; f++) {
+                while (i < eventStr.length() && eventStr.charAt(i) == ' ') {
+                    i++;
+                }
+                int end = i;
+                while (end < eventStr.length() && eventStr.charAt(end) != ' ') {
+                    end++;
+                }
+                long n = parseNumber(eventStr, i, end, 16);
+                if (n < 0) {
+                    return false;
+                }
+                fields[f] = (int) n;
+                i = end;
+            }
+            out.type = fields[0];
+            out.code = fields[1];
+            out.value = fields[2];
+            return true;
+        }
+
+        private static long parseNumber(String str, int start, int end, int radix) {
+            if (start >= end) {
+                return -1;
+            }
+            long n = 0;
+            for (int i = start; i < end; i++) {
+                int digit = Character.digit(str.charAt(i), radix);
+                if (digit < 0) {
+                    return -1;
+                }
+                n = n * radix + digit;
+            }
+            return n;
+        }
 
         @Override
         public String toString() {
             return "Event{" +
                     "time=" + time +
-                    ", device='" + device + '\'' +
-                    ", type='" + type + '\'' +
-                    ", code='" + code + '\'' +
-                    ", value='" + value + '\'' +
+                    ", device=" + device +
+                    ", type=" + type +
+                    ", code=" + code +
+                    ", value=" + value +
                     '}';
         }
     }
@@ -66,10 +124,24 @@ public class InputEventObserver {
         void onInputEvent(@NonNull InputEvent e);
     }
 
+    private static final String LOG_TAG = "InputEventObserver";
+    private static final String DEVICE_DIR = "/dev/input";
+    private static final String DEVICE_PREFIX = "event";
+    private static final String PIPE_DIR = "input-events";
+    private static final int RESCAN_INTERVAL = 2;
+
     private static InputEventObserver sGlobal;
     private CopyOnWriteArrayList<InputEventListener> mInputEventListeners = new CopyOnWriteArrayList<>();
     private Context mContext;
-    private Shell mShell;
+    private volatile Shell mShell;
+    private volatile Process mRootProcess;
+    // 设备号 -> 正在读取的管道，由自身保护
+    private final Map<Integer, InputStream> mReaders = new HashMap<>();
+    // 各设备的读取线程共用，保证监听者按顺序收到事件
+    private final Object mDispatchLock = new Object();
+    private final InputEvent mTextEvent = new InputEvent();
+    private volatile boolean mRecycled = false;
+    private boolean mObserving = false;
 
     public InputEventObserver(Context context) {
         mContext = context;
@@ -84,9 +156,186 @@ public class InputEventObserver {
         sGlobal.observe();
     }
 
+    /**
+     * 优先以root权限直接读取每个/dev/input/eventN的原始struct input_event；
+     * 无法启动root进程或创建管道时退回到解析getevent -t的文本输出。
+     * <p>
+     * 所有设备由同一个root shell读取：它为每个设备创建一个命名管道并在后台把设备cat到管道中，
+     * 然后输出"add N"，这里再打开管道读取。shell每隔{@link #RESCAN_INTERVAL}秒重新列出设备，
+     * 新插入的设备会被加入；设备被移除时cat退出，管道被删除，对应的读取线程读到流结束后被移除。
+     */
     public void observe() {
-        if (mShell != null)
+        if (mObserving)
             throw new IllegalStateException("observe() should be called only once");
+        mObserving = true;
+        // 启动root进程需要等待su，不能阻塞调用者(通常是主线程)
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (!observeByPipes()) {
+                    observeByGetEvent();
+                }
+            }
+        }, "InputEventObserver").start();
+    }
+
+    /**
+     * @return 一个设备也没有开始读取时返回false
+     */
+    private boolean observeByPipes() {
+        File pipeDir = new File(mContext.getCacheDir(), PIPE_DIR);
+        if (!pipeDir.isDirectory() && !pipeDir.mkdirs()) {
+            Log.w(LOG_TAG, "cannot create " + pipeDir);
+            return false;
+        }
+        Process process;
+        try {
+            synchronized (mReaders) {
+                if (mRecycled) {
+                    return true;
+                }
+                process = new ProcessBuilder("su").start();
+                mRootProcess = process;
+            }
+            OutputStream outputStream = process.getOutputStream();
+            outputStream.write(createPipeScript(pipeDir.getPath()).getBytes());
+            outputStream.flush();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "cannot start root process", e);
+            return false;
+        }
+        boolean is64Bit = isCat64Bit();
+        boolean started = false;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith("add ")) {
+                    continue;
+                }
+                try {
+                    int device = Integer.parseInt(line.substring(4).trim());
+                    startReader(device, new File(pipeDir, String.valueOf(device)), is64Bit);
+                    started = true;
+                } catch (NumberFormatException ignored) {
+
+                }
+            }
+        } catch (IOException e) {
+            if (!mRecycled) {
+                Log.w(LOG_TAG, "root process failed", e);
+            }
+        }
+        process.destroy();
+        return started || mRecycled;
+    }
+
+    /**
+     * 每个设备的cat把管道作为stdout，读取端关闭后cat在下一次写入时退出。
+     * shell每次扫描后输出一个空行，Java进程退出或关闭了输出流时shell也会因此退出
+     */
+    private static String createPipeScript(String pipeDir) {
+        return "d=" + pipeDir + "\n" +
+                "rm -f $d/*\n" +
+                "mkfifo $d/test 2>/dev/null || mknod $d/test p || exit 1\n" +
+                "rm -f $d/test\n" +
+                "while true; do\n" +
+                "  for f in " + DEVICE_DIR + "/" + DEVICE_PREFIX + "*; do\n" +
+                "    n=${f##*" + DEVICE_PREFIX + "}\n" +
+                "    p=$d/$n\n" +
+                "    [ -e $f ] && [ ! -p $p ] || continue\n" +
+                "    (mkfifo $p 2>/dev/null || mknod $p p) && chmod 666 $p || continue\n" +
+                "    echo add $n\n" +
+                // 只有设备被移除时才删除管道，读取失败的设备不会被反复重试
+                "    (cat $f > $p; [ -e $f ] || rm -f $p) &\n" +
+                "  done\n" +
+                "  echo\n" +
+                "  sleep " + RESCAN_INTERVAL + "\n" +
+                "done\n";
+    }
+
+    /**
+     * input_event中timeval的大小取决于读取设备的cat进程的位数，通过cat可执行文件的ELF头判断
+     */
+    private static boolean isCat64Bit() {
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream("/system/bin/cat");
+            byte[] header = new byte[5];
+            if (inputStream.read(header) == header.length && header[0] == 0x7f && header[1] == 'E') {
+                return header[4] == 2;
+            }
+        } catch (IOException ignored) {
+
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException ignored) {
+
+                }
+            }
+        }
+        return Build.VERSION.SDK_INT >= 21 && Build.SUPPORTED_64_BIT_ABIS.length > 0;
+    }
+
+    private void startReader(final int device, final File pipe, final boolean is64Bit) {
+        synchronized (mReaders) {
+            if (mRecycled || mReaders.containsKey(device)) {
+                return;
+            }
+            // 占位，打开管道要等cat开始写入，不在锁内进行
+            mReaders.put(device, null);
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                InputStream inputStream = null;
+                try {
+                    inputStream = new FileInputStream(pipe);
+                    synchronized (mReaders) {
+                        if (mRecycled) {
+                            return;
+                        }
+                        mReaders.put(device, inputStream);
+                    }
+                    RawInputEventReader reader = new RawInputEventReader(new BufferedInputStream(inputStream), device, is64Bit);
+                    InputEvent event = new InputEvent();
+                    while (reader.read(event)) {
+                        dispatchInputEvent(event);
+                    }
+                } catch (IOException e) {
+                    if (!mRecycled) {
+                        Log.w(LOG_TAG, "stop reading device " + device, e);
+                    }
+                } finally {
+                    // 设备被移除或cat退出，设备重新出现时会再次收到"add"
+                    synchronized (mReaders) {
+                        mReaders.remove(device);
+                    }
+                    closeQuietly(inputStream);
+                }
+            }
+        }, "InputEventReader-" + device);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        if (inputStream == null) {
+            return;
+        }
+        try {
+            inputStream.close();
+        } catch (IOException ignored) {
+
+        }
+    }
+
+    private synchronized void observeByGetEvent() {
+        if (mRecycled) {
+            return;
+        }
         mShell = new Shell(mContext, true);
         mShell.setCallback(new Shell.SimpleCallback() {
             @Override
@@ -107,17 +356,22 @@ public class InputEventObserver {
     public void onInputEvent(String eventStr) {
         if (TextUtils.isEmpty(eventStr) || !eventStr.startsWith("["))
             return;
-        try {
-            InputEvent event = InputEvent.parse(eventStr);
-            dispatchInputEvent(event);
-        } catch (Exception ignored) {
-
+        synchronized (mTextEvent) {
+            if (InputEvent.parse(eventStr, mTextEvent)) {
+                dispatchInputEvent(mTextEvent);
+            }
         }
     }
 
     private void dispatchInputEvent(InputEvent event) {
-        for (InputEventListener listener : mInputEventListeners) {
-            listener.onInputEvent(event);
+        synchronized (mDispatchLock) {
+            for (InputEventListener listener : mInputEventListeners) {
+                try {
+                    listener.onInputEvent(event);
+                } catch (Exception e) {
+                    Log.e(LOG_TAG, "listener " + listener + " failed", e);
+                }
+            }
         }
     }
 
@@ -131,7 +385,21 @@ public class InputEventObserver {
 
 
     public void recycle() {
-        mShell.exit();
+        mRecycled = true;
+        synchronized (this) {
+            if (mShell != null) {
+                mShell.exit();
+            }
+        }
+        synchronized (mReaders) {
+            if (mRootProcess != null) {
+                mRootProcess.destroy();
+            }
+            for (InputStream inputStream : mReaders.values()) {
+                closeQuietly(inputStream);
+            }
+            mReaders.clear();
+        }
     }
 
 
@@ -0,0 +1,88 @@
+package com.stardust.autojs.core.inputevent;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Created by Stardust on 2017/11/1.
+ * <p>
+ * 从/dev/input/eventN的原始数据中读取struct input_event：
+ * <pre>
+ * struct input_event {
+ *     struct timeval time; // 32位进程为2个int，64位进程为2个long
+ *     __u16 type;
+ *     __u16 code;
+ *     __s32 value;
+ * };
+ * </pre>
+ * 结构体的大小取决于读取设备的进程(cat)是32位还是64位。数据为小端序。
+ * 每次读取都写入同一个事件对象，读取过程中不分配内存。
+ */
+public class RawInputEventReader {
+
+    public static final int RECORD_SIZE_32 = 16;
+    public static final int RECORD_SIZE_64 = 24;
+
+    private final InputStream mInputStream;
+    private final int mDevice;
+    private final boolean mLongTime;
+    private final byte[] mBuffer;
+
+    public RawInputEventReader(InputStream inputStream, int device, boolean is64Bit) {
+        mInputStream = inputStream;
+        mDevice = device;
+        mLongTime = is64Bit;
+        mBuffer = new byte[is64Bit ? RECORD_SIZE_64 : RECORD_SIZE_32];
+    }
+
+    /**
+     * 读取下一个事件到event中
+     *
+     * @return 流结束时返回false
+     */
+    public boolean read(InputEventObserver.InputEvent event) throws IOException {
+        int n = 0;
+        while (n < mBuffer.length) {
+            int r = mInputStream.read(mBuffer, n, mBuffer.length - n);
+            if (r < 0) {
+                if (n == 0) {
+                    return false;
+                }
+                throw new EOFException("truncated input_event: " + n + " bytes");
+            }
+            n += r;
+        }
+        long sec, usec;
+        int i;
+        if (mLongTime) {
+            sec = readLong(0);
+            usec = readLong(8);
+            i = 16;
+        } else {
+            sec = readInt(0) & 0xffffffffL;
+            usec = readInt(4) & 0xffffffffL;
+            i = 8;
+        }
+        event.time = sec + usec / 1000000.0;
+        event.device = mDevice;
+        event.type = readShort(i);
+        event.code = readShort(i + 2);
+        event.value = readInt(i + 4);
+        return true;
+    }
+
+    private int readShort(int i) {
+        return (mBuffer[i] & 0xff) | (mBuffer[i + 1] & 0xff) << 8;
+    }
+
+    private int readInt(int i) {
+        return (mBuffer[i] & 0xff) | (mBuffer[i + 1] & 0xff) << 8
+                | (mBuffer[i + 2] & 0xff) << 16 | (mBuffer[i + 3] & 0xff) << 24;
+    }
+
+    private long readLong(int i) {
+        return (readInt(i) & 0xffffffffL) | ((long) readInt(i + 4)) << 32;
+    }
+
+}
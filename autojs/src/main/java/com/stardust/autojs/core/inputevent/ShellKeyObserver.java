@@ -36,14 +36,14 @@ public class ShellKeyObserver implements InputEventObserver.InputEventListener {
 
     @Override
     public void onInputEvent(@NonNull InputEventObserver.InputEvent event) {
-        if (!event.type.equals("0001")) {
+        if (event.type != InputEventCodes.EV_KEY) {
             return;
         }
-        if (event.value.equalsIgnoreCase("00000000")) {
-            notifyKeyUp(keyCodeToKeyName(Integer.parseInt(event.code, 16)));
+        if (event.value == 0) {
+            notifyKeyUp(keyCodeToKeyName(event.code));
         }
-        if (event.value.equalsIgnoreCase("00000001")) {
-            notifyKeyDown(keyCodeToKeyName(Integer.parseInt(event.code, 16)));
+        if (event.value == 1) {
+            notifyKeyDown(keyCodeToKeyName(event.code));
         }
     }
 
@@ -0,0 +1,310 @@
+package com.stardust.autojs.core.inputevent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Created by Stardust on 2017/10/31.
+ * <p>
+ * 把若干条手指轨迹(Stroke)按固定的报点率采样，预先计算出整个手势的触摸帧序列。
+ * 每一帧包含同一时刻所有手指的按下、移动或抬起，回放时只需按帧的时间依次发送。
+ */
+public class TouchGesture {
+
+    public static final int ACTION_DOWN = 0;
+    public static final int ACTION_MOVE = 1;
+    public static final int ACTION_UP = 2;
+
+    private static final int MAX_CURVE_SEGMENTS = 32;
+    private static final float CURVE_SEGMENT_LENGTH = 8;
+
+    /**
+     * 一根手指的轨迹。与{@link android.graphics.Path}类似，由moveTo/lineTo/quadTo/cubicTo组成，
+     * 曲线在添加时展开为折线。手指在duration内沿轨迹匀速移动。
+     */
+    public static class Stroke {
+
+        private final int mId;
+        private final long mStartTime;
+        private final long mDuration;
+        private float[] mPoints = new float[16];
+        private int mPointCount = 0;
+        private float[] mLengths = new float[8];
+
+        public Stroke(int id, long startTime, long duration) {
+            if (startTime < 0 || duration < 0) {
+                throw new IllegalArgumentException("startTime = " + startTime + ", duration = " + duration);
+            }
+            mId = id;
+            mStartTime = startTime;
+            mDuration = duration;
+        }
+
+        public Stroke moveTo(float x, float y) {
+            if (mPointCount > 0) {
+                throw new IllegalStateException("moveTo() must be the first operation of a stroke");
+            }
+            addPoint(x, y);
+            return this;
+        }
+
+        public Stroke lineTo(float x, float y) {
+            ensureStarted();
+            addPoint(x, y);
+            return this;
+        }
+
+        public Stroke quadTo(float x1, float y1, float x2, float y2) {
+            ensureStarted();
+            float x0 = lastX(), y0 = lastY();
+            int segments = segments(x0, y0, x1, y1, x2, y2, x2, y2);
+            for (int i = 1; i <= segments; i++) {
+                float t = (float) i / segments, u = 1 - t;
+                addPoint(u * u * x0 + 2 * u * t * x1 + t * t * x2,
+                        u * u * y0 + 2 * u * t * y1 + t * t * y2);
+            }
+            return this;
+        }
+
+        public Stroke cubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+            ensureStarted();
+            float x0 = lastX(), y0 = lastY();
+            int segments = segments(x0, y0, x1, y1, x2, y2, x3, y3);
+            for (int i = 1; i <= segments; i++) {
+                float t = (float) i / segments, u = 1 - t;
+                float a = u * u * u, b = 3 * u * u * t, c = 3 * u * t * t, d = t * t * t;
+                addPoint(a * x0 + b * x1 + c * x2 + d * x3, a * y0 + b * y1 + c * y2 + d * y3);
+            }
+            return this;
+        }
+
+        public int getId() {
+            return mId;
+        }
+
+        public long getStartTime() {
+            return mStartTime;
+        }
+
+        public long getDuration() {
+            return mDuration;
+        }
+
+        private void ensureStarted() {
+            if (mPointCount == 0) {
+                throw new IllegalStateException("moveTo() must be called first");
+            }
+        }
+
+        private float lastX() {
+            return mPoints[(mPointCount - 1) * 2];
+        }
+
+        private float lastY() {
+            return mPoints[(mPointCount - 1) * 2 + 1];
+        }
+
+        /**
+         * 按控制多边形的长度决定曲线展开的段数
+         */
+        private static int segments(float x0, float y0, float x1, float y1, float x2, float y2, float x3, float y3) {
+            float length = distance(x0, y0, x1, y1) + distance(x1, y1, x2, y2) + distance(x2, y2, x3, y3);
+            return Math.max(1, Math.min(MAX_CURVE_SEGMENTS, (int) Math.ceil(length / CURVE_SEGMENT_LENGTH)));
+        }
+
+        private void addPoint(float x, float y) {
+            if (mPointCount * 2 + 2 > mPoints.length) {
+                mPoints = Arrays.copyOf(mPoints, mPoints.length * 2);
+            }
+            if (mPointCount >= mLengths.length) {
+                mLengths = Arrays.copyOf(mLengths, mLengths.length * 2);
+            }
+            // mLengths[i]为从起点到第i个点的累计长度
+            mLengths[mPointCount] = mPointCount == 0 ? 0 : mLengths[mPointCount - 1] + distance(lastX(), lastY(), x, y);
+            mPoints[mPointCount * 2] = x;
+            mPoints[mPointCount * 2 + 1] = y;
+            mPointCount++;
+        }
+
+        /**
+         * 计算经过轨迹总长度的fraction时的位置
+         */
+        void positionAt(float fraction, float[] out) {
+            float target = mLengths[mPointCount - 1] * Math.max(0, Math.min(1, fraction));
+            int i = 1;
+            while (i < mPointCount && mLengths[i] < target) {
+                i++;
+            }
+            if (i >= mPointCount) {
+                out[0] = lastX();
+                out[1] = lastY();
+                return;
+            }
+            float segment = mLengths[i] - mLengths[i - 1];
+            float alpha = segment == 0 ? 1 : (target - mLengths[i - 1]) / segment;
+            out[0] = mPoints[(i - 1) * 2] + (mPoints[i * 2] - mPoints[(i - 1) * 2]) * alpha;
+            out[1] = mPoints[(i - 1) * 2 + 1] + (mPoints[i * 2 + 1] - mPoints[(i - 1) * 2 + 1]) * alpha;
+        }
+
+        private static float distance(float x0, float y0, float x1, float y1) {
+            return (float) Math.hypot(x1 - x0, y1 - y0);
+        }
+    }
+
+    /**
+     * 同一时刻发送的一组触摸事件，最后跟一个SYN_REPORT
+     */
+    public static class Frame {
+
+        private final long mTimeNanos;
+        private final int[] mStrokes;
+        private final int[] mActions;
+        private final int[] mX;
+        private final int[] mY;
+
+        Frame(long timeNanos, int[] strokes, int[] actions, int[] x, int[] y) {
+            mTimeNanos = timeNanos;
+            mStrokes = strokes;
+            mActions = actions;
+            mX = x;
+            mY = y;
+        }
+
+        /**
+         * @return 相对手势开始的时间(纳秒)
+         */
+        public long getTimeNanos() {
+            return mTimeNanos;
+        }
+
+        public int getContactCount() {
+            return mStrokes.length;
+        }
+
+        /**
+         * @return 第i个触点对应的轨迹在传入{@link #plan(int, Stroke...)}的数组中的下标
+         */
+        public int getStrokeIndex(int i) {
+            return mStrokes[i];
+        }
+
+        public int getAction(int i) {
+            return mActions[i];
+        }
+
+        public int getX(int i) {
+            return mX[i];
+        }
+
+        public int getY(int i) {
+            return mY[i];
+        }
+    }
+
+    private static class Contact {
+
+        final long time;
+        final int order;
+        final int stroke;
+        final int action;
+        final int x;
+        final int y;
+
+        Contact(long time, int stroke, int action, float[] position) {
+            this.time = time;
+            // 同一时刻先移动到终点再抬起
+            this.order = action == ACTION_UP ? 1 : 0;
+            this.stroke = stroke;
+            this.action = action;
+            this.x = Math.round(position[0]);
+            this.y = Math.round(position[1]);
+        }
+    }
+
+    private static final Comparator<Contact> CONTACT_ORDER = new Comparator<Contact>() {
+        @Override
+        public int compare(Contact o1, Contact o2) {
+            if (o1.time != o2.time) {
+                return o1.time < o2.time ? -1 : 1;
+            }
+            if (o1.order != o2.order) {
+                return o1.order - o2.order;
+            }
+            return o1.stroke - o2.stroke;
+        }
+    };
+
+    /**
+     * 按报点率reportRate(Hz)采样所有轨迹。采样时刻为所有手指共用的等间隔时间点，
+     * 再加上每根手指按下和抬起的时刻，因此多指手势的移动总是在同一帧中发送。
+     */
+    public static List<Frame> plan(int reportRate, Stroke... strokes) {
+        if (reportRate <= 0) {
+            throw new IllegalArgumentException("reportRate = " + reportRate);
+        }
+        long interval = 1000000000L / reportRate;
+        TreeSet<Long> sampleTimes = new TreeSet<>();
+        long end = 0;
+        for (Stroke stroke : strokes) {
+            if (stroke.mPointCount == 0) {
+                throw new IllegalArgumentException("empty stroke: " + stroke.getId());
+            }
+            end = Math.max(end, millisToNanos(stroke.mStartTime + stroke.mDuration));
+        }
+        for (long t = 0; t < end; t += interval) {
+            sampleTimes.add(t);
+        }
+        List<Contact> contacts = new ArrayList<>();
+        float[] position = new float[2];
+        for (int i = 0; i < strokes.length; i++) {
+            Stroke stroke = strokes[i];
+            long start = millisToNanos(stroke.mStartTime);
+            long duration = millisToNanos(stroke.mDuration);
+            stroke.positionAt(0, position);
+            contacts.add(new Contact(start, i, ACTION_DOWN, position));
+            for (long t : sampleTimes.subSet(start, false, start + duration, false)) {
+                stroke.positionAt((float) (t - start) / duration, position);
+                contacts.add(new Contact(t, i, ACTION_MOVE, position));
+            }
+            stroke.positionAt(1, position);
+            if (duration > 0) {
+                contacts.add(new Contact(start + duration, i, ACTION_MOVE, position));
+            }
+            contacts.add(new Contact(start + duration, i, ACTION_UP, position));
+        }
+        Collections.sort(contacts, CONTACT_ORDER);
+        return toFrames(contacts);
+    }
+
+    private static List<Frame> toFrames(List<Contact> contacts) {
+        List<Frame> frames = new ArrayList<>();
+        int from = 0;
+        while (from < contacts.size()) {
+            Contact first = contacts.get(from);
+            int to = from + 1;
+            while (to < contacts.size() && contacts.get(to).time == first.time && contacts.get(to).order == first.order) {
+                to++;
+            }
+            int n = to - from;
+            int[] strokes = new int[n], actions = new int[n], x = new int[n], y = new int[n];
+            for (int i = 0; i < n; i++) {
+                Contact contact = contacts.get(from + i);
+                strokes[i] = contact.stroke;
+                actions[i] = contact.action;
+                x[i] = contact.x;
+                y[i] = contact.y;
+            }
+            frames.add(new Frame(first.time, strokes, actions, x, y));
+            from = to;
+        }
+        return frames;
+    }
+
+    private static long millisToNanos(long millis) {
+        return millis * 1000000L;
+    }
+}
@@ -2,8 +2,6 @@ package com.stardust.autojs.core.inputevent;
 
 import android.support.annotation.NonNull;
 
-import static com.stardust.autojs.core.record.inputevent.InputEventRecorder.parseDeviceNumber;
-
 
 /**
  * Created by Stardust on 2017/7/20.
@@ -48,10 +46,9 @@ public class TouchObserver implements InputEventObserver.InputEventListener {
 
     @Override
     public void onInputEvent(@NonNull InputEventObserver.InputEvent event) {
-        int device = parseDeviceNumber(event.device);
-        int type = (int) Long.parseLong(event.type, 16);
-        int code = (int) Long.parseLong(event.code, 16);
-        int value = (int) Long.parseLong(event.value, 16);
+        int type = event.type;
+        int code = event.code;
+        int value = event.value;
         if (type != 3) {
             return;
         }
@@ -0,0 +1,102 @@
+package com.stardust.autojs.core.record.inputevent;
+
+import com.stardust.autojs.core.inputevent.InputEventObserver;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Created by Stardust on 2017/11/2.
+ * <p>
+ * 回放第2版的.auto文件，可以只播放其中一段、循环播放和改变速度。
+ * 播放一段时从不晚于开始时间的关键帧开始读取，先发送关键帧中保存的触摸状态，开始时间之前的事件立即发送(用于恢复触摸状态)，
+ * 之后按时间发送。每次播放结束(包括在一段的结尾或循环的结尾截断)时，如果仍有按下的触点，会补上抬起。
+ */
+public class AutoFilePlayer {
+
+    public interface EventSink {
+        void sendEvent(int type, int code, int value) throws IOException;
+    }
+
+    private final AutoFileReader mReader;
+    private final EventSink mSink;
+    private long mFrom = 0;
+    private long mTo = Long.MAX_VALUE;
+    private float mSpeed = 1;
+    private int mLoopTimes = 1;
+
+    public AutoFilePlayer(AutoFileReader reader, EventSink sink) {
+        mReader = reader;
+        mSink = sink;
+    }
+
+    /**
+     * @param from 开始时间(毫秒)
+     * @param to   结束时间(毫秒)，小于0表示到文件结尾
+     */
+    public AutoFilePlayer range(long from, long to) {
+        mFrom = Math.max(0, from);
+        mTo = to < 0 ? Long.MAX_VALUE : to;
+        return this;
+    }
+
+    public AutoFilePlayer speed(float speed) {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("speed = " + speed);
+        }
+        mSpeed = speed;
+        return this;
+    }
+
+    /**
+     * @param loopTimes 播放次数，小于等于0表示无限循环
+     */
+    public AutoFilePlayer loopTimes(int loopTimes) {
+        mLoopTimes = loopTimes;
+        return this;
+    }
+
+    public void play() throws IOException, InterruptedException {
+        InputEventObserver.InputEvent event = new InputEventObserver.InputEvent();
+        for (int i = 0; mLoopTimes <= 0 || i < mLoopTimes; i++) {
+            ContactState contactState = new ContactState();
+            mReader.seek(mFrom);
+            try {
+                int[] state = mReader.getKeyFrameState();
+                for (int j = 0; j < state.length; j += 3) {
+                    send(contactState, state[j], state[j + 1], state[j + 2]);
+                }
+                long startTime = System.nanoTime();
+                while (mReader.next(event)) {
+                    long time = Math.round(event.time * 1000);
+                    if (time > mTo) {
+                        break;
+                    }
+                    if (time > mFrom) {
+                        sleepUntil(startTime + (long) ((time - mFrom) * 1000000L / mSpeed));
+                    }
+                    send(contactState, event.type, event.code, event.value);
+                }
+            } finally {
+                if (contactState.isDown()) {
+                    contactState.sendUp(mSink);
+                }
+            }
+        }
+    }
+
+    private void send(ContactState contactState, int type, int code, int value) throws IOException {
+        mSink.sendEvent(type, code, value);
+        contactState.update(type, code, value);
+    }
+
+    private static void sleepUntil(long nanoTime) throws InterruptedException {
+        long remaining;
+        while ((remaining = nanoTime - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+}
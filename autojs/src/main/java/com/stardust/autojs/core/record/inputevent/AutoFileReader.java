@@ -0,0 +1,375 @@
+package com.stardust.autojs.core.record.inputevent;
+
+import com.stardust.autojs.core.inputevent.InputEventCodes;
+import com.stardust.autojs.core.inputevent.InputEventObserver;
+import com.stardust.autojs.runtime.api.RootAutomator;
+import com.stardust.pio.UncheckedIOException;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static com.stardust.autojs.core.record.inputevent.AutoFileWriter.BLOCK_TAG;
+import static com.stardust.autojs.core.record.inputevent.AutoFileWriter.DATA_TYPE_STATE;
+import static com.stardust.autojs.core.record.inputevent.AutoFileWriter.HEADER_SIZE;
+import static com.stardust.autojs.core.record.inputevent.AutoFileWriter.INDEX_TAG;
+import static com.stardust.autojs.core.record.inputevent.AutoFileWriter.MAGIC;
+import static com.stardust.autojs.core.record.inputevent.AutoFileWriter.TRAILER_MAGIC;
+
+/**
+ * Created by Stardust on 2017/11/2.
+ * <p>
+ * 读取第2版的.auto文件，格式见{@link AutoFileWriter}。打开时只读取索引，之后每次读入一个数据块并在内存中解码。
+ * 录制中途被中断的文件没有索引，此时只读取各数据块的块头来重建索引。
+ * <p>
+ * 也可以顺序读取第1版的文件，但第1版没有索引，seek总是回到文件开头。
+ */
+public class AutoFileReader implements Closeable {
+
+    private final File mPath;
+    private final RandomAccessFile mFile;
+    private DataInputStream mV1InputStream;
+    private final int mVersion;
+    private final int mWidth;
+    private final int mHeight;
+    private int[] mBlockTimes = new int[0];
+    private long[] mBlockOffsets = new long[0];
+    private int mBlockCount;
+
+    private int mNextBlock;
+    private byte[] mBlock = new byte[0];
+    private int mBlockLength;
+    private int mPosition;
+    private int mRemainingEvents;
+    private long mTime;
+    private int mLastX, mLastY;
+    private int[] mKeyFrameState = new int[0];
+
+    public AutoFileReader(File file) throws IOException {
+        mPath = file;
+        mFile = new RandomAccessFile(file, "r");
+        try {
+            if (mFile.readInt() != MAGIC) {
+                throw new IOException("not an auto file: " + file);
+            }
+            mVersion = mFile.readInt();
+            mWidth = mFile.readInt();
+            mHeight = mFile.readInt();
+            if (mVersion >= AutoFileWriter.VERSION) {
+                readIndex();
+            } else {
+                openV1();
+            }
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return 文件格式的版本，不是.auto文件时返回-1
+     */
+    public static int readVersion(File file) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(file, "r");
+        try {
+            if (f.length() < 8 || f.readInt() != MAGIC) {
+                return -1;
+            }
+            return f.readInt();
+        } finally {
+            f.close();
+        }
+    }
+
+    private void readIndex() throws IOException {
+        long length = mFile.length();
+        if (length >= HEADER_SIZE + 12) {
+            mFile.seek(length - 12);
+            long indexOffset = mFile.readLong();
+            if (mFile.readInt() == TRAILER_MAGIC && indexOffset >= HEADER_SIZE && indexOffset < length) {
+                mFile.seek(indexOffset);
+                if (mFile.readByte() == INDEX_TAG) {
+                    int count = mFile.readInt();
+                    ensureIndexCapacity(count);
+                    for (int i = 0; i < count; i++) {
+                        mBlockTimes[i] = mFile.readInt();
+                        mBlockOffsets[i] = mFile.readLong();
+                    }
+                    mBlockCount = count;
+                    return;
+                }
+            }
+        }
+        scanBlocks(length);
+    }
+
+    private void scanBlocks(long length) throws IOException {
+        long offset = HEADER_SIZE;
+        mBlockCount = 0;
+        while (offset + 13 <= length) {
+            mFile.seek(offset);
+            if (mFile.readByte() != BLOCK_TAG) {
+                break;
+            }
+            int time = mFile.readInt();
+            mFile.readInt();
+            int blockLength = mFile.readInt();
+            if (offset + 13 + blockLength > length) {
+                break;
+            }
+            ensureIndexCapacity(mBlockCount + 1);
+            mBlockTimes[mBlockCount] = time;
+            mBlockOffsets[mBlockCount] = offset;
+            mBlockCount++;
+            offset += 13 + blockLength;
+        }
+    }
+
+    private void ensureIndexCapacity(int n) {
+        if (mBlockTimes.length < n) {
+            int capacity = Math.max(n, mBlockTimes.length * 2);
+            mBlockTimes = Arrays.copyOf(mBlockTimes, capacity);
+            mBlockOffsets = Arrays.copyOf(mBlockOffsets, capacity);
+        }
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * 定位到开始时间不晚于timeMillis的最后一个数据块(关键帧)。之后读取的第一个事件的时间可能早于timeMillis
+     */
+    public void seek(long timeMillis) {
+        if (mVersion < AutoFileWriter.VERSION) {
+            try {
+                openV1();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
+        int i = Arrays.binarySearch(mBlockTimes, 0, mBlockCount, (int) Math.min(Integer.MAX_VALUE, timeMillis));
+        if (i < 0) {
+            i = Math.max(0, -i - 2);
+        } else {
+            // 可能有多个开始时间相同的数据块
+            while (i > 0 && mBlockTimes[i - 1] == mBlockTimes[i]) {
+                i--;
+            }
+        }
+        mNextBlock = i;
+        mRemainingEvents = 0;
+        mKeyFrameState = new int[0];
+        if (i < mBlockCount) {
+            try {
+                readBlock(mNextBlock++);
+                readKeyFrameState();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * 读取数据块开头保存的触摸状态
+     */
+    private void readKeyFrameState() throws IOException {
+        int[] state = new int[0];
+        int n = 0;
+        while (mRemainingEvents > 0) {
+            int position = mPosition;
+            long delta = readVarInt();
+            if (mBlock[mPosition] != DATA_TYPE_STATE) {
+                mPosition = position;
+                break;
+            }
+            mPosition++;
+            mTime += delta;
+            mRemainingEvents--;
+            if (n + 3 > state.length) {
+                state = Arrays.copyOf(state, Math.max(12, state.length * 2));
+            }
+            state[n++] = (int) readVarInt();
+            state[n++] = (int) readVarInt();
+            state[n++] = unzigzag(readVarInt());
+        }
+        mKeyFrameState = Arrays.copyOf(state, n);
+    }
+
+    /**
+     * 最近一次{@link #seek(long)}定位到的关键帧开始时按下的触点状态，每3个int为一个事件(type, code, value)。
+     * 从关键帧开始回放时应先发送这些事件，否则会在没有按下的情况下移动。第1版的文件总是从头读取，返回空数组。
+     */
+    public int[] getKeyFrameState() {
+        return mKeyFrameState;
+    }
+
+    /**
+     * 读取下一个事件，event.time为相对录制开始的秒数
+     *
+     * @return 没有更多事件时返回false
+     */
+    public boolean next(InputEventObserver.InputEvent event) throws IOException {
+        if (mVersion < AutoFileWriter.VERSION) {
+            return nextV1(event);
+        }
+        while (mRemainingEvents == 0) {
+            if (mNextBlock >= mBlockCount) {
+                return false;
+            }
+            readBlock(mNextBlock++);
+        }
+        mRemainingEvents--;
+        mTime += readVarInt();
+        event.time = mTime / 1000.0;
+        event.device = -1;
+        int kind = mBlock[mPosition++];
+        switch (kind) {
+            case DATA_TYPE_STATE:
+                // 顺序读取时触摸状态已经包含在之前的事件中
+                readVarInt();
+                readVarInt();
+                readVarInt();
+                return next(event);
+            case RootAutomator.DATA_TYPE_EVENT_SYNC_REPORT:
+                event.type = InputEventCodes.EV_SYN;
+                event.code = InputEventCodes.SYN_REPORT;
+                event.value = 0;
+                break;
+            case RootAutomator.DATA_TYPE_EVENT_TOUCH_X:
+                mLastX += unzigzag(readVarInt());
+                event.type = InputEventCodes.EV_ABS;
+                event.code = InputEventCodes.ABS_MT_POSITION_X;
+                event.value = mLastX;
+                break;
+            case RootAutomator.DATA_TYPE_EVENT_TOUCH_Y:
+                mLastY += unzigzag(readVarInt());
+                event.type = InputEventCodes.EV_ABS;
+                event.code = InputEventCodes.ABS_MT_POSITION_Y;
+                event.value = mLastY;
+                break;
+            case RootAutomator.DATA_TYPE_EVENT:
+                event.type = (int) readVarInt();
+                event.code = (int) readVarInt();
+                event.value = unzigzag(readVarInt());
+                break;
+            default:
+                throw new IOException("unknown event kind " + kind + " in block " + (mNextBlock - 1));
+        }
+        return true;
+    }
+
+    /**
+     * @return 最后一个数据块的开始时间(毫秒)，可用来估计总时长
+     */
+    public long getLastBlockTime() {
+        return mBlockCount == 0 ? 0 : mBlockTimes[mBlockCount - 1];
+    }
+
+    private void openV1() throws IOException {
+        if (mV1InputStream != null) {
+            mV1InputStream.close();
+        }
+        mV1InputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(mPath)));
+        mV1InputStream.skipBytes(HEADER_SIZE);
+        mTime = 0;
+    }
+
+    private boolean nextV1(InputEventObserver.InputEvent event) throws IOException {
+        while (true) {
+            int kind = mV1InputStream.read();
+            if (kind < 0) {
+                return false;
+            }
+            event.device = -1;
+            switch (kind) {
+                case RootAutomator.DATA_TYPE_SLEEP:
+                    mTime += mV1InputStream.readInt();
+                    continue;
+                case RootAutomator.DATA_TYPE_EVENT:
+                    event.type = mV1InputStream.readUnsignedShort();
+                    event.code = mV1InputStream.readUnsignedShort();
+                    event.value = mV1InputStream.readInt();
+                    break;
+                case RootAutomator.DATA_TYPE_EVENT_SYNC_REPORT:
+                    event.type = InputEventCodes.EV_SYN;
+                    event.code = InputEventCodes.SYN_REPORT;
+                    event.value = 0;
+                    break;
+                case RootAutomator.DATA_TYPE_EVENT_TOUCH_X:
+                    event.type = InputEventCodes.EV_ABS;
+                    event.code = InputEventCodes.ABS_MT_POSITION_X;
+                    event.value = mV1InputStream.readInt();
+                    break;
+                case RootAutomator.DATA_TYPE_EVENT_TOUCH_Y:
+                    event.type = InputEventCodes.EV_ABS;
+                    event.code = InputEventCodes.ABS_MT_POSITION_Y;
+                    event.value = mV1InputStream.readInt();
+                    break;
+                default:
+                    throw new IOException("unknown event kind " + kind);
+            }
+            event.time = mTime / 1000.0;
+            return true;
+        }
+    }
+
+    private void readBlock(int i) throws IOException {
+        mFile.seek(mBlockOffsets[i]);
+        if (mFile.readByte() != BLOCK_TAG) {
+            throw new IOException("bad block at " + mBlockOffsets[i]);
+        }
+        mTime = mFile.readInt();
+        mRemainingEvents = mFile.readInt();
+        mBlockLength = mFile.readInt();
+        if (mBlock.length < mBlockLength) {
+            mBlock = new byte[mBlockLength];
+        }
+        mFile.readFully(mBlock, 0, mBlockLength);
+        mPosition = 0;
+        mLastX = mLastY = 0;
+    }
+
+    private long readVarInt() throws IOException {
+        long n = 0;
+        int shift = 0;
+        while (true) {
+            if (mPosition >= mBlockLength) {
+                throw new EOFException("truncated block " + (mNextBlock - 1));
+            }
+            int b = mBlock[mPosition++];
+            n |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+            shift += 7;
+        }
+    }
+
+    private static int unzigzag(long n) {
+        return (int) ((n >>> 1) ^ -(n & 1));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mV1InputStream != null) {
+            mV1InputStream.close();
+        }
+        mFile.close();
+    }
+}
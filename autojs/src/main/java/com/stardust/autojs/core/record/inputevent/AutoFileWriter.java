@@ -0,0 +1,175 @@
+package com.stardust.autojs.core.record.inputevent;
+
+import com.stardust.autojs.core.inputevent.InputEventCodes;
+import com.stardust.autojs.runtime.api.RootAutomator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by Stardust on 2017/11/2.
+ * <p>
+ * 写入第2版的.auto文件。文件结构：
+ * <pre>
+ * 文件头(256字节)：int magic, int version(2), int width, int height, 补0
+ * 数据块：byte 'B', int startTime, int eventCount, int length, 事件数据
+ * 索引：byte 'I', int blockCount, blockCount个(int startTime, long offset)
+ * 结尾：long 索引的偏移, int magic
+ * </pre>
+ * 事件数据中的时间是相对前一个事件的毫秒数，触摸坐标是相对前一个坐标的差值，都以变长整数保存。
+ * 每个数据块都从一帧的开始(SYN_REPORT之后)开始，差值从0开始计算，因此可以从任何一个数据块开始解码。
+ * 数据块开始时如果有按下的触点，块的开头先保存这些触点的状态({@link #DATA_TYPE_STATE})，
+ * 从这个块开始回放时据此补上按下；顺序读取时跳过。
+ */
+public class AutoFileWriter implements Closeable {
+
+    public static final int MAGIC = 0x00B87B6D;
+    public static final int TRAILER_MAGIC = 0x00B87B6E;
+    public static final int VERSION = 2;
+    public static final int HEADER_SIZE = 256;
+    public static final byte BLOCK_TAG = 'B';
+    public static final byte INDEX_TAG = 'I';
+    /**
+     * 关键帧中的触摸状态事件，编码与RootAutomator.DATA_TYPE_EVENT相同
+     */
+    public static final int DATA_TYPE_STATE = 0x10;
+
+    private static final int MAX_BLOCK_EVENTS = 512;
+    private static final long MAX_BLOCK_DURATION = 1000;
+
+    private final DataOutputStream mOutputStream;
+    private final ByteArrayOutputStream mBlock = new ByteArrayOutputStream(4096);
+    private final List<long[]> mIndex = new ArrayList<>();
+    private long mOffset;
+    private long mBlockStartTime = -1;
+    private long mLastTime;
+    private int mBlockEventCount;
+    private int mLastX, mLastY;
+    private final ContactState mContactState = new ContactState();
+    private boolean mClosed = false;
+
+    /**
+     * @param outputStream 应当是带缓冲的流
+     */
+    public AutoFileWriter(OutputStream outputStream, int width, int height) throws IOException {
+        mOutputStream = new DataOutputStream(outputStream);
+        mOutputStream.writeInt(MAGIC);
+        mOutputStream.writeInt(VERSION);
+        mOutputStream.writeInt(width);
+        mOutputStream.writeInt(height);
+        mOutputStream.write(new byte[HEADER_SIZE - 16]);
+        mOffset = HEADER_SIZE;
+    }
+
+    /**
+     * @param timeMillis 相对录制开始的时间，不能比上一个事件小
+     */
+    public void writeEvent(long timeMillis, int type, int code, int value) throws IOException {
+        if (mBlockStartTime < 0) {
+            mBlockStartTime = timeMillis;
+            mLastTime = timeMillis;
+            writeContactState();
+        }
+        mContactState.update(type, code, value);
+        writeVarInt(Math.max(0, timeMillis - mLastTime));
+        mLastTime = Math.max(mLastTime, timeMillis);
+        boolean sync = false;
+        if (type == InputEventCodes.EV_SYN && code == InputEventCodes.SYN_REPORT && value == 0) {
+            mBlock.write(RootAutomator.DATA_TYPE_EVENT_SYNC_REPORT);
+            sync = true;
+        } else if (type == InputEventCodes.EV_ABS && code == InputEventCodes.ABS_MT_POSITION_X) {
+            mBlock.write(RootAutomator.DATA_TYPE_EVENT_TOUCH_X);
+            writeVarInt(zigzag(value - mLastX));
+            mLastX = value;
+        } else if (type == InputEventCodes.EV_ABS && code == InputEventCodes.ABS_MT_POSITION_Y) {
+            mBlock.write(RootAutomator.DATA_TYPE_EVENT_TOUCH_Y);
+            writeVarInt(zigzag(value - mLastY));
+            mLastY = value;
+        } else {
+            mBlock.write(RootAutomator.DATA_TYPE_EVENT);
+            writeVarInt(type);
+            writeVarInt(code);
+            writeVarInt(zigzag(value));
+        }
+        mBlockEventCount++;
+        if (sync && (mBlockEventCount >= MAX_BLOCK_EVENTS || mLastTime - mBlockStartTime >= MAX_BLOCK_DURATION)) {
+            flushBlock();
+        }
+    }
+
+    private void writeContactState() throws IOException {
+        if (!mContactState.isDown()) {
+            return;
+        }
+        mContactState.sendDown(new AutoFilePlayer.EventSink() {
+            @Override
+            public void sendEvent(int type, int code, int value) {
+                writeVarInt(0);
+                mBlock.write(DATA_TYPE_STATE);
+                writeVarInt(type);
+                writeVarInt(code);
+                writeVarInt(zigzag(value));
+                mBlockEventCount++;
+            }
+        });
+    }
+
+    private void flushBlock() throws IOException {
+        if (mBlockEventCount == 0) {
+            return;
+        }
+        mIndex.add(new long[]{mBlockStartTime, mOffset});
+        mOutputStream.writeByte(BLOCK_TAG);
+        mOutputStream.writeInt((int) mBlockStartTime);
+        mOutputStream.writeInt(mBlockEventCount);
+        mOutputStream.writeInt(mBlock.size());
+        mBlock.writeTo(mOutputStream);
+        mOffset += 13 + mBlock.size();
+        mBlock.reset();
+        mBlockEventCount = 0;
+        mBlockStartTime = -1;
+        mLastX = mLastY = 0;
+    }
+
+    private void writeVarInt(long n) {
+        while ((n & ~0x7fL) != 0) {
+            mBlock.write((int) ((n & 0x7f) | 0x80));
+            n >>>= 7;
+        }
+        mBlock.write((int) n);
+    }
+
+    private static long zigzag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    /**
+     * 写入最后一个数据块和索引
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            flushBlock();
+            long indexOffset = mOffset;
+            mOutputStream.writeByte(INDEX_TAG);
+            mOutputStream.writeInt(mIndex.size());
+            for (long[] entry : mIndex) {
+                mOutputStream.writeInt((int) entry[0]);
+                mOutputStream.writeLong(entry[1]);
+            }
+            mOutputStream.writeLong(indexOffset);
+            mOutputStream.writeInt(TRAILER_MAGIC);
+        } finally {
+            mOutputStream.close();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.stardust.autojs.core.record.inputevent;
+
+import com.stardust.autojs.core.inputevent.InputEventCodes;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Created by Stardust on 2017/11/3.
+ * <p>
+ * 跟踪触摸屏当前按下的触点(tracking id、坐标、BTN_TOUCH和BTN_TOOL_FINGER)，
+ * 用于在关键帧中保存触摸状态，以及在中途开始或结束回放时补上按下和抬起。只支持多点触控协议B(ABS_MT_SLOT)和单点触控。
+ */
+class ContactState {
+
+    private static final int MAX_SLOTS = 16;
+
+    private final int[] mTrackingIds = new int[MAX_SLOTS];
+    private final int[] mXs = new int[MAX_SLOTS];
+    private final int[] mYs = new int[MAX_SLOTS];
+    private int mSlot = 0;
+    private boolean mSlotUsed = false;
+    private boolean mBtnTouch = false;
+    private boolean mBtnToolFinger = false;
+
+    ContactState() {
+        Arrays.fill(mTrackingIds, -1);
+    }
+
+    void update(int type, int code, int value) {
+        if (type == InputEventCodes.EV_ABS) {
+            switch (code) {
+                case InputEventCodes.ABS_MT_SLOT:
+                    mSlotUsed = true;
+                    mSlot = value >= 0 && value < MAX_SLOTS ? value : 0;
+                    break;
+                case InputEventCodes.ABS_MT_TRACKING_ID:
+                    mTrackingIds[mSlot] = value;
+                    break;
+                case InputEventCodes.ABS_MT_POSITION_X:
+                    mXs[mSlot] = value;
+                    break;
+                case InputEventCodes.ABS_MT_POSITION_Y:
+                    mYs[mSlot] = value;
+                    break;
+            }
+        } else if (type == InputEventCodes.EV_KEY) {
+            if (code == InputEventCodes.BTN_TOUCH) {
+                mBtnTouch = value != 0;
+            } else if (code == InputEventCodes.BTN_TOOL_FINGER) {
+                mBtnToolFinger = value != 0;
+            }
+        }
+    }
+
+    boolean isDown() {
+        if (mBtnTouch || mBtnToolFinger) {
+            return true;
+        }
+        for (int id : mTrackingIds) {
+            if (id != -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 发送使当前触点按下所需的事件，不包括SYN_REPORT
+     */
+    void sendDown(AutoFilePlayer.EventSink sink) throws IOException {
+        for (int i = 0; i < MAX_SLOTS; i++) {
+            if (mTrackingIds[i] == -1) {
+                continue;
+            }
+            if (mSlotUsed) {
+                sink.sendEvent(InputEventCodes.EV_ABS, InputEventCodes.ABS_MT_SLOT, i);
+            }
+            sink.sendEvent(InputEventCodes.EV_ABS, InputEventCodes.ABS_MT_TRACKING_ID, mTrackingIds[i]);
+            sink.sendEvent(InputEventCodes.EV_ABS, InputEventCodes.ABS_MT_POSITION_X, mXs[i]);
+            sink.sendEvent(InputEventCodes.EV_ABS, InputEventCodes.ABS_MT_POSITION_Y, mYs[i]);
+        }
+        if (mSlotUsed) {
+            sink.sendEvent(InputEventCodes.EV_ABS, InputEventCodes.ABS_MT_SLOT, mSlot);
+        }
+        if (mBtnTouch) {
+            sink.sendEvent(InputEventCodes.EV_KEY, InputEventCodes.BTN_TOUCH, 1);
+        }
+        if (mBtnToolFinger) {
+            sink.sendEvent(InputEventCodes.EV_KEY, InputEventCodes.BTN_TOOL_FINGER, 1);
+        }
+    }
+
+    /**
+     * 抬起所有按下的触点，包括最后的SYN_REPORT
+     */
+    void sendUp(AutoFilePlayer.EventSink sink) throws IOException {
+        for (int i = 0; i < MAX_SLOTS; i++) {
+            if (mTrackingIds[i] == -1) {
+                continue;
+            }
+            if (mSlotUsed) {
+                sink.sendEvent(InputEventCodes.EV_ABS, InputEventCodes.ABS_MT_SLOT, i);
+            }
+            sink.sendEvent(InputEventCodes.EV_ABS, InputEventCodes.ABS_MT_TRACKING_ID, -1);
+            mTrackingIds[i] = -1;
+        }
+        if (mBtnTouch) {
+            sink.sendEvent(InputEventCodes.EV_KEY, InputEventCodes.BTN_TOUCH, 0);
+            mBtnTouch = false;
+        }
+        if (mBtnToolFinger) {
+            sink.sendEvent(InputEventCodes.EV_KEY, InputEventCodes.BTN_TOOL_FINGER, 0);
+            mBtnToolFinger = false;
+        }
+        sink.sendEvent(InputEventCodes.EV_SYN, InputEventCodes.SYN_REPORT, 0);
+    }
+}
@@ -2,16 +2,14 @@ package com.stardust.autojs.core.record.inputevent;
 
 import android.content.Context;
 import android.support.annotation.NonNull;
-import android.util.Log;
 
 import com.stardust.autojs.core.inputevent.InputEventCodes;
 import com.stardust.autojs.core.inputevent.InputEventObserver;
 import com.stardust.autojs.engine.RootAutomatorEngine;
-import com.stardust.autojs.runtime.api.RootAutomator;
 import com.stardust.pio.UncheckedIOException;
 import com.stardust.util.ScreenMetrics;
 
-import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -20,43 +18,33 @@ import java.util.Date;
 
 /**
  * Created by Stardust on 2017/8/2.
+ * <p>
+ * 录制为第2版的.auto文件，见{@link AutoFileWriter}。
  */
 
 public class InputEventToAutoFileRecorder extends InputEventRecorder {
 
-    private static final String LOG_TAG = "InputEventToAutoFileRec";
-    private double mLastEventTime;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private double mStartTime = -1;
     private int mTouchDevice = -1;
-    private DataOutputStream mDataOutputStream;
+    private AutoFileWriter mWriter;
     private File mTmpFile;
 
     public InputEventToAutoFileRecorder(Context context) {
         try {
             mTmpFile = new File(context.getCacheDir(), SimpleDateFormat.getDateTimeInstance().format(new Date()) + ".auto");
             mTmpFile.deleteOnExit();
-            mDataOutputStream = new DataOutputStream(new FileOutputStream(mTmpFile));
-            writeFileHeader();
+            mWriter = new AutoFileWriter(new BufferedOutputStream(new FileOutputStream(mTmpFile), BUFFER_SIZE),
+                    ScreenMetrics.getDeviceScreenWidth(), ScreenMetrics.getDeviceScreenHeight());
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
-    private void writeFileHeader() throws IOException {
-        mDataOutputStream.writeInt(0x00B87B6D);
-        mDataOutputStream.writeInt(RootAutomatorEngine.VERSION);
-        mDataOutputStream.writeInt(ScreenMetrics.getDeviceScreenWidth());
-        mDataOutputStream.writeInt(ScreenMetrics.getDeviceScreenHeight());
-        for (int i = 0; i < 240; i++) {
-            mDataOutputStream.writeByte(0);
-        }
-    }
-
-
     @Override
     public void recordInputEvent(@NonNull InputEventObserver.InputEvent event) {
         try {
             convertEventOrThrow(event);
-            //Log.d(LOG_TAG, "recordInputEvent: " + event);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -64,58 +52,20 @@ public class InputEventToAutoFileRecorder extends InputEventRecorder {
     }
 
     private void convertEventOrThrow(InputEventObserver.InputEvent event) throws IOException {
-        if (mLastEventTime == 0) {
-            mLastEventTime = event.time;
-        } else if (event.time - mLastEventTime > 0.001) {
-            writeSleep((int) (1000L * (event.time - mLastEventTime)));
-            mLastEventTime = event.time;
-        }
-        int device = parseDeviceNumber(event.device);
-        short type = (short) Long.parseLong(event.type, 16);
-        short code = (short) Long.parseLong(event.code, 16);
-        int value = (int) Long.parseLong(event.value, 16);
-        if (type == InputEventCodes.EV_ABS) {
-            if (code == InputEventCodes.ABS_MT_POSITION_X || code == InputEventCodes.ABS_MT_POSITION_Y) {
-                mTouchDevice = device;
-                RootAutomatorEngine.setTouchDevice(device);
-                writeTouch(code, value);
-                return;
-            }
-        }
-        if (type == InputEventCodes.EV_SYN && code == InputEventCodes.SYN_REPORT && value == 0) {
-            writeSyncReport();
-            return;
+        int device = event.device;
+        if (event.type == InputEventCodes.EV_ABS
+                && (event.code == InputEventCodes.ABS_MT_POSITION_X || event.code == InputEventCodes.ABS_MT_POSITION_Y)
+                && device != mTouchDevice) {
+            mTouchDevice = device;
+            RootAutomatorEngine.setTouchDevice(device);
         }
         if (device != mTouchDevice) {
             return;
         }
-        mDataOutputStream.writeByte(RootAutomator.DATA_TYPE_EVENT);
-        mDataOutputStream.writeShort(type);
-        mDataOutputStream.writeShort(code);
-        mDataOutputStream.writeInt(value);
-        Log.d(LOG_TAG, "write event: " + event);
-    }
-
-    private void writeSleep(int millis) throws IOException {
-        mDataOutputStream.writeByte(RootAutomator.DATA_TYPE_SLEEP);
-        mDataOutputStream.writeInt(millis);
-        Log.d(LOG_TAG, "write sleep: " + millis);
-    }
-
-    private void writeSyncReport() throws IOException {
-        mDataOutputStream.writeByte(RootAutomator.DATA_TYPE_EVENT_SYNC_REPORT);
-        Log.d(LOG_TAG, "write sync report");
-    }
-
-    private void writeTouch(short code, int value) throws IOException {
-        if (code == InputEventCodes.ABS_MT_POSITION_X) {
-            mDataOutputStream.writeByte(RootAutomator.DATA_TYPE_EVENT_TOUCH_X);
-            Log.d(LOG_TAG, "write touch x: " + value);
-        } else {
-            mDataOutputStream.writeByte(RootAutomator.DATA_TYPE_EVENT_TOUCH_Y);
-            Log.d(LOG_TAG, "write touch y: " + value);
+        if (mStartTime < 0) {
+            mStartTime = event.time;
         }
-        mDataOutputStream.writeInt(value);
+        mWriter.writeEvent(Math.round(1000 * (event.time - mStartTime)), event.type, event.code, event.value);
     }
 
     public String getCode() {
@@ -131,7 +81,7 @@ public class InputEventToAutoFileRecorder extends InputEventRecorder {
     public void stop() {
         super.stop();
         try {
-            mDataOutputStream.close();
+            mWriter.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -36,10 +36,10 @@ public class InputEventToRootAutomatorRecorder extends InputEventRecorder {
             mCode.append("sleep(").append((long) (1000L * (event.time - mLastEventTime))).append(");\n");
             mLastEventTime = event.time;
         }
-        int device = parseDeviceNumber(event.device);
-        int type = (int) Long.parseLong(event.type, 16);
-        int code = (int) Long.parseLong(event.code, 16);
-        int value = (int) Long.parseLong(event.value, 16);
+        int device = event.device;
+        int type = event.type;
+        int code = event.code;
+        int value = event.value;
         if (type == InputEventCodes.EV_ABS) {
             if (code == InputEventCodes.ABS_MT_POSITION_X || code == InputEventCodes.ABS_MT_POSITION_Y) {
                 mTouchDevice = device;
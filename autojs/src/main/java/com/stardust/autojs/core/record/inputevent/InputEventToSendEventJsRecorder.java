@@ -34,10 +34,10 @@ public class InputEventToSendEventJsRecorder extends InputEventRecorder {
             mCode.append("sh.usleep(").append((long) (1000000 * (event.time - mLastEventTime))).append(");\n");
             mLastEventTime = event.time;
         }
-        int device = parseDeviceNumber(event.device);
-        int type = (int) Long.parseLong(event.type, 16);
-        int code = (int) Long.parseLong(event.code, 16);
-        int value = (int) Long.parseLong(event.value, 16);
+        int device = event.device;
+        int type = event.type;
+        int code = event.code;
+        int value = event.value;
         if (type == 3) {
             if (code == 53) {
                 onTouchX(device, value);
@@ -0,0 +1,388 @@
+package com.stardust.autojs.core.record.inputevent;
+
+import com.stardust.autojs.core.inputevent.InputEventCodes;
+import com.stardust.autojs.core.inputevent.InputEventObserver;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Created by Stardust on 2017/11/3.
+ * <p>
+ * 离线压缩录制的.auto文件(第1版或第2版)：
+ * <ul>
+ * <li>单指轨迹用Ramer–Douglas–Peucker算法按像素误差简化，只保留必要的移动帧</li>
+ * <li>去掉与当前状态相同的EV_ABS值(内核本来也会丢弃)和空的帧</li>
+ * <li>没有手指按下时，过长的等待缩短为maxIdle</li>
+ * </ul>
+ * 结果可以输出为第2版的.auto文件或RootAutomator脚本。
+ * 多点触控(包含ABS_MT_SLOT或SYN_MT_REPORT)的录制不简化轨迹，也不合并事件，只缩短等待。
+ */
+public class MacroOptimizer {
+
+    public static class Report {
+
+        public int originalEvents;
+        public int optimizedEvents;
+        public long originalDuration;
+        public long optimizedDuration;
+        public long originalSize;
+        public long optimizedSize;
+
+        @Override
+        public String toString() {
+            return "Report{" +
+                    "events=" + originalEvents + "->" + optimizedEvents +
+                    ", duration=" + originalDuration + "ms->" + optimizedDuration + "ms" +
+                    ", size=" + originalSize + "->" + optimizedSize +
+                    '}';
+        }
+    }
+
+    private interface EventSink {
+        void onEvent(long time, int type, int code, int value) throws IOException;
+    }
+
+    private static final int ABS_COUNT = 0x40;
+
+    private float mTolerance = 2;
+    private long mMaxIdle = 1000;
+
+    // 读入的所有事件
+    private long[] mTimes = new long[1024];
+    private int[] mTypes = new int[1024];
+    private int[] mCodes = new int[1024];
+    private int[] mValues = new int[1024];
+    private int mEventCount;
+    // 每一帧的结束位置(不含)，最后一帧可能没有SYN_REPORT
+    private int[] mFrameEnds = new int[256];
+    private int mFrameCount;
+    private boolean mMultiTouch;
+    private int mWidth, mHeight;
+
+    /**
+     * @param tolerance 轨迹简化允许的最大偏差(像素)，0表示不简化
+     */
+    public MacroOptimizer tolerance(float tolerance) {
+        mTolerance = tolerance;
+        return this;
+    }
+
+    /**
+     * @param maxIdle 没有手指按下时最长的等待(毫秒)，小于0表示不缩短
+     */
+    public MacroOptimizer maxIdle(long maxIdle) {
+        mMaxIdle = maxIdle;
+        return this;
+    }
+
+    public Report optimize(File autoFile, File output) throws IOException {
+        Report report = load(autoFile);
+        final AutoFileWriter writer = new AutoFileWriter(new BufferedOutputStream(new FileOutputStream(output)), mWidth, mHeight);
+        try {
+            emit(report, new EventSink() {
+                @Override
+                public void onEvent(long time, int type, int code, int value) throws IOException {
+                    writer.writeEvent(time, type, code, value);
+                }
+            });
+        } finally {
+            writer.close();
+        }
+        report.optimizedSize = output.length();
+        return report;
+    }
+
+    /**
+     * 输出为与{@link InputEventToRootAutomatorRecorder}相同形式的脚本
+     */
+    public Report optimizeToJs(File autoFile, final StringBuilder js) throws IOException {
+        Report report = load(autoFile);
+        int start = js.length();
+        js.append("var ra = new RootAutomator();\n")
+                .append("ra.setScreenMetrics(").append(mWidth).append(", ").append(mHeight).append(");\n");
+        final long[] lastTime = {0};
+        emit(report, new EventSink() {
+            @Override
+            public void onEvent(long time, int type, int code, int value) {
+                if (time > lastTime[0]) {
+                    js.append("sleep(").append(time - lastTime[0]).append(");\n");
+                    lastTime[0] = time;
+                }
+                if (type == InputEventCodes.EV_ABS && code == InputEventCodes.ABS_MT_POSITION_X) {
+                    js.append("ra.touchX(").append(value).append(");\n");
+                } else if (type == InputEventCodes.EV_ABS && code == InputEventCodes.ABS_MT_POSITION_Y) {
+                    js.append("ra.touchY(").append(value).append(");\n");
+                } else if (type == InputEventCodes.EV_SYN && code == InputEventCodes.SYN_REPORT && value == 0) {
+                    js.append("ra.sendSync();\n");
+                } else {
+                    js.append("ra.sendEvent(").append(type).append(", ").append(code).append(", ").append(value).append(");\n");
+                }
+            }
+        });
+        js.append("ra.exit();");
+        report.optimizedSize = js.length() - start;
+        return report;
+    }
+
+    private Report load(File autoFile) throws IOException {
+        mEventCount = 0;
+        mFrameCount = 0;
+        mMultiTouch = false;
+        AutoFileReader reader = new AutoFileReader(autoFile);
+        try {
+            mWidth = reader.getWidth();
+            mHeight = reader.getHeight();
+            InputEventObserver.InputEvent event = new InputEventObserver.InputEvent();
+            while (reader.next(event)) {
+                addEvent(Math.round(event.time * 1000), event.type, event.code, event.value);
+            }
+        } finally {
+            reader.close();
+        }
+        if (mFrameCount == 0 || mFrameEnds[mFrameCount - 1] != mEventCount) {
+            addFrameEnd(mEventCount);
+        }
+        Report report = new Report();
+        report.originalEvents = mEventCount;
+        report.originalDuration = mEventCount == 0 ? 0 : mTimes[mEventCount - 1] - mTimes[0];
+        report.originalSize = autoFile.length();
+        return report;
+    }
+
+    private void addEvent(long time, int type, int code, int value) {
+        if (mEventCount == mTimes.length) {
+            int capacity = mTimes.length * 2;
+            mTimes = Arrays.copyOf(mTimes, capacity);
+            mTypes = Arrays.copyOf(mTypes, capacity);
+            mCodes = Arrays.copyOf(mCodes, capacity);
+            mValues = Arrays.copyOf(mValues, capacity);
+        }
+        mTimes[mEventCount] = time;
+        mTypes[mEventCount] = type;
+        mCodes[mEventCount] = code;
+        mValues[mEventCount] = value;
+        mEventCount++;
+        if ((type == InputEventCodes.EV_ABS && code == InputEventCodes.ABS_MT_SLOT)
+                || (type == InputEventCodes.EV_SYN && code == InputEventCodes.SYN_MT_REPORT)) {
+            mMultiTouch = true;
+        }
+        if (type == InputEventCodes.EV_SYN && code == InputEventCodes.SYN_REPORT) {
+            addFrameEnd(mEventCount);
+        }
+    }
+
+    private void addFrameEnd(int end) {
+        if (mFrameCount == mFrameEnds.length) {
+            mFrameEnds = Arrays.copyOf(mFrameEnds, mFrameCount * 2);
+        }
+        mFrameEnds[mFrameCount++] = end;
+    }
+
+    private int frameStart(int frame) {
+        return frame == 0 ? 0 : mFrameEnds[frame - 1];
+    }
+
+    private boolean isPosition(int i) {
+        return mTypes[i] == InputEventCodes.EV_ABS
+                && (mCodes[i] == InputEventCodes.ABS_MT_POSITION_X || mCodes[i] == InputEventCodes.ABS_MT_POSITION_Y);
+    }
+
+    private void emit(Report report, EventSink sink) throws IOException {
+        boolean[] dropped = new boolean[mEventCount];
+        if (!mMultiTouch) {
+            dropRedundantAbs(dropped);
+            if (mTolerance > 0) {
+                simplifyPaths(dropped);
+            }
+        }
+        int[] abs = new int[ABS_COUNT];
+        Arrays.fill(abs, Integer.MIN_VALUE);
+        int[] emitted = new int[ABS_COUNT];
+        Arrays.fill(emitted, Integer.MIN_VALUE);
+        boolean touching = false;
+        long shift = 0;
+        long lastTime = -1;
+        long firstTime = -1;
+        int count = 0;
+        for (int f = 0; f < mFrameCount; f++) {
+            int start = frameStart(f), end = mFrameEnds[f];
+            boolean hasEvents = false;
+            for (int i = start; i < end; i++) {
+                if (mTypes[i] == InputEventCodes.EV_ABS && mCodes[i] < ABS_COUNT) {
+                    abs[mCodes[i]] = mValues[i];
+                }
+                if (!dropped[i] && !isSyncReport(i)) {
+                    hasEvents = true;
+                }
+            }
+            // 空帧(只有SYN_REPORT或所有事件都被去掉)整帧去掉
+            if (!hasEvents) {
+                continue;
+            }
+            long time = mTimes[start];
+            if (firstTime < 0) {
+                firstTime = time;
+            }
+            if (lastTime >= 0 && !touching && mMaxIdle >= 0 && time - shift - lastTime > mMaxIdle) {
+                shift = time - lastTime - mMaxIdle;
+            }
+            long outTime = time - shift - firstTime;
+            boolean hasPosition = false;
+            for (int i = start; i < end; i++) {
+                if (!dropped[i] && isPosition(i)) {
+                    hasPosition = true;
+                }
+            }
+            for (int i = start; i < end; i++) {
+                if (dropped[i]) {
+                    continue;
+                }
+                // 被去掉的帧中另一个坐标的变化在SYN_REPORT之前补上，保证两个坐标都是最新的
+                if (hasPosition && !mMultiTouch && isSyncReport(i)) {
+                    for (int code = InputEventCodes.ABS_MT_POSITION_X; code <= InputEventCodes.ABS_MT_POSITION_Y; code++) {
+                        if (abs[code] != emitted[code] && abs[code] != Integer.MIN_VALUE) {
+                            emitted[code] = abs[code];
+                            sink.onEvent(outTime, InputEventCodes.EV_ABS, code, abs[code]);
+                            count++;
+                        }
+                    }
+                }
+                if (mTypes[i] == InputEventCodes.EV_ABS && mCodes[i] < ABS_COUNT) {
+                    emitted[mCodes[i]] = mValues[i];
+                }
+                sink.onEvent(outTime, mTypes[i], mCodes[i], mValues[i]);
+                count++;
+            }
+            lastTime = time - shift;
+            touching = isTouching(abs);
+        }
+        report.optimizedEvents = count;
+        report.optimizedDuration = lastTime < 0 ? 0 : lastTime - firstTime;
+    }
+
+    private boolean isSyncReport(int i) {
+        return mTypes[i] == InputEventCodes.EV_SYN && mCodes[i] == InputEventCodes.SYN_REPORT;
+    }
+
+    private static boolean isTouching(int[] abs) {
+        int id = abs[InputEventCodes.ABS_MT_TRACKING_ID];
+        return id != Integer.MIN_VALUE && id != -1;
+    }
+
+    /**
+     * 去掉值与当前状态相同的EV_ABS事件
+     */
+    private void dropRedundantAbs(boolean[] dropped) {
+        int[] abs = new int[ABS_COUNT];
+        Arrays.fill(abs, Integer.MIN_VALUE);
+        for (int i = 0; i < mEventCount; i++) {
+            if (mTypes[i] != InputEventCodes.EV_ABS || mCodes[i] >= ABS_COUNT) {
+                continue;
+            }
+            // 按下时的tracking id总是保留，RootAutomator依靠它选择触点
+            if (abs[mCodes[i]] == mValues[i] && mCodes[i] != InputEventCodes.ABS_MT_TRACKING_ID) {
+                dropped[i] = true;
+            }
+            abs[mCodes[i]] = mValues[i];
+        }
+    }
+
+    /**
+     * 只包含坐标变化的帧为移动帧。对每一段连续的移动帧，以前一帧的位置为起点做RDP简化，
+     * 去掉不需要的移动帧中的坐标事件，它们的SYN_REPORT随后作为空帧去掉
+     */
+    private void simplifyPaths(boolean[] dropped) {
+        int[] xs = new int[mFrameCount];
+        int[] ys = new int[mFrameCount];
+        boolean[] moves = new boolean[mFrameCount];
+        int x = Integer.MIN_VALUE, y = Integer.MIN_VALUE;
+        for (int f = 0; f < mFrameCount; f++) {
+            boolean move = true, hasPosition = false;
+            for (int i = frameStart(f); i < mFrameEnds[f]; i++) {
+                if (isPosition(i)) {
+                    hasPosition = true;
+                    if (mCodes[i] == InputEventCodes.ABS_MT_POSITION_X) {
+                        x = mValues[i];
+                    } else {
+                        y = mValues[i];
+                    }
+                } else if (!dropped[i] && !isSyncReport(i)) {
+                    move = false;
+                }
+            }
+            xs[f] = x;
+            ys[f] = y;
+            moves[f] = move && hasPosition && x != Integer.MIN_VALUE && y != Integer.MIN_VALUE;
+        }
+        boolean[] keep = new boolean[mFrameCount];
+        int f = 0;
+        while (f < mFrameCount) {
+            if (!moves[f]) {
+                f++;
+                continue;
+            }
+            int from = f;
+            while (f < mFrameCount && moves[f]) {
+                f++;
+            }
+            // [from - 1, f - 1]，起点是前一个非移动帧(通常是按下)的位置，终点总是保留
+            int first = from > 0 ? from - 1 : from;
+            keep[first] = true;
+            keep[f - 1] = true;
+            rdp(xs, ys, keep, first, f - 1);
+            for (int g = from; g < f; g++) {
+                if (!keep[g]) {
+                    for (int i = frameStart(g); i < mFrameEnds[g]; i++) {
+                        if (isPosition(i)) {
+                            dropped[i] = true;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void rdp(int[] xs, int[] ys, boolean[] keep, int first, int last) {
+        // 用栈代替递归，避免很长的轨迹导致栈溢出
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = first;
+        stack[top++] = last;
+        while (top > 0) {
+            int b = stack[--top];
+            int a = stack[--top];
+            float maxDistance = 0;
+            int index = -1;
+            for (int i = a + 1; i < b; i++) {
+                float d = distance(xs[i], ys[i], xs[a], ys[a], xs[b], ys[b]);
+                if (d > maxDistance) {
+                    maxDistance = d;
+                    index = i;
+                }
+            }
+            if (index >= 0 && maxDistance > mTolerance) {
+                keep[index] = true;
+                if (top + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = a;
+                stack[top++] = index;
+                stack[top++] = index;
+                stack[top++] = b;
+            }
+        }
+    }
+
+    private static float distance(int x, int y, int x1, int y1, int x2, int y2) {
+        double dx = x2 - x1, dy = y2 - y1;
+        double length = Math.hypot(dx, dy);
+        if (length == 0) {
+            return (float) Math.hypot(x - x1, y - y1);
+        }
+        return (float) (Math.abs(dy * x - dx * y + x2 * y1 - y2 * x1) / length);
+    }
+}
@@ -0,0 +1,125 @@
+package com.stardust.autojs.core.templatematching;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.media.Image;
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Created by Stardust on 2017/10/28.
+ * <p>
+ * 8位灰度图，模板匹配只在灰度上进行。
+ */
+public class GrayImage {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final byte[] mPixels;
+
+    public GrayImage(int width, int height, byte[] pixels) {
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("pixels.length = " + pixels.length + ", size = " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        mPixels = pixels;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public byte[] getPixels() {
+        return mPixels;
+    }
+
+    public int get(int x, int y) {
+        return mPixels[y * mWidth + x] & 0xff;
+    }
+
+    /**
+     * 长宽各缩小一半。先用[1 2 1]的高斯核平滑再隔点采样，
+     * 比直接取2x2平均值对采样相位更不敏感，模板在奇数坐标上时粗层的相似度也不会掉得太厉害。
+     */
+    public GrayImage pyrDown() {
+        int width = mWidth / 2;
+        int height = mHeight / 2;
+        byte[] pixels = new byte[width * height];
+        byte[] src = mPixels;
+        int srcWidth = mWidth;
+        int maxX = mWidth - 1, maxY = mHeight - 1;
+        for (int y = 0; y < height; y++) {
+            int sy = 2 * y;
+            int row0 = Math.max(sy - 1, 0) * srcWidth;
+            int row1 = sy * srcWidth;
+            int row2 = Math.min(sy + 1, maxY) * srcWidth;
+            int i = y * width;
+            for (int x = 0; x < width; x++, i++) {
+                int sx = 2 * x;
+                int x0 = Math.max(sx - 1, 0), x2 = Math.min(sx + 1, maxX);
+                int sum = (src[row0 + x0] & 0xff) + 2 * (src[row0 + sx] & 0xff) + (src[row0 + x2] & 0xff)
+                        + 2 * ((src[row1 + x0] & 0xff) + 2 * (src[row1 + sx] & 0xff) + (src[row1 + x2] & 0xff))
+                        + (src[row2 + x0] & 0xff) + 2 * (src[row2 + sx] & 0xff) + (src[row2 + x2] & 0xff);
+                pixels[i] = (byte) ((sum + 8) >> 4);
+            }
+        }
+        return new GrayImage(width, height, pixels);
+    }
+
+    static int gray(int r, int g, int b) {
+        return (r * 77 + g * 150 + b * 29) >> 8;
+    }
+
+    public static GrayImage of(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] row = new int[width];
+        byte[] pixels = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            int i = y * width;
+            for (int x = 0; x < width; x++) {
+                int c = row[x];
+                pixels[i + x] = (byte) gray((c >> 16) & 0xff, (c >> 8) & 0xff, c & 0xff);
+            }
+        }
+        return new GrayImage(width, height, pixels);
+    }
+
+    /**
+     * 把Image(RGBA_8888)中region区域内的像素转换为灰度图，不经过Bitmap复制。
+     */
+    @RequiresApi(api = Build.VERSION_CODES.KITKAT)
+    public static GrayImage of(Image image, Rect region) {
+        Image.Plane plane = image.getPlanes()[0];
+        ByteBuffer buffer = plane.getBuffer().duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int rowStride = plane.getRowStride();
+        int pixelStride = plane.getPixelStride();
+        int width = region.width();
+        int height = region.height();
+        byte[] pixels = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            int offset = (region.top + y) * rowStride + region.left * pixelStride;
+            int i = y * width;
+            for (int x = 0; x < width; x++, offset += pixelStride) {
+                int c = buffer.getInt(offset);
+                pixels[i + x] = (byte) gray(c & 0xff, (c >> 8) & 0xff, (c >> 16) & 0xff);
+            }
+        }
+        return new GrayImage(width, height, pixels);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.KITKAT)
+    public static GrayImage of(Image image) {
+        return of(image, new Rect(0, 0, image.getWidth(), image.getHeight()));
+    }
+
+}
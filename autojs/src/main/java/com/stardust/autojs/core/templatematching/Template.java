@@ -0,0 +1,105 @@
+package com.stardust.autojs.core.templatematching;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.stardust.pio.UncheckedIOException;
+
+import java.io.FileNotFoundException;
+
+/**
+ * Created by Stardust on 2017/10/28.
+ * <p>
+ * 模板图片。加载时一次性转换为灰度并构建金字塔，之后可以反复用于匹配。
+ */
+public class Template {
+
+    /**
+     * 金字塔中最小一层的长宽不小于该值，否则缩小后的模板丢失的细节太多
+     */
+    static final int MIN_LEVEL_SIZE = 8;
+
+    private final GrayImage[] mLevels;
+    private final long[] mSums;
+    private final double[] mNorms;
+
+    public Template(GrayImage image, int maxLevel) {
+        int levelCount = 1;
+        int width = image.getWidth(), height = image.getHeight();
+        while (levelCount <= maxLevel && width / 2 >= MIN_LEVEL_SIZE && height / 2 >= MIN_LEVEL_SIZE) {
+            width /= 2;
+            height /= 2;
+            levelCount++;
+        }
+        mLevels = new GrayImage[levelCount];
+        mSums = new long[levelCount];
+        mNorms = new double[levelCount];
+        mLevels[0] = image;
+        for (int i = 1; i < levelCount; i++) {
+            mLevels[i] = mLevels[i - 1].pyrDown();
+        }
+        for (int i = 0; i < levelCount; i++) {
+            computeStatistics(i);
+        }
+    }
+
+    private void computeStatistics(int level) {
+        byte[] pixels = mLevels[level].getPixels();
+        int n = mLevels[level].getWidth() * mLevels[level].getHeight();
+        long sum = 0, sqSum = 0;
+        for (int i = 0; i < n; i++) {
+            int p = pixels[i] & 0xff;
+            sum += p;
+            sqSum += p * p;
+        }
+        mSums[level] = sum;
+        // Σ(T - mean(T))²
+        mNorms[level] = sqSum - (double) sum * sum / n;
+    }
+
+    public int getLevelCount() {
+        return mLevels.length;
+    }
+
+    public GrayImage getLevel(int level) {
+        return mLevels[level];
+    }
+
+    public int getWidth() {
+        return mLevels[0].getWidth();
+    }
+
+    public int getHeight() {
+        return mLevels[0].getHeight();
+    }
+
+    long getSum(int level) {
+        return mSums[level];
+    }
+
+    double getNorm(int level) {
+        return mNorms[level];
+    }
+
+    /**
+     * 该层是否是纯色。像素值都是整数，不是纯色时Σ(T - mean(T))²至少为(n - 1) / n
+     */
+    boolean isFlat(int level) {
+        return mNorms[level] < 0.5;
+    }
+
+    public static Template fromBitmap(Bitmap bitmap, int maxLevel) {
+        return new Template(GrayImage.of(bitmap), maxLevel);
+    }
+
+    public static Template read(String path, int maxLevel) {
+        Bitmap bitmap = BitmapFactory.decodeFile(path);
+        if (bitmap == null) {
+            throw new UncheckedIOException(new FileNotFoundException(path));
+        }
+        Template template = fromBitmap(bitmap, maxLevel);
+        bitmap.recycle();
+        return template;
+    }
+
+}
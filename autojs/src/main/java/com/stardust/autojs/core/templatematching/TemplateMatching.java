@@ -0,0 +1,336 @@
+package com.stardust.autojs.core.templatematching;
+
+import com.stardust.autojs.runtime.exception.ScriptInterruptedException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Created by Stardust on 2017/10/28.
+ * <p>
+ * 基于图像金字塔的模板匹配：先在最粗糙的一层上全图搜索(按行分块并行)，
+ * 得到若干候选位置后再逐层放大，在上一层位置附近的小窗口内精确定位。
+ */
+public class TemplateMatching {
+
+    /**
+     * 归一化互相关(零均值)，对整体亮度变化不敏感。纯色的模板没有方差，无法计算相关性，此时改用SAD
+     */
+    public static final int MATCHING_METHOD_NCC = 0;
+    /**
+     * 绝对差之和，计算量更小，超过阈值时可提前终止
+     */
+    public static final int MATCHING_METHOD_SAD = 1;
+
+    public static final int DEFAULT_MAX_LEVEL = 3;
+
+    /**
+     * 每下降一层金字塔，粗搜索的阈值放宽的量。缩小后的图像丢失了细节，相似度会偏低
+     */
+    private static final float COARSE_THRESHOLD_SLACK = 0.15f;
+    private static final int MAX_CANDIDATES = 8;
+    private static final int REFINE_RADIUS = 2;
+
+    public static class Match {
+
+        public final int x, y;
+        public final float similarity;
+
+        public Match(int x, int y, float similarity) {
+            this.x = x;
+            this.y = y;
+            this.similarity = similarity;
+        }
+
+        @Override
+        public String toString() {
+            return "Match{x=" + x + ", y=" + y + ", similarity=" + similarity + "}";
+        }
+    }
+
+    private static class Candidate {
+        int x, y;
+        float score;
+
+        Candidate(int x, int y, float score) {
+            this.x = x;
+            this.y = y;
+            this.score = score;
+        }
+    }
+
+    private static final Comparator<Candidate> SCORE_DESCENDING = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate o1, Candidate o2) {
+            return Float.compare(o2.score, o1.score);
+        }
+    };
+
+    private final Executor mExecutor;
+
+    public TemplateMatching(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * 在source中查找与模板最相似的位置。
+     *
+     * @param threshold 相似度阈值，范围[0, 1]
+     * @param maxLevel  金字塔最大层数，0表示不使用金字塔
+     * @return 相似度不低于threshold的最佳匹配，找不到时返回null
+     */
+    public Match match(GrayImage source, Template template, float threshold, int method, int maxLevel, int threadCount) {
+        int level = Math.min(maxLevel, template.getLevelCount() - 1);
+        List<GrayImage> sources = new ArrayList<>(level + 1);
+        sources.add(source);
+        for (int i = 1; i <= level; i++) {
+            GrayImage down = sources.get(i - 1).pyrDown();
+            if (down.getWidth() < template.getLevel(i).getWidth() || down.getHeight() < template.getLevel(i).getHeight()) {
+                level = i - 1;
+                break;
+            }
+            sources.add(down);
+        }
+        if (source.getWidth() < template.getWidth() || source.getHeight() < template.getHeight()) {
+            return null;
+        }
+        float coarseThreshold = Math.max(0, threshold - COARSE_THRESHOLD_SLACK * level);
+        List<Candidate> candidates = search(sources.get(level), template, level, coarseThreshold, method, threadCount);
+        Candidate best = null;
+        for (Candidate candidate : candidates) {
+            for (int l = level - 1; l >= 0; l--) {
+                // 中间层只做定位，阈值只在原图上判断
+                candidate = refine(sources.get(l), template, l, candidate.x * 2, candidate.y * 2, l == 0 ? threshold : 0, method);
+                if (candidate == null) {
+                    break;
+                }
+            }
+            if (candidate != null && candidate.score >= threshold && (best == null || candidate.score > best.score)) {
+                best = candidate;
+            }
+        }
+        return best == null ? null : new Match(best.x, best.y, best.score);
+    }
+
+    public Match match(GrayImage source, Template template, float threshold) {
+        return match(source, template, threshold, MATCHING_METHOD_NCC, DEFAULT_MAX_LEVEL, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 在某一层上全图搜索，返回经过非极大值抑制后的候选位置
+     */
+    private List<Candidate> search(GrayImage source, Template template, int level, float threshold, int method, int threadCount) {
+        GrayImage t = template.getLevel(level);
+        int rows = source.getHeight() - t.getHeight() + 1;
+        int tileCount = Math.max(1, Math.min(threadCount, rows));
+        List<List<Candidate>> results = new ArrayList<>(tileCount);
+        CountDownLatch latch = new CountDownLatch(tileCount);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        int top = 0;
+        SearchTask first = null;
+        for (int i = 0; i < tileCount; i++) {
+            int bottom = top + rows / tileCount + (i < rows % tileCount ? 1 : 0);
+            List<Candidate> result = new ArrayList<>();
+            results.add(result);
+            SearchTask task = new SearchTask(source, template, level, top, bottom, threshold, method, result, latch, cancelled);
+            if (i == 0) {
+                first = task;
+            } else {
+                execute(task);
+            }
+            top = bottom;
+        }
+        try {
+            first.run();
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new ScriptInterruptedException();
+        } finally {
+            // 调用者被中断时，让还在其他线程中运行的分块尽快结束
+            cancelled.set(true);
+        }
+        List<Candidate> all = new ArrayList<>();
+        for (List<Candidate> result : results) {
+            all.addAll(result);
+        }
+        Collections.sort(all, SCORE_DESCENDING);
+        List<Candidate> selected = new ArrayList<>(MAX_CANDIDATES);
+        int minDistanceX = Math.max(1, t.getWidth() / 2);
+        int minDistanceY = Math.max(1, t.getHeight() / 2);
+        for (Candidate candidate : all) {
+            boolean suppressed = false;
+            for (Candidate s : selected) {
+                if (Math.abs(s.x - candidate.x) < minDistanceX && Math.abs(s.y - candidate.y) < minDistanceY) {
+                    suppressed = true;
+                    break;
+                }
+            }
+            if (!suppressed) {
+                selected.add(candidate);
+                if (selected.size() >= MAX_CANDIDATES) {
+                    break;
+                }
+            }
+        }
+        return selected;
+    }
+
+    private Candidate refine(GrayImage source, Template template, int level, int centerX, int centerY, float threshold, int method) {
+        GrayImage t = template.getLevel(level);
+        int maxX = source.getWidth() - t.getWidth();
+        int maxY = source.getHeight() - t.getHeight();
+        Candidate best = null;
+        for (int y = Math.max(0, centerY - REFINE_RADIUS); y <= Math.min(maxY, centerY + REFINE_RADIUS); y++) {
+            for (int x = Math.max(0, centerX - REFINE_RADIUS); x <= Math.min(maxX, centerX + REFINE_RADIUS); x++) {
+                float score = score(source, template, level, x, y, method, best == null ? threshold : best.score);
+                if (score >= threshold && (best == null || score > best.score)) {
+                    best = new Candidate(x, y, score);
+                }
+            }
+        }
+        return best;
+    }
+
+    private void execute(Runnable task) {
+        try {
+            mExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * @param minScore 低于该值的结果不会被采用，SAD据此提前终止
+     * @return 相似度，范围[0, 1]；提前终止时返回-1
+     */
+    static float score(GrayImage source, Template template, int level, int x, int y, int method, float minScore) {
+        if (method == MATCHING_METHOD_SAD || template.isFlat(level)) {
+            return sad(source, template.getLevel(level), x, y, minScore);
+        }
+        return ncc(source, template, level, x, y);
+    }
+
+    private static float ncc(GrayImage source, Template template, int level, int x, int y) {
+        GrayImage t = template.getLevel(level);
+        byte[] s = source.getPixels();
+        byte[] tp = t.getPixels();
+        int sw = source.getWidth();
+        int tw = t.getWidth(), th = t.getHeight();
+        long sum = 0, sqSum = 0, cross = 0;
+        for (int ty = 0; ty < th; ty++) {
+            int si = (y + ty) * sw + x;
+            int ti = ty * tw;
+            for (int tx = 0; tx < tw; tx++) {
+                int a = s[si + tx] & 0xff;
+                int b = tp[ti + tx] & 0xff;
+                sum += a;
+                sqSum += a * a;
+                cross += a * b;
+            }
+        }
+        int n = tw * th;
+        long templateSum = template.getSum(level);
+        double numerator = cross - (double) sum * templateSum / n;
+        double sourceNorm = sqSum - (double) sum * sum / n;
+        double denominator = Math.sqrt(sourceNorm * template.getNorm(level));
+        if (denominator < 1e-6) {
+            // 模板不是纯色(见score)，源图区域是纯色时两者不相关
+            return 0;
+        }
+        return (float) Math.max(0, numerator / denominator);
+    }
+
+    private static float sad(GrayImage source, GrayImage t, int x, int y, float minScore) {
+        byte[] s = source.getPixels();
+        byte[] tp = t.getPixels();
+        int sw = source.getWidth();
+        int tw = t.getWidth(), th = t.getHeight();
+        long max = 255L * tw * th;
+        long limit = (long) ((1 - minScore) * max);
+        long sad = 0;
+        for (int ty = 0; ty < th; ty++) {
+            int si = (y + ty) * sw + x;
+            int ti = ty * tw;
+            for (int tx = 0; tx < tw; tx++) {
+                sad += Math.abs((s[si + tx] & 0xff) - (tp[ti + tx] & 0xff));
+            }
+            if (sad > limit) {
+                return -1;
+            }
+        }
+        return 1 - (float) sad / max;
+    }
+
+    private static class SearchTask implements Runnable {
+
+        private final GrayImage mSource;
+        private final Template mTemplate;
+        private final int mLevel;
+        private final int mTop, mBottom;
+        private final float mThreshold;
+        private final int mMethod;
+        private final List<Candidate> mResult;
+        private final CountDownLatch mLatch;
+        private final AtomicBoolean mCancelled;
+
+        SearchTask(GrayImage source, Template template, int level, int top, int bottom, float threshold, int method,
+                   List<Candidate> result, CountDownLatch latch, AtomicBoolean cancelled) {
+            mSource = source;
+            mTemplate = template;
+            mLevel = level;
+            mTop = top;
+            mBottom = bottom;
+            mThreshold = threshold;
+            mMethod = method;
+            mResult = result;
+            mLatch = latch;
+            mCancelled = cancelled;
+        }
+
+        @Override
+        public void run() {
+            try {
+                search();
+            } finally {
+                mLatch.countDown();
+            }
+        }
+
+        private void search() {
+            int maxX = mSource.getWidth() - mTemplate.getLevel(mLevel).getWidth();
+            for (int y = mTop; y < mBottom; y++) {
+                if (mCancelled.get() || Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                for (int x = 0; x <= maxX; x++) {
+                    float score = score(mSource, mTemplate, mLevel, x, y, mMethod, mThreshold);
+                    if (score >= mThreshold) {
+                        add(new Candidate(x, y, score));
+                    }
+                }
+            }
+        }
+
+        /**
+         * 每一块只保留分数最高的若干个候选，避免阈值过低时候选数量爆炸
+         */
+        private void add(Candidate candidate) {
+            List<Candidate> result = mResult;
+            if (result.size() >= MAX_CANDIDATES * 8) {
+                Collections.sort(result, SCORE_DESCENDING);
+                if (result.get(result.size() - 1).score >= candidate.score) {
+                    return;
+                }
+                result.remove(result.size() - 1);
+            }
+            result.add(candidate);
+        }
+    }
+
+}
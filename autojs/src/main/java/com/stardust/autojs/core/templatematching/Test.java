@@ -1,18 +0,0 @@
-package com.stardust.autojs.core.templatematching;
-
-import android.graphics.Color;
-import android.media.Image;
-
-import com.stardust.autojs.runtime.api.image.Images;
-
-/**
- * Created by Stardust on 2017/10/5.
- */
-
-public class Test {
-
-    public void test(Image image) {
-
-    }
-
-}
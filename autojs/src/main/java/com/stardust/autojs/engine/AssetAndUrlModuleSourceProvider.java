@@ -17,6 +17,8 @@ import java.util.List;
 public class AssetAndUrlModuleSourceProvider extends UrlModuleSourceProvider {
 
     private static final String MODULES_PATH = "modules";
+    // assets中的模块在运行期间不会改变，编译结果可以一直使用
+    private static final Object ASSET_VALIDATOR = new Object();
     private android.content.Context mContext;
     private List<String> mModules;
     private final URI mBaseURI = URI.create("file:///android_asset/modules");
@@ -39,8 +41,11 @@ public class AssetAndUrlModuleSourceProvider extends UrlModuleSourceProvider {
             moduleIdWithExtension += ".js";
         }
         if (mModules.contains(moduleIdWithExtension)) {
+            if (validator == ASSET_VALIDATOR) {
+                return NOT_MODIFIED;
+            }
             return new ModuleSource(new InputStreamReader(mContext.getAssets().open(MODULES_PATH + "/" + moduleIdWithExtension)), null,
-                    URI.create(moduleIdWithExtension), mBaseURI, validator);
+                    URI.create(moduleIdWithExtension), mBaseURI, ASSET_VALIDATOR);
         }
         return super.loadFromPrivilegedLocations(moduleId, validator);
     }
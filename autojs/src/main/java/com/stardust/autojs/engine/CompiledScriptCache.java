@@ -0,0 +1,48 @@
+package com.stardust.autojs.engine;
+
+import android.support.annotation.Nullable;
+
+import com.stardust.util.LimitedHashMap;
+
+import org.mozilla.javascript.Script;
+
+/**
+ * Created by Stardust on 2017/10/29.
+ * <p>
+ * 已编译脚本的缓存，按最近使用淘汰。解释模式下编译出的{@link Script}与Context、作用域无关，
+ * 可以被多个引擎、多个线程共享执行，因此循环运行或重复运行同一个脚本时不必再次解析和编译。
+ */
+public class CompiledScriptCache {
+
+    private static final int DEFAULT_MAX_SIZE = 32;
+
+    private static final CompiledScriptCache sInstance = new CompiledScriptCache(DEFAULT_MAX_SIZE);
+
+    private final LimitedHashMap<String, Script> mScripts;
+
+    public CompiledScriptCache(int maxSize) {
+        mScripts = new LimitedHashMap<>(maxSize);
+    }
+
+    public static CompiledScriptCache getInstance() {
+        return sInstance;
+    }
+
+    @Nullable
+    public synchronized Script get(String key) {
+        return mScripts.get(key);
+    }
+
+    public synchronized void put(String key, Script script) {
+        mScripts.put(key, script);
+    }
+
+    public synchronized int size() {
+        return mScripts.size();
+    }
+
+    public synchronized void clear() {
+        mScripts.clear();
+    }
+
+}
@@ -2,20 +2,25 @@ package com.stardust.autojs.engine;
 
 import android.util.Log;
 
-import com.stardust.autojs.BuildConfig;
 import com.stardust.autojs.rhino.AndroidContextFactory;
+import com.stardust.autojs.rhino.DexScriptCompiler;
+import com.stardust.autojs.rhino.InheritedTopLevel;
 import com.stardust.autojs.rhino.RhinoAndroidHelper;
 import com.stardust.autojs.runtime.exception.ScriptInterruptedException;
+import com.stardust.autojs.script.JavaScriptFileSource;
 import com.stardust.autojs.script.JavaScriptSource;
 import com.stardust.autojs.script.StringScriptSource;
 import com.stardust.pio.PFiles;
 import com.stardust.pio.UncheckedIOException;
+import com.stardust.util.HashUtils;
+import com.stardust.util.LimitedHashMap;
 
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextFactory;
-import org.mozilla.javascript.ImporterTopLevel;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.commonjs.module.ModuleScriptProvider;
 import org.mozilla.javascript.commonjs.module.RequireBuilder;
 import org.mozilla.javascript.commonjs.module.provider.SoftCachingModuleScriptProvider;
 import org.mozilla.javascript.tools.debugger.Dim;
@@ -31,13 +36,19 @@ import java.util.List;
  * Created by Stardust on 2017/4/2.
  */
 
-public class RhinoJavaScriptEngine extends JavaScriptEngine {
+public class RhinoJavaScriptEngine extends JavaScriptEngine implements ScriptEnginePool.Poolable {
 
     private static final String LOG_TAG = "RhinoJavaScriptEngine";
 
     private static int contextCount = 0;
+    private static final int MAX_MODULE_SCRIPT_PROVIDERS = 8;
+
     private static StringScriptSource sInitScript;
+    private static Scriptable sSharedScope;
+    private static final LimitedHashMap<List<URI>, ModuleScriptProvider> sModuleScriptProviders = new LimitedHashMap<>(MAX_MODULE_SCRIPT_PROVIDERS);
+    private static DexScriptCompiler sDexScriptCompiler;
     private String[] mRequirePath = new String[0];
+    private int mOptimizationLevel = -1;
 
     private Context mContext;
     private Scriptable mScriptable;
@@ -57,19 +68,84 @@ public class RhinoJavaScriptEngine extends JavaScriptEngine {
 
     @Override
     public Object doExecution(JavaScriptSource source) {
+        return compile(source).exec(mContext, mScriptable);
+    }
+
+    protected Script compile(JavaScriptSource source) {
+        String key = getCacheKey(source);
+        Script script = CompiledScriptCache.getInstance().get(key);
+        if (script != null) {
+            return script;
+        }
         Reader reader = source.getNonNullScriptReader();
         try {
             reader = preprocess(reader);
-            return mContext.evaluateReader(mScriptable, reader, "<" + source.getName() + ">", 1, null);
+            String sourceName = "<" + source.getName() + ">";
+            if (mOptimizationLevel >= 0) {
+                script = getDexScriptCompiler().compile(mContext, PFiles.read(reader), sourceName, mOptimizationLevel);
+            } else {
+                script = mContext.compileReader(reader, sourceName, 1, null);
+            }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException ignored) {
+            }
         }
+        CompiledScriptCache.getInstance().put(key, script);
+        return script;
+    }
+
+    private DexScriptCompiler getDexScriptCompiler() {
+        synchronized (RhinoJavaScriptEngine.class) {
+            if (sDexScriptCompiler == null) {
+                sDexScriptCompiler = new DexScriptCompiler(new File(mAndroidContext.getCacheDir(), "classes"),
+                        ContextFactory.getGlobal().getApplicationClassLoader());
+            }
+            return sDexScriptCompiler;
+        }
+    }
+
+    /**
+     * 文件按路径和修改时间、大小区分，其他脚本按内容的哈希区分。
+     * 预处理和优化级别会影响编译结果，因此引擎类型和优化级别也是键的一部分。
+     */
+    protected String getCacheKey(JavaScriptSource source) {
+        StringBuilder key = new StringBuilder()
+                .append(getClass().getName()).append('|')
+                .append(mOptimizationLevel).append('|')
+                .append(source.getName()).append('|');
+        if (source instanceof JavaScriptFileSource) {
+            File file = ((JavaScriptFileSource) source).getFile();
+            key.append(file.getAbsolutePath()).append('|')
+                    .append(file.lastModified()).append('|')
+                    .append(file.length());
+        } else {
+            key.append(HashUtils.md5(source.getScript()));
+        }
+        return key.toString();
     }
 
     protected Reader preprocess(Reader script) throws IOException {
         return script;
     }
 
+    @Override
+    public void detachFromThread() {
+        Context.exit();
+    }
+
+    @Override
+    public void attachToThread() {
+        Context context = ContextFactory.getGlobal().enterContext(mContext);
+        if (context != mContext) {
+            Context.exit();
+            throw new IllegalStateException("another context has been entered in current thread");
+        }
+    }
+
     @Override
     public void forceStop() {
         Log.d(LOG_TAG, "forceStop: interrupt Thread: " + mThread);
@@ -96,13 +172,20 @@ public class RhinoJavaScriptEngine extends JavaScriptEngine {
         ScriptableObject.putProperty(mScriptable, "__engine__", this);
         mRequirePath = (String[]) getTag(TAG_PATH);
         initRequireBuilder(mContext, mScriptable);
-        mContext.evaluateString(mScriptable, getInitScript().getScript(), "<init>", 1, null);
+        compile(getInitScript()).exec(mContext, mScriptable);
+        // 初始化脚本总是解释执行，只有用户脚本按配置编译
+        Object optimizationLevel = getTag(TAG_OPTIMIZATION_LEVEL);
+        if (optimizationLevel instanceof Integer) {
+            mOptimizationLevel = (Integer) optimizationLevel;
+        }
     }
 
     private JavaScriptSource getInitScript() {
-        if (sInitScript == null || BuildConfig.DEBUG)
-            sInitScript = new StringScriptSource(readInitScript());
-        return sInitScript;
+        synchronized (RhinoJavaScriptEngine.class) {
+            if (sInitScript == null)
+                sInitScript = new StringScriptSource("init", readInitScript());
+            return sInitScript;
+        }
     }
 
     private String readInitScript() {
@@ -118,14 +201,28 @@ public class RhinoJavaScriptEngine extends JavaScriptEngine {
         for (String path : mRequirePath) {
             list.add(new File(path).toURI());
         }
-        AssetAndUrlModuleSourceProvider provider = new AssetAndUrlModuleSourceProvider(mAndroidContext, list);
         new RequireBuilder()
-                .setModuleScriptProvider(new SoftCachingModuleScriptProvider(provider))
+                .setModuleScriptProvider(getModuleScriptProvider(list))
                 .setSandboxed(true)
                 .createRequire(context, scope)
                 .install(scope);
     }
 
+    /**
+     * 模块的编译结果在搜索路径相同的引擎之间共享，模块文件修改后会重新编译。
+     * 模块的exports仍然由每个引擎自己的require保存。
+     */
+    private ModuleScriptProvider getModuleScriptProvider(List<URI> requirePath) {
+        synchronized (sModuleScriptProviders) {
+            ModuleScriptProvider provider = sModuleScriptProviders.get(requirePath);
+            if (provider == null) {
+                provider = new SoftCachingModuleScriptProvider(new AssetAndUrlModuleSourceProvider(mAndroidContext, requirePath));
+                sModuleScriptProviders.put(requirePath, provider);
+            }
+            return provider;
+        }
+    }
+
     public Context getContext() {
         return mContext;
     }
@@ -135,17 +232,31 @@ public class RhinoJavaScriptEngine extends JavaScriptEngine {
     }
 
     protected Scriptable createScope(Context context) {
-        ImporterTopLevel importerTopLevel = new ImporterTopLevel();
-        importerTopLevel.initStandardObjects(context, false);
-        return importerTopLevel;
+        return new InheritedTopLevel(context, getSharedScope(context));
+    }
+
+    /**
+     * 所有引擎共享的顶层作用域，每个进程只创建一次。其中只有Java包树，JS标准对象由各引擎自己创建。
+     */
+    private static Scriptable getSharedScope(Context context) {
+        synchronized (RhinoJavaScriptEngine.class) {
+            if (sSharedScope == null) {
+                sSharedScope = InheritedTopLevel.createSharedScope(context);
+            }
+            return sSharedScope;
+        }
     }
 
     protected Context createContext() {
-        if (!ContextFactory.hasExplicitGlobal()) {
-            ContextFactory.initGlobal(new InterruptibleAndroidContextFactory(new File(mAndroidContext.getCacheDir(), "classes")));
+        Context context;
+        // 引擎池的线程可能与脚本线程同时创建引擎，全局的ContextFactory只能初始化一次
+        synchronized (RhinoJavaScriptEngine.class) {
+            if (!ContextFactory.hasExplicitGlobal()) {
+                ContextFactory.initGlobal(new InterruptibleAndroidContextFactory(new File(mAndroidContext.getCacheDir(), "classes")));
+            }
+            context = new RhinoAndroidHelper(mAndroidContext).enterContext();
+            contextCount++;
         }
-        Context context = new RhinoAndroidHelper(mAndroidContext).enterContext();
-        contextCount++;
         context.setOptimizationLevel(-1);
         context.setLanguageVersion(Context.VERSION_ES6);
         return context;
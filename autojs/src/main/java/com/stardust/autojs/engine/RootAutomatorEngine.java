@@ -4,13 +4,22 @@ import android.content.Context;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
+import com.stardust.autojs.core.inputevent.InputEventCodes;
+import com.stardust.autojs.core.record.inputevent.AutoFilePlayer;
+import com.stardust.autojs.core.record.inputevent.AutoFileReader;
+import com.stardust.autojs.core.record.inputevent.AutoFileWriter;
+import com.stardust.autojs.execution.ExecutionConfig;
 import com.stardust.autojs.runtime.api.AbstractShell;
 import com.stardust.autojs.runtime.api.ProcessShell;
 import com.stardust.autojs.core.inputevent.InputDevices;
+import com.stardust.autojs.runtime.api.RootAutomator;
+import com.stardust.autojs.runtime.exception.ScriptInterruptedException;
 import com.stardust.autojs.script.AutoFileSource;
 import com.stardust.pio.PFiles;
+import com.stardust.pio.UncheckedIOException;
 
 import java.io.File;
+import java.io.IOException;
 
 /**
  * Created by Stardust on 2017/8/1.
@@ -24,6 +33,7 @@ public class RootAutomatorEngine extends ScriptEngine.AbstractScriptEngine<AutoF
     private static final String LOG_TAG = "RootAutomatorEngine";
 
     private static int sTouchDevice = -1;
+    private static boolean sExecutablePrepared = false;
     private static final String ROOT_AUTOMATOR_EXECUTABLE_ASSET = "binary/root_automator";
 
     private Context mContext;
@@ -43,15 +53,70 @@ public class RootAutomatorEngine extends ScriptEngine.AbstractScriptEngine<AutoF
 
     public void execute(String autoFile) {
         mExecutablePath = getExecutablePath(mContext);
+        int version;
+        try {
+            version = AutoFileReader.readVersion(new File(autoFile));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (version >= AutoFileWriter.VERSION) {
+            ExecutionConfig config = (ExecutionConfig) getTag(TAG_EXECUTION_CONFIG);
+            play(autoFile, config == null ? ExecutionConfig.getDefault() : config);
+            return;
+        }
         Log.d(LOG_TAG, "exec: " + autoFile);
         AbstractShell.Result result = ProcessShell.execCommand(new String[]{
-                "chmod 777 " + mExecutablePath,
                 mExecutablePath + " \"" + autoFile + "\" -d " + mDeviceNameOrPath
         }, true);
         Log.d(LOG_TAG, "result = " + result);
     }
 
 
+    /**
+     * 第2版的.auto文件由root_automator的交互模式逐个发送事件，支持只播放一段、循环和变速
+     */
+    private void play(String autoFile, ExecutionConfig config) {
+        Log.d(LOG_TAG, "play: " + autoFile);
+        AutoFileReader reader = null;
+        final RootAutomator rootAutomator = new RootAutomator(mContext);
+        try {
+            reader = new AutoFileReader(new File(autoFile));
+            rootAutomator.setScreenMetrics(reader.getWidth(), reader.getHeight());
+            new AutoFilePlayer(reader, new AutoFilePlayer.EventSink() {
+                @Override
+                public void sendEvent(int type, int code, int value) throws IOException {
+                    if (type == InputEventCodes.EV_ABS && code == InputEventCodes.ABS_MT_POSITION_X) {
+                        rootAutomator.touchX(value);
+                    } else if (type == InputEventCodes.EV_ABS && code == InputEventCodes.ABS_MT_POSITION_Y) {
+                        rootAutomator.touchY(value);
+                    } else {
+                        rootAutomator.sendEvent(type, code, value);
+                    }
+                }
+            }).range(config.getPlaybackFrom(), config.getPlaybackTo())
+                    .speed(config.getPlaybackSpeed())
+                    .loopTimes(config.getPlaybackLoopTimes())
+                    .play();
+        } catch (InterruptedException e) {
+            throw new ScriptInterruptedException();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            try {
+                rootAutomator.exit();
+            } catch (IOException ignored) {
+
+            }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+
+                }
+            }
+        }
+    }
+
     public static String getDeviceNameOrPath(Context context, String deviceNameOrPath) {
         if (sTouchDevice < 0) {
             sTouchDevice = PreferenceManager.getDefaultSharedPreferences(context).getInt(KEY_TOUCH_DEVICE, -1);
@@ -66,9 +131,17 @@ public class RootAutomatorEngine extends ScriptEngine.AbstractScriptEngine<AutoF
         return deviceNameOrPath;
     }
 
-    public static String getExecutablePath(Context context) {
+    /**
+     * 可执行文件在进程中只复制一次，并且直接设置可执行权限，不需要再通过su执行chmod
+     */
+    public static synchronized String getExecutablePath(Context context) {
         File tmp = new File(context.getCacheDir(), "root_automator");
+        if (sExecutablePrepared && tmp.canExecute()) {
+            return tmp.getAbsolutePath();
+        }
         PFiles.copyAsset(context, ROOT_AUTOMATOR_EXECUTABLE_ASSET, tmp.getAbsolutePath());
+        tmp.setExecutable(true, false);
+        sExecutablePrepared = true;
         return tmp.getAbsolutePath();
     }
 
@@ -96,7 +169,7 @@ public class RootAutomatorEngine extends ScriptEngine.AbstractScriptEngine<AutoF
     @Override
     public void forceStop() {
         mThread.interrupt();
-        ProcessShell.exec("killall " + mExecutablePath, true);
+        ProcessShell.execInNewShell("killall " + mExecutablePath, true);
     }
 
     @Override
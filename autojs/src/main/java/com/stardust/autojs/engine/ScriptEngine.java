@@ -25,6 +25,8 @@ public interface ScriptEngine<S extends ScriptSource> {
 
     String TAG_PATH = "execute_path";
     String TAG_SOURCE = "source";
+    String TAG_OPTIMIZATION_LEVEL = "optimization_level";
+    String TAG_EXECUTION_CONFIG = "execution_config";
 
     void put(String name, Object value);
 
@@ -11,6 +11,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by Stardust on 2017/1/27.
@@ -30,6 +31,8 @@ public class ScriptEngineManager {
     private final Set<ScriptEngine> mEngines = new HashSet<>();
     private EngineLifecycleCallback mEngineLifecycleCallback;
     private Map<String, Supplier<ScriptEngine>> mEngineSuppliers = new HashMap<>();
+    // 脚本线程创建引擎时读取，可能同时被其他线程修改
+    private final Map<String, ScriptEnginePool> mEnginePools = new ConcurrentHashMap<>();
     private Map<String, Object> mGlobalVariableMap = new HashMap<>();
     private android.content.Context mAndroidContext;
     private ScriptEngine.OnDestroyListener mOnEngineDestroyListener = new ScriptEngine.OnDestroyListener() {
@@ -101,7 +104,14 @@ public class ScriptEngineManager {
         if (s == null) {
             return null;
         }
-        ScriptEngine engine = s.get();
+        ScriptEngine engine = null;
+        ScriptEnginePool pool = mEnginePools.get(name);
+        if (pool != null) {
+            engine = pool.poll();
+        }
+        if (engine == null) {
+            engine = s.get();
+        }
         putProperties(engine);
         addEngine(engine);
         return engine;
@@ -135,6 +145,29 @@ public class ScriptEngineManager {
 
     public void unregisterEngine(String name) {
         mEngineSuppliers.remove(name);
+        removeEnginePool(name);
+    }
+
+    /**
+     * 为已注册的引擎启用预创建的引擎池，见{@link ScriptEnginePool}。
+     *
+     * @param idleTimeout 多于minIdle的空闲引擎在空闲这么久(毫秒)后被销毁
+     */
+    public void setEnginePool(String name, int minIdle, int maxIdle, long idleTimeout) {
+        Supplier<ScriptEngine> s = mEngineSuppliers.get(name);
+        if (s == null)
+            throw new ScriptEngineFactory.EngineNotFoundException("name: " + name);
+        ScriptEnginePool old = mEnginePools.put(name, new ScriptEnginePool(s, minIdle, maxIdle, idleTimeout));
+        if (old != null) {
+            old.shutdown();
+        }
+    }
+
+    public void removeEnginePool(String name) {
+        ScriptEnginePool pool = mEnginePools.remove(name);
+        if (pool != null) {
+            pool.shutdown();
+        }
     }
 
 }
@@ -0,0 +1,202 @@
+package com.stardust.autojs.engine;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.stardust.util.Supplier;
+
+import org.mozilla.javascript.Context;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Created by Stardust on 2017/10/29.
+ * <p>
+ * 预先创建好的引擎池。引擎(Rhino Context、顶层作用域、ScriptRuntime等)在池自己的线程中创建，
+ * 脱离该线程后放入池中；{@link ScriptEngineManager}创建引擎时优先从池中取出并绑定到当前线程，
+ * 再在后台补充新的引擎。
+ * <p>
+ * 引擎执行过脚本后状态已被污染，因此不会归还到池中，用完即销毁。
+ * 池中至少保持minIdle个空闲引擎；取用时池为空说明负载较高，目标数量会增加(不超过maxIdle)，
+ * 空闲超过idleTimeout的多余引擎会被销毁，目标数量随之回落。
+ */
+public class ScriptEnginePool {
+
+    /**
+     * 可以在一个线程创建、在另一个线程使用的引擎
+     */
+    public interface Poolable {
+
+        /**
+         * 在创建引擎的线程调用，解除与该线程的绑定
+         */
+        void detachFromThread();
+
+        /**
+         * 在将要使用引擎的线程调用
+         */
+        void attachToThread();
+    }
+
+    private static final String LOG_TAG = "ScriptEnginePool";
+
+    private static class IdleEngine {
+
+        final ScriptEngine engine;
+        final long idleSince;
+
+        IdleEngine(ScriptEngine engine) {
+            this.engine = engine;
+            idleSince = SystemClock.uptimeMillis();
+        }
+    }
+
+    private final Supplier<ScriptEngine> mSupplier;
+    private final int mMinIdle;
+    private final int mMaxIdle;
+    private final long mIdleTimeout;
+    private final LinkedList<IdleEngine> mIdleEngines = new LinkedList<>();
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    // 以下字段由mIdleEngines保护
+    private int mTargetIdle;
+    private boolean mShutdown = false;
+
+    private final Runnable mFill = new Runnable() {
+        @Override
+        public void run() {
+            fill();
+        }
+    };
+
+    private final Runnable mEvict = new Runnable() {
+        @Override
+        public void run() {
+            evict();
+        }
+    };
+
+    public ScriptEnginePool(Supplier<ScriptEngine> supplier, int minIdle, int maxIdle, long idleTimeout) {
+        if (minIdle < 0 || maxIdle < minIdle) {
+            throw new IllegalArgumentException("minIdle = " + minIdle + ", maxIdle = " + maxIdle);
+        }
+        mSupplier = supplier;
+        mMinIdle = minIdle;
+        mMaxIdle = maxIdle;
+        mIdleTimeout = idleTimeout;
+        mTargetIdle = minIdle;
+        mThread = new HandlerThread(LOG_TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mHandler.post(mFill);
+    }
+
+    /**
+     * 取出一个空闲的引擎并绑定到当前线程。
+     *
+     * @return 没有空闲引擎，或当前线程已经进入了其他Rhino Context时返回null，此时应直接创建引擎
+     */
+    @Nullable
+    public ScriptEngine poll() {
+        if (Context.getCurrentContext() != null) {
+            return null;
+        }
+        IdleEngine idle;
+        synchronized (mIdleEngines) {
+            if (mShutdown) {
+                return null;
+            }
+            idle = mIdleEngines.pollFirst();
+            if (idle == null && mTargetIdle < mMaxIdle) {
+                mTargetIdle++;
+            }
+        }
+        mHandler.post(mFill);
+        if (idle == null) {
+            return null;
+        }
+        ((Poolable) idle.engine).attachToThread();
+        return idle.engine;
+    }
+
+    public int getIdleCount() {
+        synchronized (mIdleEngines) {
+            return mIdleEngines.size();
+        }
+    }
+
+    public void shutdown() {
+        synchronized (mIdleEngines) {
+            mShutdown = true;
+        }
+        mHandler.removeCallbacksAndMessages(null);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mIdleEngines) {
+                    for (IdleEngine idle : mIdleEngines) {
+                        destroy(idle.engine);
+                    }
+                    mIdleEngines.clear();
+                }
+                mThread.quit();
+            }
+        });
+    }
+
+    private void fill() {
+        while (true) {
+            synchronized (mIdleEngines) {
+                if (mShutdown || mIdleEngines.size() >= mTargetIdle) {
+                    break;
+                }
+            }
+            ScriptEngine engine = mSupplier.get();
+            if (!(engine instanceof Poolable)) {
+                Log.w(LOG_TAG, "engine cannot be pooled: " + engine);
+                engine.destroy();
+                return;
+            }
+            ((Poolable) engine).detachFromThread();
+            synchronized (mIdleEngines) {
+                if (mShutdown) {
+                    ((Poolable) engine).attachToThread();
+                    engine.destroy();
+                    return;
+                }
+                mIdleEngines.addLast(new IdleEngine(engine));
+            }
+        }
+        mHandler.removeCallbacks(mEvict);
+        mHandler.postDelayed(mEvict, mIdleTimeout);
+    }
+
+    private void evict() {
+        long now = SystemClock.uptimeMillis();
+        synchronized (mIdleEngines) {
+            Iterator<IdleEngine> iterator = mIdleEngines.iterator();
+            while (iterator.hasNext() && mIdleEngines.size() > mMinIdle) {
+                IdleEngine idle = iterator.next();
+                if (now - idle.idleSince < mIdleTimeout) {
+                    break;
+                }
+                iterator.remove();
+                destroy(idle.engine);
+            }
+            mTargetIdle = Math.max(mMinIdle, mIdleEngines.size());
+            if (mIdleEngines.size() > mMinIdle) {
+                mHandler.postDelayed(mEvict, mIdleTimeout);
+            }
+        }
+    }
+
+    private void destroy(ScriptEngine engine) {
+        ((Poolable) engine).attachToThread();
+        engine.destroy();
+    }
+
+}
@@ -7,7 +7,17 @@ import java.io.Serializable;
  */
 public class ExecutionConfig implements Serializable {
 
+    public static final int PRIORITY_LOW = -1;
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_HIGH = 1;
+
     private String[] mRequirePath = new String[0];
+    private int mOptimizationLevel = -1;
+    private int mPriority = PRIORITY_NORMAL;
+    private long mPlaybackFrom = 0;
+    private long mPlaybackTo = -1;
+    private float mPlaybackSpeed = 1;
+    private int mPlaybackLoopTimes = 1;
     private static final ExecutionConfig DEFAULT = new ExecutionConfig();
     public long delay = 0;
     public long interval = 0;
@@ -33,6 +43,70 @@ public class ExecutionConfig implements Serializable {
         return mRequirePath;
     }
 
+    /**
+     * @param optimizationLevel Rhino的优化级别。-1为解释执行(默认)；0~9会把脚本编译为字节码并转换为dex缓存起来，
+     *                          第一次运行较慢，适合计算量大的脚本
+     */
+    public ExecutionConfig optimizationLevel(int optimizationLevel) {
+        if (optimizationLevel < -1 || optimizationLevel > 9) {
+            throw new IllegalArgumentException("optimizationLevel = " + optimizationLevel);
+        }
+        mOptimizationLevel = optimizationLevel;
+        return this;
+    }
+
+    public int getOptimizationLevel() {
+        return mOptimizationLevel;
+    }
+
+    /**
+     * @param priority 排队时优先级高的脚本先运行，运行时也会调整线程的优先级。
+     *                 一般为{@link #PRIORITY_LOW}、{@link #PRIORITY_NORMAL}或{@link #PRIORITY_HIGH}
+     */
+    public ExecutionConfig priority(int priority) {
+        mPriority = priority;
+        return this;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * 回放第2版.auto文件时的选项，对其他脚本无效
+     *
+     * @param from      开始时间(毫秒)
+     * @param to        结束时间(毫秒)，-1表示到文件结尾
+     * @param speed     播放速度
+     * @param loopTimes 这一段的播放次数，0表示无限循环
+     */
+    public ExecutionConfig playback(long from, long to, float speed, int loopTimes) {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("speed = " + speed);
+        }
+        mPlaybackFrom = from;
+        mPlaybackTo = to;
+        mPlaybackSpeed = speed;
+        mPlaybackLoopTimes = loopTimes;
+        return this;
+    }
+
+    public long getPlaybackFrom() {
+        return mPlaybackFrom;
+    }
+
+    public long getPlaybackTo() {
+        return mPlaybackTo;
+    }
+
+    public float getPlaybackSpeed() {
+        return mPlaybackSpeed;
+    }
+
+    public int getPlaybackLoopTimes() {
+        return mPlaybackLoopTimes;
+    }
+
     public ExecutionConfig loop(long delay, int loopTimes, long interval) {
         this.delay = delay;
         this.loopTimes = loopTimes;
@@ -0,0 +1,259 @@
+package com.stardust.autojs.execution;
+
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.stardust.autojs.runtime.api.Loopers;
+import com.stardust.autojs.runtime.exception.ScriptInterruptedException;
+import com.stardust.lang.ThreadCompat;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Created by Stardust on 2017/10/30.
+ * <p>
+ * 脚本执行的调度器。同时运行的脚本数不超过maxConcurrent，其余的按优先级(相同优先级按提交顺序)排队，
+ * 队列已满时按queuePolicy拒绝新脚本或丢弃最早排队的脚本。
+ * <p>
+ * 工作线程在脚本结束后执行下一个脚本。但用过Looper的脚本(见{@link Loopers#isPrepared()})结束时Looper已经被quit，
+ * 其中可能还有脚本留下的消息，被强制停止的脚本则中断了线程，这两种情况下工作线程都会退出，需要时再创建新的线程。
+ * 空闲的线程在keepAlive后退出。
+ */
+public class ExecutionScheduler {
+
+    public static final int QUEUE_POLICY_REJECT = 0;
+    public static final int QUEUE_POLICY_DROP_OLDEST = 1;
+
+    private static final String LOG_TAG = "ExecutionScheduler";
+    private static final long DEFAULT_KEEP_ALIVE = 30 * 1000;
+
+    private static class Task {
+
+        final RunnableScriptExecution execution;
+        final int priority;
+        final long sequence;
+
+        Task(RunnableScriptExecution execution, long sequence) {
+            this.execution = execution;
+            this.priority = execution.getConfig().getPriority();
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Comparator<Task> TASK_ORDER = new Comparator<Task>() {
+        @Override
+        public int compare(Task o1, Task o2) {
+            if (o1.priority != o2.priority) {
+                return o2.priority - o1.priority;
+            }
+            return o1.sequence < o2.sequence ? -1 : (o1.sequence == o2.sequence ? 0 : 1);
+        }
+    };
+
+    private final int mMaxConcurrent;
+    private final int mMaxQueued;
+    private final int mQueuePolicy;
+    private final long mKeepAlive;
+    // 以下字段由mQueue保护
+    private final PriorityQueue<Task> mQueue = new PriorityQueue<>(16, TASK_ORDER);
+    private long mSequence = 0;
+    private int mWorkerCount = 0;
+    private int mIdleWorkerCount = 0;
+    private int mRunningCount = 0;
+
+    public ExecutionScheduler(int maxConcurrent, int maxQueued, int queuePolicy, long keepAlive) {
+        if (maxConcurrent <= 0 || maxQueued < 0) {
+            throw new IllegalArgumentException("maxConcurrent = " + maxConcurrent + ", maxQueued = " + maxQueued);
+        }
+        mMaxConcurrent = maxConcurrent;
+        mMaxQueued = maxQueued;
+        mQueuePolicy = queuePolicy;
+        mKeepAlive = keepAlive;
+    }
+
+    public ExecutionScheduler(int maxConcurrent, int maxQueued) {
+        this(maxConcurrent, maxQueued, QUEUE_POLICY_REJECT, DEFAULT_KEEP_ALIVE);
+    }
+
+    /**
+     * 提交一个脚本。被拒绝或被丢弃的脚本会以{@link RejectedExecutionException}回调onException。
+     */
+    public void execute(RunnableScriptExecution execution) {
+        Task dropped = null;
+        synchronized (mQueue) {
+            if (mQueue.size() >= mMaxQueued && mRunningCount + mQueue.size() >= mMaxConcurrent) {
+                if (mQueuePolicy != QUEUE_POLICY_DROP_OLDEST || mQueue.isEmpty()) {
+                    dropped = new Task(execution, -1);
+                } else {
+                    dropped = removeOldest();
+                }
+            }
+            if (dropped == null || dropped.execution != execution) {
+                mQueue.offer(new Task(execution, mSequence++));
+                mQueue.notify();
+                startWorkerIfNeeded();
+            }
+        }
+        if (dropped != null) {
+            reject(dropped.execution);
+        }
+    }
+
+    /**
+     * 每个排队的脚本都要有一个空闲线程或新线程来执行。调用时需持有mQueue的锁
+     */
+    private void startWorkerIfNeeded() {
+        if (mQueue.size() > mIdleWorkerCount && mWorkerCount < mMaxConcurrent) {
+            mWorkerCount++;
+            new Worker().start();
+        }
+    }
+
+    private Task removeOldest() {
+        Task oldest = null;
+        for (Task task : mQueue) {
+            if (oldest == null || task.sequence < oldest.sequence) {
+                oldest = task;
+            }
+        }
+        mQueue.remove(oldest);
+        return oldest;
+    }
+
+    private void reject(RunnableScriptExecution execution) {
+        Log.w(LOG_TAG, "rejected: " + execution.getSource());
+        execution.getListener().onException(execution, new RejectedExecutionException("too many scripts are running"));
+    }
+
+    /**
+     * 被取消的脚本与被停止的脚本一样以{@link ScriptInterruptedException}回调onException
+     */
+    private void onCancelled(RunnableScriptExecution execution) {
+        execution.getListener().onException(execution, new ScriptInterruptedException());
+    }
+
+    /**
+     * 取消所有还在排队的脚本
+     *
+     * @return 取消的脚本数量
+     */
+    public int cancelQueued() {
+        List<Task> cancelled;
+        synchronized (mQueue) {
+            cancelled = new ArrayList<>(mQueue);
+            mQueue.clear();
+        }
+        for (Task task : cancelled) {
+            onCancelled(task.execution);
+        }
+        return cancelled.size();
+    }
+
+    public boolean cancel(RunnableScriptExecution execution) {
+        boolean removed = false;
+        synchronized (mQueue) {
+            Iterator<Task> iterator = mQueue.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().execution == execution) {
+                    iterator.remove();
+                    removed = true;
+                    break;
+                }
+            }
+        }
+        if (removed) {
+            onCancelled(execution);
+        }
+        return removed;
+    }
+
+    public int getQueuedCount() {
+        synchronized (mQueue) {
+            return mQueue.size();
+        }
+    }
+
+    public int getRunningCount() {
+        synchronized (mQueue) {
+            return mRunningCount;
+        }
+    }
+
+    private static int toThreadPriority(int priority) {
+        if (priority < ExecutionConfig.PRIORITY_NORMAL) {
+            return Process.THREAD_PRIORITY_BACKGROUND;
+        }
+        if (priority > ExecutionConfig.PRIORITY_NORMAL) {
+            return Process.THREAD_PRIORITY_DEFAULT + Process.THREAD_PRIORITY_MORE_FAVORABLE;
+        }
+        return Process.THREAD_PRIORITY_DEFAULT;
+    }
+
+    private class Worker extends ThreadCompat {
+
+        Worker() {
+            super("ScriptWorker");
+        }
+
+        @Override
+        public void run() {
+            boolean reusable = true;
+            try {
+                while (reusable) {
+                    Task task = take();
+                    if (task == null) {
+                        return;
+                    }
+                    try {
+                        Process.setThreadPriority(toThreadPriority(task.priority));
+                        task.execution.run();
+                    } finally {
+                        reusable = !isInterrupted() && !Loopers.isPrepared();
+                        synchronized (mQueue) {
+                            mRunningCount--;
+                        }
+                    }
+                }
+            } finally {
+                Looper looper = Looper.myLooper();
+                if (looper != null) {
+                    looper.quit();
+                }
+                synchronized (mQueue) {
+                    mWorkerCount--;
+                    // 线程不能复用而退出时，队列中可能还有等待的脚本
+                    startWorkerIfNeeded();
+                }
+            }
+        }
+
+        private Task take() {
+            synchronized (mQueue) {
+                long deadline = System.currentTimeMillis() + mKeepAlive;
+                while (mQueue.isEmpty()) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        return null;
+                    }
+                    mIdleWorkerCount++;
+                    try {
+                        mQueue.wait(wait);
+                    } catch (InterruptedException e) {
+                        return null;
+                    } finally {
+                        mIdleWorkerCount--;
+                    }
+                }
+                mRunningCount++;
+                return mQueue.poll();
+            }
+        }
+    }
+
+}
@@ -1,11 +1,14 @@
 package com.stardust.autojs.execution;
 
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.stardust.autojs.engine.ScriptEngine;
 import com.stardust.autojs.engine.ScriptEngineManager;
 import com.stardust.autojs.runtime.exception.ScriptInterruptedException;
 import com.stardust.autojs.script.ScriptSource;
+import com.stardust.autojs.util.ProcessUtils;
 
 /**
  * Created by Stardust on 2017/5/1.
@@ -16,6 +19,9 @@ public class RunnableScriptExecution extends ScriptExecution.AbstractScriptExecu
     private static final String TAG = "RunnableJSExecution";
     private ScriptEngine mScriptEngine;
     private ScriptEngineManager mScriptEngineManager;
+    private volatile int mThreadId = -1;
+    private volatile long mThreadCpuTimeAtStart = -1;
+    private volatile long mCpuTime = -1;
 
     public RunnableScriptExecution(ScriptEngineManager manager, ScriptExecutionTask task) {
         super(task);
@@ -28,8 +34,30 @@ public class RunnableScriptExecution extends ScriptExecution.AbstractScriptExecu
     }
 
     public Object execute() {
-        mScriptEngine = mScriptEngineManager.createEngineOfSourceOrThrow(getSource());
-        return execute(mScriptEngine);
+        mThreadId = Process.myTid();
+        mThreadCpuTimeAtStart = ProcessUtils.getThreadCpuTime(mThreadId);
+        long start = SystemClock.currentThreadTimeMillis();
+        try {
+            mScriptEngine = mScriptEngineManager.createEngineOfSourceOrThrow(getSource());
+            return execute(mScriptEngine);
+        } finally {
+            mCpuTime = SystemClock.currentThreadTimeMillis() - start;
+            mThreadId = -1;
+        }
+    }
+
+    @Override
+    public long getCpuTime() {
+        int tid = mThreadId;
+        if (tid == -1) {
+            return mCpuTime;
+        }
+        // 还在运行，只能从/proc读取其他线程的CPU时间
+        long cpuTime = ProcessUtils.getThreadCpuTime(tid);
+        if (cpuTime < 0 || mThreadCpuTimeAtStart < 0) {
+            return -1;
+        }
+        return cpuTime - mThreadCpuTimeAtStart;
     }
 
     private Object execute(ScriptEngine engine) {
@@ -48,6 +76,8 @@ public class RunnableScriptExecution extends ScriptExecution.AbstractScriptExecu
 
     private void prepare(ScriptEngine engine) {
         engine.setTag(ScriptEngine.TAG_PATH, getConfig().getPath());
+        engine.setTag(ScriptEngine.TAG_OPTIMIZATION_LEVEL, getConfig().getOptimizationLevel());
+        engine.setTag(ScriptEngine.TAG_EXECUTION_CONFIG, getConfig());
         engine.init();
     }
 
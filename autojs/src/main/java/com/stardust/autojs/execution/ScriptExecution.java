@@ -18,6 +18,11 @@ public interface ScriptExecution {
 
     ExecutionConfig getConfig();
 
+    /**
+     * @return 脚本已使用的CPU时间(毫秒)，尚未开始运行或不支持统计时返回-1
+     */
+    long getCpuTime();
+
     abstract class AbstractScriptExecution implements ScriptExecution {
 
         protected ScriptExecutionTask mScriptExecutionTask;
@@ -43,5 +48,10 @@ public interface ScriptExecution {
         public ExecutionConfig getConfig() {
             return mScriptExecutionTask.getConfig();
         }
+
+        @Override
+        public long getCpuTime() {
+            return -1;
+        }
     }
 }
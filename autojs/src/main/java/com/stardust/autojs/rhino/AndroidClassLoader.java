@@ -4,7 +4,6 @@ import com.android.dx.command.dexer.Main;
 
 import net.lingala.zip4j.core.ZipFile;
 import net.lingala.zip4j.exception.ZipException;
-import net.lingala.zip4j.model.FileHeader;
 import net.lingala.zip4j.model.ZipParameters;
 
 import org.mozilla.javascript.GeneratedClassLoader;
@@ -12,8 +11,11 @@ import org.mozilla.javascript.GeneratedClassLoader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import dalvik.system.DexFile;
 
@@ -23,12 +25,63 @@ import dalvik.system.DexFile;
 
 public class AndroidClassLoader extends ClassLoader implements GeneratedClassLoader {
 
+    /**
+     * Classes produced by one dx run
+     */
+    interface DexedClasses {
+
+        List<String> getClassNames();
+
+        Class<?> loadClass(String name, ClassLoader loader);
+    }
+
+    /**
+     * Converts a jar of class files to dex and loads it. Replaced in tests, where there is neither dx nor DexFile.
+     */
+    interface Dexer {
+
+        DexedClasses dex(File jar, File dexFile, File odexFile) throws IOException;
+    }
+
+    static final Dexer DX = new Dexer() {
+        @Override
+        public DexedClasses dex(File jar, File dexFile, File odexFile) throws IOException {
+            final Main.Arguments arguments = new Main.Arguments();
+            arguments.fileNames = new String[]{jar.getPath()};
+            arguments.outName = dexFile.getPath();
+            arguments.jarOutput = true;
+            int result = Main.run(arguments);
+            if (result != 0 || !dexFile.exists()) {
+                throw new IOException("dx failed with code " + result + " for " + jar);
+            }
+            final DexFile dex = DexFile.loadDex(dexFile.getPath(), odexFile.getPath(), 0);
+            return new DexedClasses() {
+                @Override
+                public List<String> getClassNames() {
+                    return Collections.list(dex.entries());
+                }
+
+                @Override
+                public Class<?> loadClass(String name, ClassLoader loader) {
+                    return dex.loadClass(name, loader);
+                }
+            };
+        }
+    };
 
     private final ClassLoader parent;
-    private List<DexFile> dx;
-    private final File dexFile;
-    private final File odexOatFile;
-    private final File classFile;
+    private final File dir;
+    private final Dexer dexer;
+    /**
+     * The dex containing each class defined by this loader
+     */
+    private final Map<String, DexedClasses> classIndex = new ConcurrentHashMap<>();
+    /**
+     * Classes waiting to be dexed, guarded by itself
+     */
+    private final Map<String, byte[]> pendingClasses = new LinkedHashMap<>();
+    private final Object dexLock = new Object();
+    private int dexCount = 0;
 
     /**
      * Create a new instance with the given parent classloader and cache dierctory
@@ -37,68 +90,91 @@ public class AndroidClassLoader extends ClassLoader implements GeneratedClassLoa
      * @param dir    the cache directory
      */
     public AndroidClassLoader(ClassLoader parent, File dir) {
+        this(parent, dir, DX);
+    }
+
+    AndroidClassLoader(ClassLoader parent, File dir, Dexer dexer) {
         this.parent = parent;
-        dx = new ArrayList<>();
-        dexFile = new File(dir, "dex-" + hashCode() + ".jar");
-        odexOatFile = new File(dir, "odex_oat-" + hashCode() + ".tmp");
-        classFile = new File(dir, "class-" + hashCode() + ".jar");
+        this.dir = dir;
+        this.dexer = dexer;
         dir.mkdirs();
     }
 
     /**
-     * {@inheritDoc}
+     * Only the new class is dexed. Classes defined by other threads while a dex is running
+     * are dexed together in the next batch.
      */
     @Override
     public Class<?> defineClass(String name, byte[] data) {
+        synchronized (pendingClasses) {
+            pendingClasses.put(name, data);
+        }
         try {
-            final ZipFile zipFile = new ZipFile(classFile);
-            final ZipParameters parameters = new ZipParameters();
-            parameters.setFileNameInZip(name.replace('.', '/') + ".class");
-            parameters.setSourceExternalStream(true);
-            zipFile.addStream(new ByteArrayInputStream(data), parameters);
-            return dexJar().loadClass(name, parent);
+            synchronized (dexLock) {
+                if (!classIndex.containsKey(name)) {
+                    Map<String, byte[]> batch;
+                    synchronized (pendingClasses) {
+                        batch = new LinkedHashMap<>(pendingClasses);
+                        pendingClasses.clear();
+                    }
+                    if (!batch.isEmpty()) {
+                        dexClasses(batch);
+                    }
+                }
+            }
         } catch (IOException | ZipException e) {
             throw new FatalLoadingException(e);
-        } finally {
-            dexFile.delete();
-            odexOatFile.delete();
         }
+        Class<?> c = findDexClass(name);
+        if (c == null) {
+            // the batch containing this class was dexed by another thread and failed
+            throw new FatalLoadingException(new ClassNotFoundException(name));
+        }
+        return c;
     }
 
     public void loadJar(File jar) throws IOException {
+        synchronized (dexLock) {
+            DexedClasses dex = dex(jar);
+            for (String name : dex.getClassNames()) {
+                classIndex.put(name, dex);
+            }
+        }
+    }
+
+    private void dexClasses(Map<String, byte[]> classes) throws IOException, ZipException {
+        File classFile = new File(dir, "class-" + hashCode() + "-" + dexCount + ".jar");
+        classFile.delete();
         try {
             final ZipFile zipFile = new ZipFile(classFile);
-            final ZipFile jarFile = new ZipFile(jar);
-            //noinspection unchecked
-            for (FileHeader header : (List<FileHeader>) jarFile.getFileHeaders()) {
-                if (!header.isDirectory()) {
-                    final ZipParameters parameters = new ZipParameters();
-                    parameters.setFileNameInZip(header.getFileName());
-                    parameters.setSourceExternalStream(true);
-                    zipFile.addStream(jarFile.getInputStream(header), parameters);
-                }
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                final ZipParameters parameters = new ZipParameters();
+                parameters.setFileNameInZip(entry.getKey().replace('.', '/') + ".class");
+                parameters.setSourceExternalStream(true);
+                zipFile.addStream(new ByteArrayInputStream(entry.getValue()), parameters);
+            }
+            DexedClasses dex = dex(classFile);
+            for (String name : classes.keySet()) {
+                classIndex.put(name, dex);
             }
-            dexJar();
-        } catch (ZipException e) {
-            IOException exception = new IOException();
-            //noinspection UnnecessaryInitCause
-            exception.initCause(e);
-            throw exception;
+        } finally {
+            classFile.delete();
         }
     }
 
-    private DexFile dexJar() throws IOException {
-        if (!classFile.exists()) {
-            classFile.createNewFile();
+    /**
+     * Runs dx over the given jar only and loads the result. Must be called with {@link #dexLock} held.
+     */
+    private DexedClasses dex(File jar) throws IOException {
+        int id = dexCount++;
+        final File dexFile = new File(dir, "dex-" + hashCode() + "-" + id + ".jar");
+        final File odexOatFile = new File(dir, "odex_oat-" + hashCode() + "-" + id + ".tmp");
+        try {
+            return dexer.dex(jar, dexFile, odexOatFile);
+        } finally {
+            dexFile.delete();
+            odexOatFile.delete();
         }
-        final Main.Arguments arguments = new Main.Arguments();
-        arguments.fileNames = new String[]{classFile.getPath()};
-        arguments.outName = dexFile.getPath();
-        arguments.jarOutput = true;
-        Main.run(arguments);
-        DexFile dex = DexFile.loadDex(dexFile.getPath(), odexOatFile.getPath(), 0);
-        dx.add(dex);
-        return dex;
     }
 
     /**
@@ -122,21 +198,29 @@ public class AndroidClassLoader extends ClassLoader implements GeneratedClassLoa
     @Override
     public Class<?> loadClass(String name, boolean resolve)
             throws ClassNotFoundException {
-        Class<?> loadedClass = findLoadedClass(name);
+        Class<?> loadedClass = findDexClass(name);
         if (loadedClass == null) {
-            for (DexFile dex : dx) {
-                loadedClass = dex.loadClass(name, parent);
-                if (loadedClass != null) {
-                    break;
-                }
-            }
-            if (loadedClass == null) {
-                loadedClass = parent.loadClass(name);
-            }
+            loadedClass = parent.loadClass(name);
         }
         return loadedClass;
     }
 
+    /**
+     * Loads a class from the dex file recorded in {@link #classIndex}, defining it with this loader
+     * so that it can see the other generated classes.
+     */
+    private synchronized Class<?> findDexClass(String name) {
+        Class<?> loadedClass = findLoadedClass(name);
+        if (loadedClass != null) {
+            return loadedClass;
+        }
+        DexedClasses dex = classIndex.get(name);
+        if (dex == null) {
+            return null;
+        }
+        return dex.loadClass(name, this);
+    }
+
     /**
      * Might be thrown in any Rhino method that loads bytecode if the loading failed
      */
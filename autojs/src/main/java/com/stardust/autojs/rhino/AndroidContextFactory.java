@@ -7,6 +7,8 @@ import org.mozilla.javascript.Context;
 import org.mozilla.javascript.tools.shell.ShellContextFactory;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Created by Stardust on 2017/4/5.
@@ -14,6 +16,12 @@ import java.io.File;
 
 public class AndroidContextFactory extends ShellContextFactory {
     private final File cacheDirectory;
+    private final AndroidClassLoader.Dexer dexer;
+    /**
+     * One loader per parent, guarded by itself. Parents are the application class loader and the few
+     * loaders of loaded jars, so the map stays small.
+     */
+    private final Map<ClassLoader, AndroidClassLoader> classLoaders = new HashMap<>();
 
     /**
      * Create a new factory. It will cache generated code in the given directory
@@ -21,19 +29,37 @@ public class AndroidContextFactory extends ShellContextFactory {
      * @param cacheDirectory the cache directory
      */
     public AndroidContextFactory(File cacheDirectory) {
+        this(cacheDirectory, AndroidClassLoader.DX);
+    }
+
+    AndroidContextFactory(File cacheDirectory, AndroidClassLoader.Dexer dexer) {
         this.cacheDirectory = cacheDirectory;
+        this.dexer = dexer;
         initApplicationClassLoader(createClassLoader(AndroidContextFactory.class.getClassLoader()));
     }
 
     /**
-     * Create a ClassLoader which is able to deal with bytecode
+     * Rhino asks for a new loader for every generated class (each JavaAdapter, each compiled script).
+     * Returning the same loader for the same parent lets those classes be dexed in batches and shared
+     * by all engines, instead of running dx and loading a dex file for each class.
      *
-     * @param parent the parent of the create classloader
-     * @return a new ClassLoader
+     * @param parent the parent of the classloader
+     * @return the shared ClassLoader for the parent
      */
     @Override
     protected AndroidClassLoader createClassLoader(ClassLoader parent) {
-        return new AndroidClassLoader(parent, cacheDirectory);
+        if (parent instanceof AndroidClassLoader) {
+            // already able to define classes that see everything the parent sees
+            return (AndroidClassLoader) parent;
+        }
+        synchronized (classLoaders) {
+            AndroidClassLoader loader = classLoaders.get(parent);
+            if (loader == null) {
+                loader = new AndroidClassLoader(parent, cacheDirectory, dexer);
+                classLoaders.put(parent, loader);
+            }
+            return loader;
+        }
     }
 
     @Override
@@ -0,0 +1,211 @@
+package com.stardust.autojs.rhino;
+
+import com.android.dx.command.dexer.Main;
+import com.stardust.util.HashUtils;
+
+import net.lingala.zip4j.core.ZipFile;
+import net.lingala.zip4j.exception.ZipException;
+import net.lingala.zip4j.model.ZipParameters;
+
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.optimizer.ClassCompiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import dalvik.system.DexFile;
+
+/**
+ * Created by Stardust on 2017/10/29.
+ * <p>
+ * 把脚本编译为Java字节码并转换为dex，结果按内容的哈希缓存在磁盘上。
+ * 同一版本的脚本只在第一次运行时编译和dex，之后直接加载缓存的dex，不再经过{@link AndroidClassLoader}。
+ * <p>
+ * 编译按脚本的哈希加锁：同一个脚本只编译一次，不同脚本可以同时编译。
+ */
+public class DexScriptCompiler {
+
+    private static final String CLASS_NAME_PREFIX = "com.stardust.autojs.gen.Script_";
+    private static final String FILE_PREFIX = "script-";
+    private static final int MAX_CACHED_SCRIPTS = 64;
+
+    private static class CompileLock {
+        // 由mCompileLocks保护
+        int users;
+    }
+
+    private final File mCacheDir;
+    private final ClassLoader mClassLoader;
+    // 同一个dex在进程中只加载一次。按访问顺序排列，与磁盘缓存保留同样数量的脚本
+    private final Map<String, Class<?>> mLoadedClasses = new LinkedHashMap<String, Class<?>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Class<?>> eldest) {
+            return size() > MAX_CACHED_SCRIPTS;
+        }
+    };
+    private final Map<String, CompileLock> mCompileLocks = new HashMap<>();
+
+    public DexScriptCompiler(File cacheDir, ClassLoader classLoader) {
+        mCacheDir = cacheDir;
+        mClassLoader = classLoader;
+        cacheDir.mkdirs();
+    }
+
+    public Script compile(Context cx, String source, String sourceName, int optimizationLevel) {
+        String hash = HashUtils.md5Hex(optimizationLevel + "|" + cx.getLanguageVersion() + "|" + sourceName + "|" + source);
+        try {
+            Class<?> scriptClass = getLoadedClass(hash);
+            if (scriptClass == null) {
+                CompileLock lock = acquireLock(hash);
+                try {
+                    synchronized (lock) {
+                        // 等待锁期间可能已经由其他线程加载
+                        scriptClass = getLoadedClass(hash);
+                        if (scriptClass == null) {
+                            scriptClass = compileAndLoad(cx, source, sourceName, optimizationLevel, hash);
+                            synchronized (mLoadedClasses) {
+                                mLoadedClasses.put(hash, scriptClass);
+                            }
+                        }
+                    }
+                } finally {
+                    releaseLock(hash, lock);
+                }
+            }
+            return (Script) scriptClass.newInstance();
+        } catch (IOException | ZipException | ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+            throw new AndroidClassLoader.FatalLoadingException(e);
+        }
+    }
+
+    private Class<?> getLoadedClass(String hash) {
+        synchronized (mLoadedClasses) {
+            return mLoadedClasses.get(hash);
+        }
+    }
+
+    private CompileLock acquireLock(String hash) {
+        synchronized (mCompileLocks) {
+            CompileLock lock = mCompileLocks.get(hash);
+            if (lock == null) {
+                lock = new CompileLock();
+                mCompileLocks.put(hash, lock);
+            }
+            lock.users++;
+            return lock;
+        }
+    }
+
+    private void releaseLock(String hash, CompileLock lock) {
+        synchronized (mCompileLocks) {
+            if (--lock.users == 0) {
+                mCompileLocks.remove(hash);
+            }
+        }
+    }
+
+    private Class<?> compileAndLoad(Context cx, String source, String sourceName, int optimizationLevel, String hash)
+            throws IOException, ZipException, ClassNotFoundException {
+        String className = CLASS_NAME_PREFIX + hash;
+        File dex = new File(mCacheDir, FILE_PREFIX + hash + ".jar");
+        if (!dex.exists()) {
+            generateDex(cx, source, sourceName, optimizationLevel, className, dex);
+            trimCache();
+        } else {
+            dex.setLastModified(System.currentTimeMillis());
+        }
+        return loadClass(dex, new File(mCacheDir, FILE_PREFIX + hash + ".odex"), className);
+    }
+
+    private void generateDex(Context cx, String source, String sourceName, int optimizationLevel, String className, File dex) throws IOException, ZipException {
+        CompilerEnvirons environs = new CompilerEnvirons();
+        environs.initFromContext(cx);
+        environs.setOptimizationLevel(optimizationLevel);
+        Object[] classes = new ClassCompiler(environs).compileToClassFiles(source, sourceName, 1, className);
+        File classFile = new File(mCacheDir, dex.getName() + ".class.tmp");
+        File tmpDex = new File(mCacheDir, dex.getName() + ".tmp");
+        // 上次中途失败可能留下了临时文件
+        classFile.delete();
+        try {
+            ZipFile zipFile = new ZipFile(classFile);
+            for (int i = 0; i < classes.length; i += 2) {
+                ZipParameters parameters = new ZipParameters();
+                parameters.setFileNameInZip(((String) classes[i]).replace('.', '/') + ".class");
+                parameters.setSourceExternalStream(true);
+                zipFile.addStream(new ByteArrayInputStream((byte[]) classes[i + 1]), parameters);
+            }
+            Main.Arguments arguments = new Main.Arguments();
+            arguments.fileNames = new String[]{classFile.getPath()};
+            arguments.outName = tmpDex.getPath();
+            arguments.jarOutput = true;
+            int result = Main.run(arguments);
+            if (result != 0 || !tmpDex.exists()) {
+                throw new IOException("dx failed with code " + result + " for script " + sourceName);
+            }
+            // 先写到临时文件再重命名，进程中途被杀死也不会留下不完整的缓存
+            if (!tmpDex.renameTo(dex)) {
+                throw new IOException("cannot rename " + tmpDex + " to " + dex);
+            }
+        } finally {
+            classFile.delete();
+            tmpDex.delete();
+        }
+    }
+
+    private Class<?> loadClass(File dex, File odex, String className) throws IOException, ClassNotFoundException {
+        DexFile dexFile = DexFile.loadDex(dex.getPath(), odex.getPath(), 0);
+        Class<?> scriptClass = dexFile.loadClass(className, mClassLoader);
+        if (scriptClass == null) {
+            throw new ClassNotFoundException(className);
+        }
+        return scriptClass;
+    }
+
+    /**
+     * 只保留最近使用的若干个脚本的dex，旧版本的脚本不会再被用到。被删除的脚本也从已加载的类中移除
+     */
+    private synchronized void trimCache() {
+        File[] files = mCacheDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().startsWith(FILE_PREFIX) && file.getName().endsWith(".jar");
+            }
+        });
+        if (files == null || files.length <= MAX_CACHED_SCRIPTS) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                long l1 = o1.lastModified(), l2 = o2.lastModified();
+                return l1 < l2 ? -1 : (l1 == l2 ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length - MAX_CACHED_SCRIPTS; i++) {
+            String name = files[i].getName();
+            String baseName = name.substring(0, name.length() - ".jar".length());
+            String hash = baseName.substring(FILE_PREFIX.length());
+            synchronized (mCompileLocks) {
+                // 其他线程正在加载这个脚本
+                if (mCompileLocks.containsKey(hash)) {
+                    continue;
+                }
+            }
+            files[i].delete();
+            new File(mCacheDir, baseName + ".odex").delete();
+            synchronized (mLoadedClasses) {
+                mLoadedClasses.remove(hash);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.stardust.autojs.rhino;
+
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.ClassCache;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ImporterTopLevel;
+import org.mozilla.javascript.JavaAdapter;
+import org.mozilla.javascript.NativeJavaClass;
+import org.mozilla.javascript.NativeJavaPackage;
+import org.mozilla.javascript.NativeJavaTopPackage;
+import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.TopLevel;
+import org.mozilla.javascript.Undefined;
+
+/**
+ * Created by Stardust on 2017/10/29.
+ * <p>
+ * 以一个共享的顶层作用域为原型的顶层作用域。共享作用域由{@link #createSharedScope(Context)}创建，
+ * 其中只有Java包树(Packages, java, android等和getClass)，包和其中已加载的类在每个进程中只创建一次；
+ * 脚本写入的全局变量只写到自己身上(写时复制)，不会影响其他引擎。
+ * <p>
+ * Object、Array等JS标准对象以及JavaAdapter、JavaImporter每个作用域各有一份且不封存，
+ * 脚本可以像以前一样修改它们的原型(如polyfill)。它们是延迟加载的，只有用到时才会创建。
+ * <p>
+ * 标准库中的importClass/importPackage会把类导入到共享作用域本身，因此这里提供自己的实现，
+ * 导入的类和包只对当前作用域可见。与ImporterTopLevel一样，导入的包在普通全局变量之后才被查找。
+ */
+public class InheritedTopLevel extends TopLevel {
+
+    // 只用来保存导入的包并在其中查找类，本身没有任何属性
+    private final ImporterTopLevel mImporter = new ImporterTopLevel();
+    private volatile boolean mHasImportedPackages = false;
+
+    public InheritedTopLevel(Context cx, Scriptable sharedScope) {
+        setPrototype(sharedScope);
+        setParentScope(null);
+        cx.initSafeStandardObjects(this, false);
+        JavaAdapter.init(cx, this, false);
+        ImporterTopLevel.init(cx, this, false);
+        cacheBuiltins();
+        defineProperty("importClass", new BaseFunction(this, ScriptableObject.getFunctionPrototype(this)) {
+            @Override
+            public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+                for (Object arg : args) {
+                    if (!(arg instanceof NativeJavaClass)) {
+                        throw Context.reportRuntimeError(ScriptRuntime.getMessage1("msg.not.class", Context.toString(arg)));
+                    }
+                    importClass((NativeJavaClass) arg);
+                }
+                return Undefined.instance;
+            }
+        }, DONTENUM);
+        defineProperty("importPackage", new BaseFunction(this, ScriptableObject.getFunctionPrototype(this)) {
+            @Override
+            public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+                for (Object arg : args) {
+                    if (!(arg instanceof NativeJavaPackage)) {
+                        throw Context.reportRuntimeError(ScriptRuntime.getMessage1("msg.not.pkg", Context.toString(arg)));
+                    }
+                    importPackage((NativeJavaPackage) arg);
+                }
+                return Undefined.instance;
+            }
+        }, DONTENUM);
+    }
+
+    /**
+     * 创建所有作用域共享的顶层作用域。其中只有Java包树，没有JS标准对象。
+     * getClass已封存，包对象在第一次访问时缓存其中的子包和类，这一过程是同步的，可以被多个线程同时使用。
+     */
+    public static Scriptable createSharedScope(Context cx) {
+        TopLevel scope = new TopLevel();
+        // 包中的类在这个作用域中反射，成员缓存也放在这里
+        new ClassCache().associate(scope);
+        NativeJavaTopPackage.init(cx, scope, true);
+        scope.sealObject();
+        return scope;
+    }
+
+    @Override
+    public String getClassName() {
+        return "global";
+    }
+
+    public void importClass(NativeJavaClass cl) {
+        String name = cl.getClassObject().getName();
+        String simpleName = name.substring(name.lastIndexOf('.') + 1);
+        Object value = super.get(simpleName, this);
+        if (value != NOT_FOUND && value != cl) {
+            throw Context.reportRuntimeError(ScriptRuntime.getMessage1("msg.prop.defined", simpleName));
+        }
+        put(simpleName, this, cl);
+    }
+
+    public void importPackage(NativeJavaPackage pkg) {
+        mImporter.importPackage(Context.getCurrentContext(), mImporter, new Object[]{pkg}, null);
+        mHasImportedPackages = true;
+    }
+
+    @Override
+    public boolean has(String name, Scriptable start) {
+        return super.has(name, start) || getPackageProperty(name, start) != NOT_FOUND;
+    }
+
+    @Override
+    public Object get(String name, Scriptable start) {
+        Object result = super.get(name, start);
+        if (result != NOT_FOUND) {
+            return result;
+        }
+        return getPackageProperty(name, start);
+    }
+
+    private Object getPackageProperty(String name, Scriptable start) {
+        if (!mHasImportedPackages) {
+            return NOT_FOUND;
+        }
+        // 共享作用域中的Java包(如java)优先于导入的包中的同名类，标准对象在自己身上，已经被super.get找到
+        if (ScriptableObject.hasProperty(getPrototype(), name)) {
+            return NOT_FOUND;
+        }
+        return mImporter.get(name, start);
+    }
+
+}
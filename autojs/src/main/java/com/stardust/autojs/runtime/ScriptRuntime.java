@@ -8,6 +8,7 @@ import com.stardust.autojs.R;
 import com.stardust.autojs.ScriptEngineService;
 import com.stardust.autojs.annotation.ScriptVariable;
 import com.stardust.autojs.core.accessibility.AccessibilityBridge;
+import com.stardust.autojs.core.console.StardustConsole;
 import com.stardust.autojs.engine.ScriptEngine;
 import com.stardust.autojs.rhino.AndroidClassLoader;
 import com.stardust.autojs.runtime.api.AbstractShell;
@@ -324,6 +325,9 @@ public class ScriptRuntime {
         if (loopers != null) {
             loopers.quitAll();
         }
+        if (console instanceof StardustConsole) {
+            ((StardustConsole) console).closeLogFile();
+        }
     }
 
     public Object getImages() {
@@ -7,6 +7,7 @@ package com.stardust.autojs.runtime.accessibility;
 public class AutomatorConfig {
 
     private static boolean isUnintendedGuardEnabled = false;
+    private static long findFallbackPollInterval = 500;
 
 
     public static boolean isUnintendedGuardEnabled() {
@@ -16,4 +17,15 @@ public class AutomatorConfig {
     public static void setIsUnintendedGuardEnabled(boolean isUnintendedGuardEnabled) {
         AutomatorConfig.isUnintendedGuardEnabled = isUnintendedGuardEnabled;
     }
+
+    /**
+     * 等待控件出现时, 即使没有收到窗口变化的事件, 每隔这么长时间(毫秒)也会重新查找一次。
+     */
+    public static long getFindFallbackPollInterval() {
+        return findFallbackPollInterval;
+    }
+
+    public static void setFindFallbackPollInterval(long findFallbackPollInterval) {
+        AutomatorConfig.findFallbackPollInterval = findFallbackPollInterval;
+    }
 }
@@ -165,6 +165,9 @@ public class Events extends EventEmitter implements OnKeyListener, TouchObserver
         if (mListeningNotification) {
             mAccessibilityBridge.getNotificationObserver().removeListener(this);
         }
+        if (mHandler != null) {
+            mHandler.removeCallbacksAndMessages(null);
+        }
     }
 
     @Override
@@ -1,82 +1,64 @@
 package com.stardust.autojs.runtime.api;
 
+import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.MessageQueue;
 
-import com.stardust.autojs.runtime.exception.ScriptInterruptedException;
-import com.stardust.lang.ThreadCompat;
-
-import java.lang.reflect.Field;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by Stardust on 2017/7/29.
+ * <p>
+ * 脚本线程的Looper空闲(没有待执行的定时器且不需要等待事件)时被quit。quit后的Looper不能再使用，
+ * 用过Looper的线程不能再执行其他脚本(见{@link #isPrepared()})。
  */
 
 public class Loopers {
 
     public volatile boolean waitWhenIdle = false;
-    private volatile Looper mServantLooper;
     private static volatile ConcurrentHashMap<Thread, Looper> sLoopers = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Boolean> sPrepared = new ThreadLocal<>();
+    private static HandlerThread sServantThread;
     private Timers mTimers;
+    private final MessageQueue mQueue;
+    private final MessageQueue.IdleHandler mIdleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            Looper l = Looper.myLooper();
+            if (l != null && shouldQuitLooper())
+                l.quit();
+            return true;
+        }
+    };
 
     public Loopers(Timers timers) {
         mTimers = timers;
         if (Looper.myLooper() == Looper.getMainLooper()) {
             waitWhenIdle = true;
         }
-        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
-            @Override
-            public boolean queueIdle() {
-                Looper l = Looper.myLooper();
-                if (l != null && shouldQuitLooper())
-                    l.quit();
-                return true;
-            }
-        });
+        mQueue = Looper.myQueue();
+        mQueue.addIdleHandler(mIdleHandler);
     }
 
     private boolean shouldQuitLooper() {
-        if (mTimers.hasPendingCallback()) {
+        if (mTimers.getPendingCount() > 0) {
             return false;
         }
         return !waitWhenIdle;
     }
 
 
-    private void initServantThread() {
-        new ThreadCompat(new Runnable() {
-            @Override
-            public void run() {
-                Looper.prepare();
-                final Object lock = Loopers.this;
-                mServantLooper = Looper.myLooper();
-                synchronized (lock) {
-                    lock.notifyAll();
-                }
-                Looper.loop();
-            }
-        }).start();
-    }
-
+    /**
+     * 用于接收截图、手势等回调的Looper。所有脚本共用一个线程，而不是每个脚本各创建一个
+     */
     public Looper getServantLooper() {
-        if (mServantLooper == null) {
-            initServantThread();
-            synchronized (this) {
-                try {
-                    this.wait();
-                } catch (InterruptedException e) {
-                    throw new ScriptInterruptedException();
-                }
+        synchronized (Loopers.class) {
+            if (sServantThread == null) {
+                sServantThread = new HandlerThread("ScriptServant");
+                sServantThread.start();
             }
+            return sServantThread.getLooper();
         }
-        return mServantLooper;
-    }
-
-    public void quitServantLooper() {
-        if (mServantLooper == null)
-            return;
-        mServantLooper.quit();
     }
 
     public void waitWhenIdle(boolean b) {
@@ -84,7 +66,9 @@ public class Loopers {
     }
 
     public void quitAll() {
-        quitServantLooper();
+        // 共用的servant线程不随脚本退出
+        mQueue.removeIdleHandler(mIdleHandler);
+        mTimers.recycle();
     }
 
     public static void prepare() {
@@ -95,9 +79,22 @@ public class Loopers {
         Looper l = Looper.myLooper();
         if (l != null)
             sLoopers.put(Thread.currentThread(), l);
+        sPrepared.set(true);
+    }
+
+    /**
+     * 当前线程是否调用过{@link #prepare()}。脚本结束后它的Looper已经或即将被quit，
+     * 其中可能还留有脚本的消息，执行脚本的工作线程据此决定是否退出而不是执行下一个脚本
+     */
+    public static boolean isPrepared() {
+        return sPrepared.get() != null;
     }
 
     public static void quitForThread(Thread thread) {
+        if (thread == null) {
+            // 引擎还没有初始化过
+            return;
+        }
         Looper looper = sLoopers.remove(thread);
         if (looper != null)
             looper.quit();
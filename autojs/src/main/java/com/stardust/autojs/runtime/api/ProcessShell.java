@@ -3,14 +3,12 @@ package com.stardust.autojs.runtime.api;
 
 import android.util.Log;
 
-import com.stardust.autojs.runtime.exception.ScriptInterruptedException;
 import com.stardust.autojs.util.ProcessUtils;
 import com.stardust.pio.UncheckedIOException;
 
 import java.io.BufferedReader;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.Reader;
@@ -158,11 +156,19 @@ public class ProcessShell extends AbstractShell {
     }
 
     public static Result exec(String[] commands, boolean isRoot) {
+        return ShellSessionPool.getInstance(isRoot).exec(commands);
+    }
+
+    /**
+     * 在新启动的shell中执行命令，不经过{@link ShellSessionPool}。
+     * 用于kill、停止脚本等命令，它们不能因为池中的会话都在执行长时间的命令而等待。
+     */
+    public static Result execInNewShell(String command, boolean isRoot) {
         ProcessShell shell = null;
         try {
             shell = new ProcessShell(isRoot);
-            for (String command : commands) {
-                shell.exec(command);
+            for (String c : command.split("\n")) {
+                shell.exec(c);
             }
             shell.exec(COMMAND_EXIT);
             Result result = new Result();
@@ -170,7 +176,6 @@ public class ProcessShell extends AbstractShell {
             shell.readAll();
             result.error = shell.getErrorOutput().toString();
             result.result = shell.getSucceedOutput().toString();
-            shell.exit();
             return result;
         } finally {
             if (shell != null) {
@@ -179,58 +184,19 @@ public class ProcessShell extends AbstractShell {
         }
     }
 
+    /**
+     * 在复用的shell会话中执行命令，见{@link ShellSessionPool}。与以前一样，结果中的各行直接拼接，不含换行。
+     */
     public static Result execCommand(String[] commands, boolean isRoot) {
-        Result commandResult = new Result();
         if (commands == null || commands.length == 0)
             throw new IllegalArgumentException("command is empty");
-        Process process = null;
-        DataOutputStream os = null;
-        try {
-            process = Runtime.getRuntime().exec(isRoot ? COMMAND_SU : COMMAND_SH);
-            os = new DataOutputStream(process.getOutputStream());
-            for (String command : commands) {
-                if (command != null) {
-                    os.write(command.getBytes());
-                    os.writeBytes(COMMAND_LINE_END);
-                    os.flush();
-                }
-            }
-            os.writeBytes(COMMAND_EXIT);
-            os.flush();
-            Log.d(TAG, "pid = " + ProcessUtils.getProcessPid(process));
-            commandResult.code = process.waitFor();
-            commandResult.result = readAll(process.getInputStream());
-            commandResult.error = readAll(process.getErrorStream());
-            Log.d(TAG, commandResult.toString());
-        } catch (Exception e) {
-            throw new ScriptInterruptedException(e);
-        } finally {
-            try {
-                if (os != null) os.close();
-                if (process != null) {
-                    process.getInputStream().close();
-                    process.getOutputStream().close();
-                }
-            } catch (IOException ignored) {
-
-            }
-            if (process != null) {
-                process.destroy();
-            }
-        }
+        Result commandResult = ShellSessionPool.getInstance(isRoot).exec(commands);
+        commandResult.result = commandResult.result.replace("\n", "");
+        commandResult.error = commandResult.error.replace("\n", "");
+        Log.d(TAG, commandResult.toString());
         return commandResult;
     }
 
-    private static String readAll(InputStream inputStream) throws IOException {
-        String line;
-        StringBuilder builder = new StringBuilder();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-        while ((line = reader.readLine()) != null) {
-            builder.append(line);
-        }
-        return builder.toString();
-    }
-
     public static Result execCommand(String command, boolean isRoot) {
         String[] commands = command.split("\n");
         return execCommand(commands, isRoot);
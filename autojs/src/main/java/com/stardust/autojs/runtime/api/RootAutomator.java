@@ -1,19 +1,22 @@
 package com.stardust.autojs.runtime.api;
 
 import android.content.Context;
-import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.view.ViewConfiguration;
 
 import com.stardust.autojs.core.inputevent.InputDevices;
+import com.stardust.autojs.core.inputevent.TouchGesture;
 import com.stardust.autojs.engine.RootAutomatorEngine;
 import com.stardust.autojs.runtime.exception.ScriptInterruptedException;
 import com.stardust.util.ScreenMetrics;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
 
 import static com.stardust.autojs.core.inputevent.InputEventCodes.ABS_MT_POSITION_X;
 import static com.stardust.autojs.core.inputevent.InputEventCodes.ABS_MT_POSITION_Y;
+import static com.stardust.autojs.core.inputevent.InputEventCodes.ABS_MT_SLOT;
 import static com.stardust.autojs.core.inputevent.InputEventCodes.ABS_MT_TOUCH_MAJOR;
 import static com.stardust.autojs.core.inputevent.InputEventCodes.ABS_MT_TRACKING_ID;
 import static com.stardust.autojs.core.inputevent.InputEventCodes.BTN_TOOL_FINGER;
@@ -26,6 +29,9 @@ import static com.stardust.autojs.core.inputevent.InputEventCodes.SYN_REPORT;
 
 /**
  * Created by Stardust on 2017/7/16.
+ * <p>
+ * 事件按帧缓冲，直到SYN_REPORT时才一次性写入root_automator。内核本来就在SYN_REPORT时才把一帧事件交给读取者，
+ * 因此缓冲不会改变事件被处理的时机，但一次按下只需要一次写入和一次flush。
  */
 
 public class RootAutomator {
@@ -38,22 +44,39 @@ public class RootAutomator {
     public static final byte DATA_TYPE_EVENT_TOUCH_X = 3;
     public static final byte DATA_TYPE_EVENT_TOUCH_Y = 4;
 
+    public static final int DEFAULT_REPORT_RATE = 120;
+
     @Nullable
     private ScreenMetrics mScreenMetrics;
     private AbstractShell mShell;
     private int mDefaultId = 1;
+    private int mReportRate = DEFAULT_REPORT_RATE;
+    private final StringBuilder mFrame = new StringBuilder(128);
 
     public RootAutomator(Context context) {
         mShell = new ProcessShell(true);
         String path = RootAutomatorEngine.getExecutablePath(context);
         String deviceNameOrPath = RootAutomatorEngine.getDeviceNameOrPath(context, InputDevices.getTouchDeviceName());
-        mShell.exec("chmod 777 " + path);
         mShell.exec(path + " -d " + deviceNameOrPath);
     }
 
 
     public void sendEvent(int type, int code, int value) throws IOException {
-        mShell.exec(type + " " + code + " " + value);
+        mFrame.append(type).append(' ').append(code).append(' ').append(value).append('\n');
+        if (type == EV_SYN && code == SYN_REPORT) {
+            flush();
+        }
+    }
+
+    /**
+     * 立即写入缓冲中还没有SYN_REPORT的事件
+     */
+    public void flush() throws IOException {
+        if (mFrame.length() == 0) {
+            return;
+        }
+        mShell.exec(mFrame.toString());
+        mFrame.setLength(0);
     }
 
     public void touch(int x, int y) throws IOException {
@@ -69,7 +92,7 @@ public class RootAutomator {
     }
 
     public void touchX(int x) throws IOException {
-        sendEvent(3, 53, scaleX(x));
+        sendEvent(EV_ABS, ABS_MT_POSITION_X, scaleX(x));
     }
 
     private int scaleX(int x) {
@@ -79,7 +102,7 @@ public class RootAutomator {
     }
 
     public void touchY(int y) throws IOException {
-        sendEvent(3, 54, scaleY(y));
+        sendEvent(EV_ABS, ABS_MT_POSITION_Y, scaleY(y));
     }
 
     public void sendSync() throws IOException {
@@ -107,17 +130,7 @@ public class RootAutomator {
     }
 
     public void swipe(int x1, int y1, int x2, int y2, int duration, int id) throws IOException {
-        long now = SystemClock.uptimeMillis();
-        touchDown(x1, y1, id);
-        long startTime = now;
-        long endTime = startTime + duration;
-        while (now < endTime) {
-            long elapsedTime = now - startTime;
-            float alpha = (float) elapsedTime / duration;
-            touchMove((int) lerp(x1, x2, alpha), (int) lerp(y1, y2, alpha), id);
-            now = SystemClock.uptimeMillis();
-        }
-        touchUp(id);
+        gestures(new TouchGesture.Stroke(id, 0, duration).moveTo(x1, y1).lineTo(x2, y2));
     }
 
     public void swipe(int x1, int y1, int x2, int y2, int duration) throws IOException {
@@ -128,6 +141,78 @@ public class RootAutomator {
         swipe(x1, y1, x2, y2, 300, mDefaultId);
     }
 
+    /**
+     * 单指手势，手指在duration内依次经过points中的各点
+     */
+    public void gesture(long start, long duration, int[]... points) throws IOException {
+        TouchGesture.Stroke stroke = new TouchGesture.Stroke(mDefaultId, start, duration);
+        stroke.moveTo(points[0][0], points[0][1]);
+        for (int i = 1; i < points.length; i++) {
+            stroke.lineTo(points[i][0], points[i][1]);
+        }
+        gestures(stroke);
+    }
+
+    /**
+     * 多指手势。整个手势先按报点率计算出所有帧，再按时间回放，每一帧只发送一个SYN_REPORT
+     */
+    public void gestures(TouchGesture.Stroke... strokes) throws IOException {
+        List<TouchGesture.Frame> frames = TouchGesture.plan(mReportRate, strokes);
+        boolean multiTouch = strokes.length > 1;
+        int activeContacts = 0;
+        long startTime = System.nanoTime();
+        for (TouchGesture.Frame frame : frames) {
+            sleepUntil(startTime + frame.getTimeNanos());
+            for (int i = 0; i < frame.getContactCount(); i++) {
+                int slot = frame.getStrokeIndex(i);
+                int id = strokes[slot].getId();
+                if (multiTouch) {
+                    sendEvent(EV_ABS, ABS_MT_SLOT, slot);
+                }
+                switch (frame.getAction(i)) {
+                    case TouchGesture.ACTION_DOWN:
+                        sendEvent(EV_ABS, ABS_MT_TRACKING_ID, id);
+                        if (activeContacts++ == 0) {
+                            sendEvent(EV_KEY, BTN_TOUCH, 0x00000001);
+                            sendEvent(EV_KEY, BTN_TOOL_FINGER, 0x00000001);
+                        }
+                        sendEvent(EV_ABS, ABS_MT_POSITION_X, scaleX(frame.getX(i)));
+                        sendEvent(EV_ABS, ABS_MT_POSITION_Y, scaleY(frame.getY(i)));
+                        sendEvent(EV_ABS, ABS_MT_TOUCH_MAJOR, 5);
+                        break;
+                    case TouchGesture.ACTION_MOVE:
+                        sendEvent(EV_ABS, ABS_MT_TRACKING_ID, id);
+                        sendEvent(EV_ABS, ABS_MT_POSITION_X, scaleX(frame.getX(i)));
+                        sendEvent(EV_ABS, ABS_MT_POSITION_Y, scaleY(frame.getY(i)));
+                        break;
+                    case TouchGesture.ACTION_UP:
+                        // 多点触控协议B中抬起由tracking id为-1表示
+                        sendEvent(EV_ABS, ABS_MT_TRACKING_ID, multiTouch ? -1 : id);
+                        if (--activeContacts == 0) {
+                            sendEvent(EV_KEY, BTN_TOUCH, 0x00000000);
+                            sendEvent(EV_KEY, BTN_TOOL_FINGER, 0x00000000);
+                        }
+                        break;
+                }
+            }
+            sendSync();
+        }
+    }
+
+    public int getReportRate() {
+        return mReportRate;
+    }
+
+    /**
+     * @param reportRate 手势的报点率(Hz)
+     */
+    public void setReportRate(int reportRate) {
+        if (reportRate <= 0) {
+            throw new IllegalArgumentException("reportRate = " + reportRate);
+        }
+        mReportRate = reportRate;
+    }
+
     public void press(int x, int y, int duration, int id) throws IOException {
         touchDown(x, y, id);
         sleep(duration);
@@ -199,12 +284,20 @@ public class RootAutomator {
         }
     }
 
-    private static float lerp(float a, float b, float alpha) {
-        return (b - a) * alpha + a;
+    private void sleepUntil(long nanoTime) throws IOException {
+        long remaining;
+        while ((remaining = nanoTime - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                exit();
+                throw new ScriptInterruptedException();
+            }
+        }
     }
 
     public void exit() throws IOException {
         sendEvent(0xffff, 0xffff, 0xefefefef);
+        flush();
         mShell.exec("exit");
         mShell.exec("exit");
         mShell.exec("exit");
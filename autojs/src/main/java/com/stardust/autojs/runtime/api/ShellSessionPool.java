@@ -0,0 +1,393 @@
+package com.stardust.autojs.runtime.api;
+
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.stardust.autojs.runtime.exception.ScriptInterruptedException;
+import com.stardust.pio.UncheckedIOException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by Stardust on 2017/11/1.
+ * <p>
+ * 复用长期运行的sh/su进程来执行短命令，避免每次都启动一个新的su(通常需要几百毫秒)。
+ * <p>
+ * 每次执行的命令在一个子shell中运行，与每次启动新的shell一样不会留下cd、export等状态。
+ * 命令后面会输出一个唯一的结束标记和命令的返回值，据此在stdout和stderr中分隔出每次执行的输出。
+ * 同时执行的命令数不超过maxSessions，超过时等待；等待超过{@link #ACQUIRE_TIMEOUT}时改用一个不属于池的临时会话，
+ * 因此池中的会话都在执行长时间的命令时不会无限等待。在主线程上则不等待，直接使用临时会话。
+ * 命令执行中线程被中断、或者命令导致shell退出时，该会话会被销毁。
+ * 复用会话前先执行一个只输出结束标记的探测命令，没有及时得到完全一致的输出(如shell卡住，或者上一个命令留下的后台进程还在输出)
+ * 时销毁该会话。空闲超过keepAlive的会话在下次使用时关闭。
+ */
+public class ShellSessionPool {
+
+    private static final String LOG_TAG = "ShellSessionPool";
+    private static final String MARKER_PREFIX = "__SHELL_SESSION_END_";
+    private static final int DEFAULT_MAX_SESSIONS = 4;
+    private static final long DEFAULT_KEEP_ALIVE = 60 * 1000;
+    private static final long ACQUIRE_TIMEOUT = 1000;
+    private static final long PROBE_TIMEOUT = 500;
+
+    private static ShellSessionPool sRootPool;
+    private static ShellSessionPool sPool;
+
+    private final String mShell;
+    private final int mMaxSessions;
+    private final long mKeepAlive;
+    private final AtomicLong mSequence = new AtomicLong();
+    // 以下字段由mIdleSessions保护
+    private final Deque<Session> mIdleSessions = new ArrayDeque<>();
+    private int mSessionCount = 0;
+
+    public ShellSessionPool(String shell, int maxSessions, long keepAlive) {
+        if (maxSessions <= 0) {
+            throw new IllegalArgumentException("maxSessions = " + maxSessions);
+        }
+        mShell = shell;
+        mMaxSessions = maxSessions;
+        mKeepAlive = keepAlive;
+    }
+
+    public static synchronized ShellSessionPool getInstance(boolean root) {
+        if (root) {
+            if (sRootPool == null) {
+                sRootPool = new ShellSessionPool(AbstractShell.COMMAND_SU, DEFAULT_MAX_SESSIONS, DEFAULT_KEEP_ALIVE);
+            }
+            return sRootPool;
+        }
+        if (sPool == null) {
+            sPool = new ShellSessionPool(AbstractShell.COMMAND_SH, DEFAULT_MAX_SESSIONS, DEFAULT_KEEP_ALIVE);
+        }
+        return sPool;
+    }
+
+    /**
+     * 在一个会话中依次执行commands，返回值为最后一个命令的返回值。
+     * stdout和stderr中的每一行都以换行结尾。
+     */
+    public AbstractShell.Result exec(String[] commands) {
+        Session session = acquire();
+        boolean reusable = false;
+        try {
+            AbstractShell.Result result = session.exec(commands, nextMarker());
+            reusable = session.isAlive();
+            return result;
+        } finally {
+            release(session, reusable);
+        }
+    }
+
+    private String nextMarker() {
+        return MARKER_PREFIX + mSequence.incrementAndGet() + "_" + SystemClock.uptimeMillis();
+    }
+
+    private Session acquire() {
+        while (true) {
+            Session session = acquireSession();
+            if (!session.mUsed || session.probe(nextMarker(), PROBE_TIMEOUT)) {
+                session.mUsed = true;
+                return session;
+            }
+            Log.w(LOG_TAG, "session does not respond to probe, destroy it");
+            release(session, false);
+        }
+    }
+
+    private Session acquireSession() {
+        boolean pooled = true;
+        // 不阻塞主线程，池中没有空闲会话时直接使用临时会话
+        boolean wait = Looper.myLooper() != Looper.getMainLooper();
+        synchronized (mIdleSessions) {
+            closeExpiredSessions();
+            long deadline = SystemClock.uptimeMillis() + ACQUIRE_TIMEOUT;
+            while (true) {
+                Session session = mIdleSessions.pollLast();
+                if (session != null) {
+                    // 健康检查：shell可能已被系统或其他命令杀死
+                    if (session.isAlive()) {
+                        return session;
+                    }
+                    mSessionCount--;
+                    session.destroy();
+                    continue;
+                }
+                if (mSessionCount < mMaxSessions) {
+                    mSessionCount++;
+                    break;
+                }
+                long remaining = deadline - SystemClock.uptimeMillis();
+                if (!wait || remaining <= 0) {
+                    Log.w(LOG_TAG, "all " + mMaxSessions + " sessions are busy, use a temporary session");
+                    pooled = false;
+                    break;
+                }
+                try {
+                    mIdleSessions.wait(remaining);
+                } catch (InterruptedException e) {
+                    throw new ScriptInterruptedException(e);
+                }
+            }
+        }
+        if (!pooled) {
+            return new Session(mShell, false);
+        }
+        try {
+            return new Session(mShell, true);
+        } catch (RuntimeException e) {
+            synchronized (mIdleSessions) {
+                mSessionCount--;
+                mIdleSessions.notify();
+            }
+            throw e;
+        }
+    }
+
+    private void release(Session session, boolean reusable) {
+        if (!session.mPooled) {
+            session.destroy();
+            return;
+        }
+        synchronized (mIdleSessions) {
+            if (reusable) {
+                session.mLastUsedTime = SystemClock.uptimeMillis();
+                mIdleSessions.offerLast(session);
+            } else {
+                mSessionCount--;
+            }
+            mIdleSessions.notify();
+        }
+        if (!reusable) {
+            session.destroy();
+        }
+    }
+
+    /**
+     * 调用时需持有mIdleSessions的锁
+     */
+    private void closeExpiredSessions() {
+        long now = SystemClock.uptimeMillis();
+        Iterator<Session> iterator = mIdleSessions.iterator();
+        while (iterator.hasNext()) {
+            Session session = iterator.next();
+            if (now - session.mLastUsedTime > mKeepAlive) {
+                iterator.remove();
+                mSessionCount--;
+                session.destroy();
+            }
+        }
+    }
+
+    public void closeIdleSessions() {
+        synchronized (mIdleSessions) {
+            for (Session session : mIdleSessions) {
+                mSessionCount--;
+                session.destroy();
+            }
+            mIdleSessions.clear();
+        }
+    }
+
+    public int getSessionCount() {
+        synchronized (mIdleSessions) {
+            return mSessionCount;
+        }
+    }
+
+    private static class Session {
+
+        private final Process mProcess;
+        private final OutputStream mOutputStream;
+        // 临时会话不计入mSessionCount，用完即销毁
+        private final boolean mPooled;
+        private long mLastUsedTime;
+        // 执行过命令的会话在复用前需要探测
+        private boolean mUsed;
+        // 以下字段由this保护
+        private String mMarker;
+        private StringBuilder mOutput;
+        private StringBuilder mError;
+        private boolean mOutputEnded;
+        private boolean mErrorEnded;
+        private int mCode = -1;
+        private boolean mDead = false;
+
+        Session(String shell, boolean pooled) {
+            mPooled = pooled;
+            try {
+                mProcess = new ProcessBuilder(shell).start();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            mOutputStream = mProcess.getOutputStream();
+            startReader(mProcess.getInputStream(), true);
+            startReader(mProcess.getErrorStream(), false);
+        }
+
+        private void startReader(final InputStream inputStream, final boolean stdout) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+                    try {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            onLine(line, stdout);
+                        }
+                    } catch (IOException ignored) {
+
+                    }
+                    synchronized (Session.this) {
+                        mDead = true;
+                        Session.this.notifyAll();
+                    }
+                }
+            }, stdout ? "ShellSession-stdout" : "ShellSession-stderr");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private synchronized void onLine(String line, boolean stdout) {
+            if (mMarker == null) {
+                return;
+            }
+            StringBuilder sb = stdout ? mOutput : mError;
+            int i = line.indexOf(mMarker);
+            if (i < 0) {
+                sb.append(line).append('\n');
+                return;
+            }
+            // 命令的最后一行输出没有换行时，结束标记会接在这一行后面
+            if (i > 0) {
+                sb.append(line, 0, i).append('\n');
+            }
+            if (stdout) {
+                try {
+                    mCode = Integer.parseInt(line.substring(i + mMarker.length()).trim());
+                } catch (NumberFormatException ignored) {
+
+                }
+                mOutputEnded = true;
+            } else {
+                mErrorEnded = true;
+            }
+            notifyAll();
+        }
+
+        AbstractShell.Result exec(String[] commands, String marker) {
+            // 在子shell中执行，cd、export、set -e、umask等不会影响之后使用这个会话的命令
+            StringBuilder script = new StringBuilder("(\n");
+            for (String command : commands) {
+                if (command != null) {
+                    script.append(command).append('\n');
+                }
+            }
+            // 命令不能读取shell的stdin，否则会读走后面的命令
+            script.append(") </dev/null\n");
+            send(script, marker);
+            AbstractShell.Result result = new AbstractShell.Result();
+            synchronized (this) {
+                try {
+                    while (!(mOutputEnded && mErrorEnded) && !mDead) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    mDead = true;
+                    throw new ScriptInterruptedException(e);
+                }
+                result.result = mOutput.toString();
+                result.error = mError.toString();
+                result.code = mOutputEnded ? mCode : exitValue();
+                mMarker = null;
+            }
+            return result;
+        }
+
+        /**
+         * 执行一个空命令，检查是否在timeout内只得到结束标记
+         */
+        boolean probe(String marker, long timeout) {
+            try {
+                send(new StringBuilder("true\n"), marker);
+            } catch (UncheckedIOException e) {
+                return false;
+            }
+            synchronized (this) {
+                long deadline = SystemClock.uptimeMillis() + timeout;
+                try {
+                    while (!(mOutputEnded && mErrorEnded) && !mDead) {
+                        long remaining = deadline - SystemClock.uptimeMillis();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        wait(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    mDead = true;
+                    throw new ScriptInterruptedException(e);
+                }
+                boolean ok = mOutputEnded && mErrorEnded && mCode == 0 && mOutput.length() == 0 && mError.length() == 0;
+                mMarker = null;
+                return ok;
+            }
+        }
+
+        /**
+         * 写入script，并在其后输出结束标记和返回值
+         */
+        private void send(StringBuilder script, String marker) {
+            script.append("echo \"").append(marker).append(" $?\"\n")
+                    .append("echo \"").append(marker).append("\" >&2\n");
+            synchronized (this) {
+                mMarker = marker;
+                mOutput = new StringBuilder();
+                mError = new StringBuilder();
+                mOutputEnded = mErrorEnded = false;
+                mCode = -1;
+            }
+            try {
+                mOutputStream.write(script.toString().getBytes());
+                mOutputStream.flush();
+            } catch (IOException e) {
+                synchronized (this) {
+                    mDead = true;
+                }
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private int exitValue() {
+            try {
+                return mProcess.exitValue();
+            } catch (IllegalThreadStateException e) {
+                return -1;
+            }
+        }
+
+        synchronized boolean isAlive() {
+            if (mDead) {
+                return false;
+            }
+            try {
+                mProcess.exitValue();
+                return false;
+            } catch (IllegalThreadStateException e) {
+                return true;
+            }
+        }
+
+        void destroy() {
+            mProcess.destroy();
+        }
+    }
+}
@@ -2,46 +2,127 @@ package com.stardust.autojs.runtime.api;
 
 import android.os.Handler;
 import android.os.SystemClock;
-import android.util.SparseArray;
 
 import com.stardust.autojs.runtime.ScriptBridges;
 
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
 /**
  * Created by Stardust on 2017/7/21.
+ * <p>
+ * 所有定时器放在一个按触发时间排序的集合中，Looper中始终只有一个消息，并在唤醒时一次性执行所有已经到期的定时器。
+ * 每个定时器允许推迟一小段时间(与延时成比例，不超过{@link #mMaxSlack})：从最早到期的定时器开始，
+ * 把触发时间落在所有已选定时器最晚触发时间之前的定时器合并，在其中最后一个的触发时间唤醒。
+ * 这样单独的定时器按时触发，时间相近的定时器在同一次唤醒中执行，减少唤醒次数。
+ * <p>
+ * setInterval按固定频率执行：下一次的时间由上一次的预定时间加上间隔得到，不会累积误差；
+ * 回调耗时过长而错过的周期会被跳过，不会连续补执行。
  */
-
 public class Timers {
 
-    private SparseArray<Runnable> mHandlerCallbacks = new SparseArray<>();
+    /**
+     * 时钟和唤醒消息，默认由创建第一个定时器的线程的Handler实现，单元测试中可以替换
+     */
+    interface Scheduler {
+
+        long uptimeMillis();
+
+        void postAtTime(Runnable r, long uptimeMillis);
+
+        void removeCallbacks(Runnable r);
+    }
+
+    private static class HandlerScheduler implements Scheduler {
+
+        private final Handler mHandler = new Handler();
+
+        @Override
+        public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+        }
+
+        @Override
+        public void postAtTime(Runnable r, long uptimeMillis) {
+            mHandler.postAtTime(r, uptimeMillis);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable r) {
+            mHandler.removeCallbacks(r);
+        }
+    }
+
+    private static final long DEFAULT_MAX_SLACK = 50;
+    private static final int SLACK_RATIO = 10;
+
+    private static class Timer {
+
+        final int id;
+        final Object callback;
+        final Object[] args;
+        final long interval;
+        final boolean repeat;
+        long due;
+        long deadline;
+
+        Timer(int id, Object callback, Object[] args, long interval, boolean repeat) {
+            this.id = id;
+            this.callback = callback;
+            this.args = args;
+            this.interval = interval;
+            this.repeat = repeat;
+        }
+    }
+
+    // id唯一，触发时间相同时按创建顺序执行
+    private static final Comparator<Timer> DUE_ORDER = new Comparator<Timer>() {
+        @Override
+        public int compare(Timer o1, Timer o2) {
+            if (o1.due != o2.due) {
+                return o1.due < o2.due ? -1 : 1;
+            }
+            return o1.id < o2.id ? -1 : (o1.id == o2.id ? 0 : 1);
+        }
+    };
+
+    // 以下字段由this保护
+    private final Map<Integer, Timer> mTimers = new HashMap<>();
+    private final TreeSet<Timer> mQueue = new TreeSet<>(DUE_ORDER);
+    private long mScheduledWakeup = Long.MAX_VALUE;
+
     private int mCallbackMaxId = 0;
+    private long mMaxSlack = DEFAULT_MAX_SLACK;
     private ScriptBridges mBridges;
-    private Handler mHandler;
-    private long mFutureCallbackUptimeMillis = 0;
+    private Scheduler mScheduler;
+
+    private final Runnable mDispatcher = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
 
     public Timers(ScriptBridges bridges) {
         mBridges = bridges;
     }
 
-    private void ensureHandler() {
-        if (mHandler == null) {
-            mHandler = new Handler();
+    Timers(ScriptBridges bridges, Scheduler scheduler) {
+        mBridges = bridges;
+        mScheduler = scheduler;
+    }
+
+    private void ensureScheduler() {
+        if (mScheduler == null) {
+            mScheduler = new HandlerScheduler();
         }
     }
 
     public int setTimeout(final Object callback, long delay, final Object... args) {
-        ensureHandler();
-        mCallbackMaxId++;
-        final int id = mCallbackMaxId;
-        Runnable r = new Runnable() {
-            @Override
-            public void run() {
-                mBridges.callFunction(callback, null, args);
-                mHandlerCallbacks.remove(id);
-            }
-        };
-        mHandlerCallbacks.put(id, r);
-        postDelayed(r, delay);
-        return id;
+        return addTimer(callback, args, delay, delay, false);
     }
 
     public boolean clearTimeout(int id) {
@@ -49,27 +130,8 @@ public class Timers {
     }
 
     public int setInterval(final Object listener, final long interval, final Object... args) {
-        ensureHandler();
-        mCallbackMaxId++;
-        final int id = mCallbackMaxId;
-        final Runnable r = new Runnable() {
-            @Override
-            public void run() {
-                if (mHandlerCallbacks.get(id) == null)
-                    return;
-                mBridges.callFunction(listener, null, args);
-                postDelayed(this, interval);
-            }
-        };
-        mHandlerCallbacks.put(id, r);
-        postDelayed(r, interval);
-        return id;
-    }
-
-    private void postDelayed(Runnable r, long interval) {
-        long uptime = SystemClock.uptimeMillis() + interval;
-        mHandler.postAtTime(r, uptime);
-        mFutureCallbackUptimeMillis = Math.max(mFutureCallbackUptimeMillis, uptime);
+        long i = Math.max(1, interval);
+        return addTimer(listener, args, i, i, true);
     }
 
     public boolean clearInterval(int id) {
@@ -77,37 +139,126 @@ public class Timers {
     }
 
     public int setImmediate(final Object listener, final Object... args) {
-        ensureHandler();
-        mCallbackMaxId++;
-        final int id = mCallbackMaxId;
-        Runnable r = new Runnable() {
-            @Override
-            public void run() {
-                mBridges.callFunction(listener, null, args);
-                mHandlerCallbacks.remove(id);
-            }
-        };
-        mHandlerCallbacks.put(id, r);
-        postDelayed(r, 0);
-        return id;
+        return addTimer(listener, args, 0, 0, false);
     }
 
     public boolean clearImmediate(int id) {
         return clearCallback(id);
     }
 
-    private boolean clearCallback(int id) {
-        Runnable callback = mHandlerCallbacks.get(id);
-        if (callback != null) {
-            mHandler.removeCallbacks(callback);
-            mHandlerCallbacks.remove(id);
-            return true;
+    /**
+     * @param maxSlack 定时器最多可以被推迟的毫秒数，0表示不合并
+     */
+    public void setMaxSlack(long maxSlack) {
+        mMaxSlack = maxSlack;
+    }
+
+    private synchronized int addTimer(Object callback, Object[] args, long delay, long interval, boolean repeat) {
+        ensureScheduler();
+        mCallbackMaxId++;
+        int id = mCallbackMaxId;
+        Timer timer = new Timer(id, callback, args, interval, repeat);
+        setDue(timer, mScheduler.uptimeMillis() + Math.max(0, delay), delay);
+        mTimers.put(id, timer);
+        mQueue.add(timer);
+        scheduleWakeup();
+        return id;
+    }
+
+    private void setDue(Timer timer, long due, long delay) {
+        timer.due = due;
+        timer.deadline = due + Math.min(mMaxSlack, Math.max(0, delay) / SLACK_RATIO);
+    }
+
+    private synchronized boolean clearCallback(int id) {
+        Timer timer = mTimers.remove(id);
+        if (timer == null) {
+            return false;
         }
-        return false;
+        mQueue.remove(timer);
+        return true;
     }
 
+    private void dispatch() {
+        long now = mScheduler.uptimeMillis();
+        synchronized (this) {
+            mScheduledWakeup = Long.MAX_VALUE;
+        }
+        try {
+            while (true) {
+                Timer timer;
+                synchronized (this) {
+                    if (mQueue.isEmpty() || mQueue.first().due > now) {
+                        break;
+                    }
+                    timer = mQueue.pollFirst();
+                    if (timer.repeat) {
+                        long due = timer.due + timer.interval;
+                        if (due <= now) {
+                            due += ((now - due) / timer.interval + 1) * timer.interval;
+                        }
+                        setDue(timer, due, timer.interval);
+                        mQueue.add(timer);
+                    } else {
+                        mTimers.remove(timer.id);
+                    }
+                }
+                mBridges.callFunction(timer.callback, null, timer.args);
+            }
+        } finally {
+            synchronized (this) {
+                scheduleWakeup();
+            }
+        }
+    }
+
+    /**
+     * 计算下一次唤醒的时间并更新Looper中的消息。调用时需持有this的锁
+     */
+    private void scheduleWakeup() {
+        long wakeup = Long.MAX_VALUE;
+        Iterator<Timer> iterator = mQueue.iterator();
+        if (iterator.hasNext()) {
+            Timer head = iterator.next();
+            wakeup = head.due;
+            long limit = head.deadline;
+            // 被合并的定时器都在自己的最晚触发时间之前执行
+            while (iterator.hasNext()) {
+                Timer timer = iterator.next();
+                if (timer.due > limit) {
+                    break;
+                }
+                wakeup = timer.due;
+                limit = Math.min(limit, timer.deadline);
+            }
+        }
+        if (wakeup == mScheduledWakeup) {
+            return;
+        }
+        mScheduler.removeCallbacks(mDispatcher);
+        mScheduledWakeup = wakeup;
+        if (wakeup != Long.MAX_VALUE) {
+            mScheduler.postAtTime(mDispatcher, wakeup);
+        }
+    }
+
+    /**
+     * 取消所有定时器，脚本退出后不再执行它们
+     */
+    public synchronized void recycle() {
+        mTimers.clear();
+        mQueue.clear();
+        mScheduledWakeup = Long.MAX_VALUE;
+        if (mScheduler != null) {
+            mScheduler.removeCallbacks(mDispatcher);
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return mTimers.size();
+    }
 
     public boolean hasPendingCallback() {
-        return mFutureCallbackUptimeMillis > SystemClock.uptimeMillis();
+        return getPendingCount() > 0;
     }
 }
@@ -1,6 +1,8 @@
 package com.stardust.autojs.runtime.api;
 
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 import android.view.accessibility.AccessibilityNodeInfo;
 
@@ -15,6 +17,11 @@ import com.stardust.automator.UiObjectCollection;
 import com.stardust.automator.filter.DfsFilter;
 import com.stardust.util.DeveloperUtils;
 import com.stardust.view.accessibility.AccessibilityNodeInfoAllocator;
+import com.stardust.view.accessibility.WindowContentObserver;
+import com.stardust.view.accessibility.WindowSnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
 
 import static android.support.v4.view.accessibility.AccessibilityNodeInfoCompat.ACTION_ACCESSIBILITY_FOCUS;
 import static android.support.v4.view.accessibility.AccessibilityNodeInfoCompat.ACTION_ARGUMENT_COLUMN_INT;
@@ -72,16 +79,48 @@ public class UiSelector extends UiGlobalSelector {
     @NonNull
     @ScriptInterface
     public UiObjectCollection find() {
+        return find(Integer.MAX_VALUE);
+    }
+
+    @NonNull
+    @ScriptInterface
+    public UiObjectCollection find(int max) {
+        AccessibilityNodeInfo root = findRoot();
+        if (root == null) {
+            return UiObjectCollection.EMPTY;
+        }
+        return findOfRoot(root, max);
+    }
+
+    private UiObjectCollection findOfRoot(AccessibilityNodeInfo root, int max) {
+        if (mAccessibilityBridge.getMode() != AccessibilityBridge.MODE_SNAPSHOT) {
+            return findOf(UiObject.createRoot(root, mAllocator), max);
+        }
+        WindowSnapshot snapshot = mAccessibilityBridge.getWindowSnapshotCache().get(root);
+        try {
+            return detach(findOf(snapshot.getRoot(), max));
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    // 快照中的控件被多个脚本共享, 快照被替换后会被回收, 返回给脚本的控件复制一份
+    private static UiObjectCollection detach(UiObjectCollection collection) {
+        List<UiObject> list = new ArrayList<>(collection.size());
+        for (int i = 0; i < collection.size(); i++) {
+            list.add(new UiObject(AccessibilityNodeInfo.obtain((AccessibilityNodeInfo) collection.get(i).getInfo())));
+        }
+        return UiObjectCollection.of(list);
+    }
+
+    @Nullable
+    private AccessibilityNodeInfo findRoot() {
         ensureAccessibilityServiceEnabled();
         if (AutomatorConfig.isUnintendedGuardEnabled() && isRunningPackageSelf()) {
             Log.d(TAG, "isSelfPackage return null");
-            return UiObjectCollection.EMPTY;
+            return null;
         }
-        AccessibilityNodeInfo root = mAccessibilityBridge.getRootInActiveWindow();
-        if (root == null) {
-            return UiObjectCollection.EMPTY;
-        }
-        return findOf(UiObject.createRoot(root, mAllocator));
+        return mAccessibilityBridge.getRootInActiveWindow();
     }
 
 
@@ -97,19 +136,45 @@ public class UiSelector extends UiGlobalSelector {
     @ScriptInterface
     @NonNull
     public UiObjectCollection untilFind() {
-        UiObjectCollection uiObjectCollection = find();
-        while (uiObjectCollection.empty()) {
+        return untilFind(Integer.MAX_VALUE, -1);
+    }
+
+    /**
+     * 查找控件直到找到或超时。查找失败后等待窗口内容变化再重新查找, 而不是固定间隔轮询;
+     * 为防止漏掉事件, 最多等待{@link AutomatorConfig#getFindFallbackPollInterval()}毫秒后也会重新查找。
+     *
+     * @param timeout 超时时间(毫秒), 小于0时一直等待
+     * @return 找到的控件, 超时返回空集合
+     */
+    @NonNull
+    private UiObjectCollection untilFind(int max, long timeout) {
+        long deadline = timeout < 0 ? Long.MAX_VALUE : SystemClock.uptimeMillis() + timeout;
+        WindowContentObserver observer = mAccessibilityBridge.getWindowContentObserver();
+        String packageName = null;
+        while (true) {
             if (Thread.currentThread().isInterrupted()) {
                 throw new ScriptInterruptedException();
             }
+            String watchedPackage = packageName;
+            long generation = observer.getGeneration(watchedPackage);
+            AccessibilityNodeInfo root = findRoot();
+            if (root != null) {
+                packageName = root.getPackageName() == null ? null : root.getPackageName().toString();
+                UiObjectCollection uiObjectCollection = findOfRoot(root, max);
+                if (uiObjectCollection.nonEmpty()) {
+                    return uiObjectCollection;
+                }
+            }
+            long remaining = deadline - SystemClock.uptimeMillis();
+            if (remaining <= 0) {
+                return UiObjectCollection.EMPTY;
+            }
             try {
-                Thread.sleep(50);
+                observer.awaitChange(generation, watchedPackage, Math.min(remaining, AutomatorConfig.getFindFallbackPollInterval()));
             } catch (InterruptedException e) {
                 throw new ScriptInterruptedException();
             }
-            uiObjectCollection = find();
         }
-        return uiObjectCollection;
     }
 
     @ScriptInterface
@@ -119,19 +184,39 @@ public class UiSelector extends UiGlobalSelector {
 
     @ScriptInterface
     public boolean exists() {
-        UiObjectCollection collection = find();
+        UiObjectCollection collection = find(1);
         return collection.nonEmpty();
     }
 
+    /**
+     * 查找一个控件, 超时返回null。
+     *
+     * @param timeout 超时时间(毫秒)
+     */
+    @ScriptInterface
+    @Nullable
+    public UiObject findOne(long timeout) {
+        UiObjectCollection collection = untilFind(1, timeout);
+        if (collection.empty()) {
+            return null;
+        }
+        return new UiObject(collection.get(0).getInfo());
+    }
+
     @NonNull
     public UiObject untilFindOne() {
-        UiObjectCollection collection = untilFind();
+        UiObjectCollection collection = untilFind(1, -1);
         return new UiObject(collection.get(0).getInfo());
     }
 
     @ScriptInterface
     public void waitFor() {
-        untilFind();
+        untilFind(1, -1);
+    }
+
+    @ScriptInterface
+    public boolean waitFor(long timeout) {
+        return untilFind(1, timeout).nonEmpty();
     }
 
     @ScriptInterface
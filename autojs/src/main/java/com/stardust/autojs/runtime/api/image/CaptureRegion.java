@@ -0,0 +1,146 @@
+package com.stardust.autojs.runtime.api.image;
+
+import android.graphics.Rect;
+import android.media.Image;
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Created by Stardust on 2017/10/28.
+ * <p>
+ * 截图中的一块感兴趣区域(ROI)。每次{@link #update(Image)}只复制该区域内的行，
+ * 并可按整数倍缩小(取每个块左上角的像素，不做平均，以免颜色被混合)，
+ * 便于先在低分辨率上粗略检测，再回到原图上确认。缓冲区在多次更新之间复用。
+ * <p>
+ * 第一次{@link #update(Image)}之前没有像素，读取像素会抛出IllegalStateException。
+ */
+@RequiresApi(api = Build.VERSION_CODES.KITKAT)
+public class CaptureRegion {
+
+    private static final int PIXEL_STRIDE = 4;
+
+    private final Rect mRequestedRegion;
+    private final int mScale;
+    private final Rect mRegion = new Rect();
+    private ByteBuffer mBuffer;
+    private int mWidth;
+    private int mHeight;
+    private int mSourceWidth;
+    private int mSourceHeight;
+
+    /**
+     * @param region 截图中的区域
+     * @param scale  缩小倍数，1表示原始分辨率，2表示长宽各缩小一半，以此类推
+     */
+    public CaptureRegion(Rect region, int scale) {
+        if (scale < 1) {
+            throw new IllegalArgumentException("scale = " + scale);
+        }
+        mRequestedRegion = new Rect(region);
+        mScale = scale;
+    }
+
+    public void update(Image image) {
+        mSourceWidth = image.getWidth();
+        mSourceHeight = image.getHeight();
+        mRegion.set(mRequestedRegion);
+        if (!mRegion.intersect(0, 0, mSourceWidth, mSourceHeight)) {
+            mRegion.setEmpty();
+        }
+        int scale = mScale;
+        mWidth = mRegion.width() / scale;
+        mHeight = mRegion.height() / scale;
+        int size = mWidth * mHeight * PIXEL_STRIDE;
+        if (mBuffer == null || mBuffer.capacity() < size) {
+            mBuffer = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        ByteBuffer dst = mBuffer;
+        dst.clear();
+        Image.Plane plane = image.getPlanes()[0];
+        ByteBuffer src = plane.getBuffer().duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int rowStride = plane.getRowStride();
+        int pixelStride = plane.getPixelStride();
+        for (int y = 0; y < mHeight; y++) {
+            int offset = (mRegion.top + y * scale) * rowStride + mRegion.left * pixelStride;
+            if (scale == 1 && pixelStride == PIXEL_STRIDE) {
+                src.limit(offset + mWidth * PIXEL_STRIDE);
+                src.position(offset);
+                dst.put(src);
+                src.limit(src.capacity());
+            } else {
+                int step = scale * pixelStride;
+                for (int x = 0; x < mWidth; x++, offset += step) {
+                    dst.putInt(src.getInt(offset));
+                }
+            }
+        }
+        dst.flip();
+    }
+
+    public boolean hasFrame() {
+        return mBuffer != null;
+    }
+
+    private void ensureFrame() {
+        if (mBuffer == null) {
+            throw new IllegalStateException("no frame captured in this region yet, call update(image) first");
+        }
+    }
+
+    public PixelPlane getPlane() {
+        ensureFrame();
+        return new PixelPlane(mBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN), mWidth * PIXEL_STRIDE, PIXEL_STRIDE);
+    }
+
+    /**
+     * @return 缩小后的宽度
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getScale() {
+        return mScale;
+    }
+
+    /**
+     * @return 最近一次更新时实际复制的区域(已裁剪到截图范围内)，为截图中的坐标
+     */
+    public Rect getRegion() {
+        return new Rect(mRegion);
+    }
+
+    public int getSourceWidth() {
+        return mSourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return mSourceHeight;
+    }
+
+    public int toSourceX(int x) {
+        return mRegion.left + x * mScale;
+    }
+
+    public int toSourceY(int y) {
+        return mRegion.top + y * mScale;
+    }
+
+    /**
+     * @param x 区域内(缩小后)的坐标
+     * @return ARGB颜色
+     */
+    public int pixel(int x, int y) {
+        ensureFrame();
+        int c = mBuffer.getInt((y * mWidth + x) * PIXEL_STRIDE);
+        return (c & 0xff00ff00) | ((c & 0xff) << 16) | ((c >> 16) & 0xff);
+    }
+
+}
@@ -23,19 +23,48 @@ public interface ColorDetector {
             mG = Color.green(color);
             mB = Color.blue(color);
         }
+
+        /**
+         * 在row[from, to)中查找第一个满足条件的像素。
+         * row中的像素为Image(RGBA_8888)按小端读出的int，即低字节为R，其次为G、B。
+         *
+         * @return 该像素的下标，找不到时返回-1
+         */
+        public int detectRow(int[] row, int from, int to) {
+            for (int i = from; i < to; i++) {
+                int c = row[i];
+                if (detectsColor(c & 0xff, (c >> 8) & 0xff, (c >> 16) & 0xff)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
     }
 
     class EqualityDetector extends AbstractColorDetector {
 
+        private final int mPacked;
 
         public EqualityDetector(int color) {
             super(color);
+            mPacked = mR | (mG << 8) | (mB << 16);
         }
 
         @Override
         public boolean detectsColor(int red, int green, int blue) {
             return mR == red && mG == green && mB == blue;
         }
+
+        @Override
+        public int detectRow(int[] row, int from, int to) {
+            int packed = mPacked;
+            for (int i = from; i < to; i++) {
+                if ((row[i] & 0xffffff) == packed) {
+                    return i;
+                }
+            }
+            return -1;
+        }
     }
 
     class DifferenceDetector extends AbstractColorDetector {
@@ -52,6 +81,18 @@ public interface ColorDetector {
         public boolean detectsColor(int R, int G, int B) {
             return Math.abs(R - mR) + Math.abs(G - mG) + Math.abs(B - mB) <= mThreshold;
         }
+
+        @Override
+        public int detectRow(int[] row, int from, int to) {
+            int r = mR, g = mG, b = mB, threshold = mThreshold;
+            for (int i = from; i < to; i++) {
+                int c = row[i];
+                if (Math.abs((c & 0xff) - r) + Math.abs(((c >> 8) & 0xff) - g) + Math.abs(((c >> 16) & 0xff) - b) <= threshold) {
+                    return i;
+                }
+            }
+            return -1;
+        }
     }
 
     class RDistanceDetector extends AbstractColorDetector {
@@ -86,6 +127,21 @@ public interface ColorDetector {
             int d = dR * dR + dG * dG + dB * dB;
             return d <= mThreshold;
         }
+
+        @Override
+        public int detectRow(int[] row, int from, int to) {
+            int r = mR, g = mG, b = mB, threshold = mThreshold;
+            for (int i = from; i < to; i++) {
+                int c = row[i];
+                int dR = (c & 0xff) - r;
+                int dG = ((c >> 8) & 0xff) - g;
+                int dB = ((c >> 16) & 0xff) - b;
+                if (dR * dR + dG * dG + dB * dB <= threshold) {
+                    return i;
+                }
+            }
+            return -1;
+        }
     }
 
     class WeightedRGBDistanceDetector extends AbstractColorDetector {
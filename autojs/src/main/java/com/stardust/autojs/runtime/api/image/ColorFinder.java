@@ -7,11 +7,9 @@ import android.os.Build;
 import android.support.annotation.RequiresApi;
 
 import com.stardust.autojs.runtime.exception.ScriptInterruptedException;
-import com.stardust.concurrent.VolatileBox;
 import com.stardust.util.ScreenMetrics;
 
 import java.util.List;
-import java.util.Vector;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -30,10 +28,14 @@ public class ColorFinder {
     }
 
     private ThreadPoolExecutor mThreadPoolExecutor;
+    private RowBandScanner mRowBandScanner;
+    private MultiColorFinder mMultiColorFinder;
     private ScreenMetrics mScreenMetrics;
 
     public ColorFinder(ThreadPoolExecutor threadPoolExecutor) {
         mThreadPoolExecutor = threadPoolExecutor;
+        mRowBandScanner = new RowBandScanner(threadPoolExecutor);
+        mMultiColorFinder = new MultiColorFinder(mRowBandScanner);
         mScreenMetrics = new ScreenMetrics();
     }
 
@@ -41,17 +43,16 @@ public class ColorFinder {
         this(sThreadPoolExecutor);
     }
 
+    public ThreadPoolExecutor getThreadPoolExecutor() {
+        return mThreadPoolExecutor;
+    }
+
     public void prestartThreads() {
         mThreadPoolExecutor.prestartAllCoreThreads();
     }
 
     public Point[] findAllColors(Image image, ColorDetector detector, Rect rect, int threadCount) {
-        List<Point> result = new Vector<>();
-        ColorIterator[] iterators = divide(image, rect, threadCount);
-        for (int i = 1; i < threadCount; i++) {
-            mThreadPoolExecutor.execute(new FindAllColorsRunnable(result, iterators[i], detector));
-        }
-        new FindAllColorsRunnable(result, iterators[0], detector).run();
+        List<Point> result = mRowBandScanner.findAll(image, detector, rect, threadCount);
         Point[] points = new Point[result.size()];
         for (int i = 0; i < points.length; i++) {
             points[i] = scalePoint(result.get(i), image.getWidth(), image.getHeight());
@@ -63,77 +64,79 @@ public class ColorFinder {
         if (threadCount <= 1) {
             return findColor(image, detector, rect);
         }
-        VolatileBox<Point> result = new VolatileBox<>();
-        ColorIterator[] iterators = divide(image, rect, threadCount);
-        for (int i = 1; i < threadCount; i++) {
-            mThreadPoolExecutor.execute(new FindColorRunnable(result, iterators[i], detector));
-        }
-        new FindColorRunnable(result, iterators[0], detector).run();
-        return scalePoint(result.get(), image.getWidth(), image.getHeight());
+        return scalePoint(mRowBandScanner.findFirst(image, detector, rect, threadCount), image.getWidth(), image.getHeight());
     }
 
 
-    private Point scalePoint(Point point, int width, int height) {
+    /**
+     * 在截图区域中找色。区域可能是缩小过的，返回的坐标已换算回截图上的坐标。
+     */
+    public Point findColor(CaptureRegion region, ColorDetector detector, int threadCount) {
+        Rect rect = new Rect(0, 0, region.getWidth(), region.getHeight());
+        Point point = mRowBandScanner.findFirst(region.getPlane(), detector, null, rect, threadCount);
+        return toSourcePoint(region, point);
+    }
+
+    public Point[] findAllColors(CaptureRegion region, ColorDetector detector, int threadCount) {
+        Rect rect = new Rect(0, 0, region.getWidth(), region.getHeight());
+        List<Point> result = mRowBandScanner.findAll(region.getPlane(), detector, null, rect, threadCount);
+        Point[] points = new Point[result.size()];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = toSourcePoint(region, result.get(i));
+        }
+        return points;
+    }
+
+    private Point toSourcePoint(CaptureRegion region, Point point) {
         if (point == null)
             return null;
-        mScreenMetrics.setDesignHeight(height);
-        mScreenMetrics.setDesignWidth(width);
-        point.set(mScreenMetrics.scaleX(point.x), mScreenMetrics.scaleY(point.y));
-        return point;
+        point.set(region.toSourceX(point.x), region.toSourceY(point.y));
+        return scalePoint(point, region.getSourceWidth(), region.getSourceHeight());
     }
 
-    protected ColorIterator[] divide(Image image, Rect rect, int count) {
-        Rect[] subAreas = divideIntoSubAreas(rect, count);
-        int centerY = rect.centerY();
-        ColorIterator[] iterators = new ColorIterator[count];
-        for (int i = 1; i < subAreas.length; i++) {
-            Rect subArea = subAreas[i];
-            if (subArea.top > centerY) {
-                iterators[i] = new ColorIterator.SequentialIterator(image, subArea, true);
-            } else {
-                iterators[i] = new ColorIterator.SequentialIterator(image, subArea, true);
-            }
-        }
-        iterators[0] = new ColorIterator.SequentialIterator(image, subAreas[0], false);
-        return iterators;
+    /**
+     * 多点找色。
+     *
+     * @param offsetsAndColors 每个元素为{dx, dy, color}，表示相对第一个点偏移(dx, dy)处的颜色
+     * @return 第一个满足所有条件的点(即第一个颜色所在的点)，找不到时返回null
+     */
+    public Point findMultiColors(Image image, int firstColor, int[][] offsetsAndColors, Rect rect, int threshold, int threadCount) {
+        Point point = mMultiColorFinder.findFirst(image, multiColorPoints(firstColor, offsetsAndColors), rect, threshold, threadCount);
+        return scalePoint(point, image.getWidth(), image.getHeight());
+    }
+
+    public Point findMultiColors(Image image, int firstColor, int[][] offsetsAndColors, Rect rect, int threshold) {
+        return findMultiColors(image, firstColor, offsetsAndColors, rect, threshold, 1);
     }
 
-    protected Rect[] divideIntoSubAreas(Rect rect, int count) {
-        int row, column;
-        switch (count) {
-            case 4:
-            case 6:
-            case 8:
-            case 10:
-            case 14:
-                row = count / 2;
-                column = 2;
-                break;
-            case 9:
-            case 12:
-            case 15:
-                row = count / 3;
-                column = 3;
-                break;
-            case 16:
-                row = 4;
-                column = 4;
-                break;
-            default:
-                row = count;
-                column = 1;
+    public Point[] findAllMultiColors(Image image, int firstColor, int[][] offsetsAndColors, Rect rect, int threshold, int threadCount) {
+        List<Point> result = mMultiColorFinder.findAll(image, multiColorPoints(firstColor, offsetsAndColors), rect, threshold, threadCount);
+        Point[] points = new Point[result.size()];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = scalePoint(result.get(i), image.getWidth(), image.getHeight());
         }
-        Rect[] cells = new Rect[count];
-        int cellWidth = rect.width() / column;
-        int cellHeight = rect.height() / row;
-        for (int i = 0; i < row; i++) {
-            for (int j = 0; j < column; j++) {
-                int x = rect.left + j * cellWidth;
-                int y = rect.top + i * cellHeight;
-                cells[i * column + j] = new Rect(x, y, x + cellWidth, y + cellHeight);
+        return points;
+    }
+
+    private static int[][] multiColorPoints(int firstColor, int[][] offsetsAndColors) {
+        int[][] points = new int[offsetsAndColors.length + 1][];
+        points[0] = new int[]{0, 0, firstColor};
+        for (int i = 0; i < offsetsAndColors.length; i++) {
+            if (offsetsAndColors[i].length < 3) {
+                throw new IllegalArgumentException("offsetsAndColors[" + i + "] should be [dx, dy, color]");
             }
+            points[i + 1] = offsetsAndColors[i];
         }
-        return cells;
+        return points;
+    }
+
+    private Point scalePoint(Point point, int width, int height) {
+        if (point == null)
+            return null;
+        mScreenMetrics.setDesignHeight(height);
+        mScreenMetrics.setDesignWidth(width);
+        point.set(mScreenMetrics.scaleX(point.x), mScreenMetrics.scaleY(point.y));
+        return point;
     }
 
     public Point findColorConcurrently(Image image, int color, Rect rect, int threadCount, int threshold) {
@@ -157,7 +160,6 @@ public class ColorFinder {
         Thread thread = Thread.currentThread();
         ColorIterator.Pixel pixel = new ColorIterator.Pixel();
         while (iterator.hasNext() && !thread.isInterrupted()) {
-            iterator.nextColor(pixel);
             iterator.nextColor(pixel);
             if (detector.detectsColor(pixel.red, pixel.green, pixel.blue)) {
                 return new Point(iterator.getX(), iterator.getY());
@@ -182,11 +184,11 @@ public class ColorFinder {
     }
 
     public Point findColor(Image image, ColorDetector detector, Rect rect) {
-        return scalePoint(findColor(defaultColorIterator(image, rect), detector), image.getWidth(), image.getHeight());
+        return scalePoint(mRowBandScanner.findFirst(image, detector, rect, 1), image.getWidth(), image.getHeight());
     }
 
     public Point findColor(Image image, int color, Rect rect) {
-        return scalePoint(findColor(defaultColorIterator(image, rect), defaultColorDetector(color)), image.getWidth(), image.getHeight());
+        return findColor(image, defaultColorDetector(color), rect);
     }
 
     public Point findColor(Image image, int color) {
@@ -194,64 +196,7 @@ public class ColorFinder {
     }
 
     public Point findColorEquals(Image image, int color, Rect rect) {
-        return scalePoint(findColor(defaultColorIterator(image, rect), new ColorDetector.EqualityDetector(color)), image.getWidth(), image.getHeight());
-    }
-
-    private static class FindColorRunnable implements Runnable {
-
-        private final VolatileBox<Point> mResultBox;
-        private final ColorIterator mColorIterator;
-        private final ColorDetector mColorDetector;
-
-        private FindColorRunnable(VolatileBox<Point> resultBox, ColorIterator colorIterator, ColorDetector colorDetector) {
-            mResultBox = resultBox;
-            mColorIterator = colorIterator;
-            mColorDetector = colorDetector;
-        }
-
-        @Override
-        public void run() {
-            Thread thread = Thread.currentThread();
-            ColorIterator.Pixel pixel = new ColorIterator.Pixel();
-            while (mResultBox.isNull() && mColorIterator.hasNext() && !thread.isInterrupted()) {
-                mColorIterator.nextColor(pixel);
-                if (mColorDetector.detectsColor(pixel.red, pixel.green, pixel.blue)) {
-                    mResultBox.set(new Point(mColorIterator.getX(), mColorIterator.getY()));
-                    break;
-                }
-            }
-            if (thread.isInterrupted()) {
-                throw new ScriptInterruptedException();
-            }
-        }
-    }
-
-    private static class FindAllColorsRunnable implements Runnable {
-
-        private final List<Point> mResult;
-        private final ColorIterator mColorIterator;
-        private final ColorDetector mColorDetector;
-
-        private FindAllColorsRunnable(List<Point> result, ColorIterator colorIterator, ColorDetector colorDetector) {
-            mResult = result;
-            mColorIterator = colorIterator;
-            mColorDetector = colorDetector;
-        }
-
-        @Override
-        public void run() {
-            Thread thread = Thread.currentThread();
-            ColorIterator.Pixel pixel = new ColorIterator.Pixel();
-            while (mColorIterator.hasNext() && !thread.isInterrupted()) {
-                mColorIterator.nextColor(pixel);
-                if (mColorDetector.detectsColor(pixel.red, pixel.green, pixel.blue)) {
-                    mResult.add(new Point(mColorIterator.getX(), mColorIterator.getY()));
-                }
-            }
-            if (thread.isInterrupted()) {
-                throw new ScriptInterruptedException();
-            }
-        }
+        return findColor(image, new ColorDetector.EqualityDetector(color), rect);
     }
 
 }
\ No newline at end of file
@@ -8,8 +8,10 @@ import java.nio.ByteBuffer;
 
 /**
  * Created by Stardust on 2017/5/21.
+ *
+ * @deprecated 每个像素都要竞争同一把锁，并发时反而更慢。请使用 {@link RowBandScanner}。
  */
-
+@Deprecated
 public interface ConcurrentColorIterator {
 
     void nextColor(Pixel pixel);
@@ -62,7 +64,6 @@ public interface ConcurrentColorIterator {
             mByteBuffer.position(offset);
         }
 
-        // TODO: 2017/5/21 对锁的竞争造成并发速度极慢。能否做到无锁？
         @Override
         public synchronized void nextColor(Pixel pixel) {
             if (!(mY < mAreaHeight - 1 || mX < mAreaWidth - 1)) {
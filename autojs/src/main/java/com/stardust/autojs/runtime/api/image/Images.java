@@ -6,15 +6,21 @@ import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
+import android.graphics.Point;
+import android.graphics.Rect;
 import android.media.Image;
 import android.os.Build;
 import android.os.Handler;
+import android.support.annotation.Nullable;
 import android.support.annotation.RequiresApi;
 import android.util.Log;
 import android.view.Display;
 import android.view.Surface;
 import android.view.WindowManager;
 
+import com.stardust.autojs.core.templatematching.GrayImage;
+import com.stardust.autojs.core.templatematching.Template;
+import com.stardust.autojs.core.templatematching.TemplateMatching;
 import com.stardust.autojs.runtime.ScriptRuntime;
 import com.stardust.autojs.runtime.exception.ScriptInterruptedException;
 import com.stardust.autojs.annotation.ScriptVariable;
@@ -25,6 +31,8 @@ import com.stardust.util.ScreenMetrics;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.Locale;
 
 /**
@@ -41,6 +49,7 @@ public class Images {
 
     @ScriptVariable
     public final ColorFinder colorFinder;
+    private final TemplateMatching mTemplateMatching;
 
     public Images(Context context, ScriptRuntime scriptRuntime, ScreenCaptureRequester screenCaptureRequester) {
         mScriptRuntime = scriptRuntime;
@@ -48,6 +57,7 @@ public class Images {
         mContext = context;
         mDisplay = ((WindowManager) context.getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
         colorFinder = new ColorFinder();
+        mTemplateMatching = new TemplateMatching(colorFinder.getThreadPoolExecutor());
     }
 
     @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
@@ -95,13 +105,57 @@ public class Images {
         mScriptRuntime.requiresApi(21);
         Image image = mScreenCapturer.capture();
         if (image != null) {
+            // image由ScreenCapturer管理，不能在这里关闭
             saveImage(image, path);
-            image.close();
             return true;
         }
         return false;
     }
 
+    /**
+     * 创建一个截图区域，之后可用{@link #captureRegion(CaptureRegion)}只截取这一部分。
+     *
+     * @param scale 缩小倍数，1为原始分辨率
+     */
+    public CaptureRegion createCaptureRegion(Rect region, int scale) {
+        return new CaptureRegion(region, scale);
+    }
+
+    /**
+     * 获取最新的一帧，只把region对应的行复制到region自己的缓冲区中。
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public CaptureRegion captureRegion(CaptureRegion region) {
+        Image image = captureScreen();
+        if (image == null) {
+            return null;
+        }
+        region.update(image);
+        return region;
+    }
+
+    /**
+     * 非阻塞地获取比afterSequence更新的一帧，没有时返回null。
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public Image tryCaptureScreen(long afterSequence) {
+        mScriptRuntime.requiresApi(21);
+        if (mScreenCapturer == null) {
+            throw new SecurityException("No screen capture permission");
+        }
+        return mScreenCapturer.tryCapture(afterSequence);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public long getFrameSequence() {
+        return mScreenCapturer == null ? 0 : mScreenCapturer.getFrameSequence();
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public long getFrameTimestamp() {
+        return mScreenCapturer == null ? 0 : mScreenCapturer.getFrameTimestamp();
+    }
+
     public void saveImage(Image image, String path) {
         Bitmap bitmap = toBitmap(image);
         saveBitmap(bitmap, path);
@@ -109,16 +163,58 @@ public class Images {
     }
 
     public static Bitmap toBitmap(Image image) {
+        return toBitmap(image, null);
+    }
+
+    /**
+     * @param reuse 尺寸相同时直接复用该Bitmap，避免连续截图时反复分配大块内存
+     */
+    public static Bitmap toBitmap(Image image, @Nullable Bitmap reuse) {
         Image.Plane plane = image.getPlanes()[0];
-        ByteBuffer buffer = plane.getBuffer();
+        ByteBuffer buffer = plane.getBuffer().duplicate();
         buffer.position(0);
         int pixelStride = plane.getPixelStride();
         int rowPadding = plane.getRowStride() - pixelStride * image.getWidth();
-        Bitmap bitmap = Bitmap.createBitmap(image.getWidth() + rowPadding / pixelStride, image.getHeight(), Bitmap.Config.ARGB_8888);
+        int width = image.getWidth() + rowPadding / pixelStride;
+        Bitmap bitmap = reuse;
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || bitmap.getWidth() != width
+                || bitmap.getHeight() != image.getHeight() || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            bitmap = Bitmap.createBitmap(width, image.getHeight(), Bitmap.Config.ARGB_8888);
+        }
         bitmap.copyPixelsFromBuffer(buffer);
         return bitmap;
     }
 
+    /**
+     * 直接从Image的缓冲区读取region区域内的像素(ARGB)，不经过Bitmap复制。
+     *
+     * @param out 长度不小于region的像素数，可在多次调用之间复用
+     */
+    public static int[] readPixels(Image image, Rect region, @Nullable int[] out) {
+        int width = region.width();
+        int height = region.height();
+        if (out == null || out.length < width * height) {
+            out = new int[width * height];
+        }
+        Image.Plane plane = image.getPlanes()[0];
+        ByteBuffer bytes = plane.getBuffer().duplicate();
+        // 与toBitmap相同，duplicate()沿用原缓冲区的position，asIntBuffer()之前要先归零
+        bytes.position(0);
+        IntBuffer buffer = bytes.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        // RGBA_8888的pixelStride为4，rowStride也总是4的倍数
+        int intsPerRow = plane.getRowStride() / 4;
+        for (int y = 0; y < height; y++) {
+            buffer.position((region.top + y) * intsPerRow + region.left);
+            buffer.get(out, y * width, width);
+        }
+        // 小端读出的是ABGR，转换为ARGB
+        for (int i = 0; i < width * height; i++) {
+            int c = out[i];
+            out[i] = (c & 0xff00ff00) | ((c & 0xff) << 16) | ((c >> 16) & 0xff);
+        }
+        return out;
+    }
+
     public static int pixel(Image image, int x, int y) {
         int originX = x;
         int originY = y;
@@ -182,6 +278,38 @@ public class Images {
         return Bitmap.createBitmap(origin, 0, 0, width, height, matrix, false);
     }
 
+    public Template readTemplate(String path, int maxLevel) {
+        return Template.read(path, maxLevel);
+    }
+
+    public Template readTemplate(String path) {
+        return readTemplate(path, TemplateMatching.DEFAULT_MAX_LEVEL);
+    }
+
+    /**
+     * 在image的region区域内查找模板。
+     *
+     * @return 模板左上角所在的位置，找不到时返回null
+     */
+    public Point findImage(Image image, Template template, float threshold, Rect region, int method, int maxLevel, int threadCount) {
+        GrayImage source = GrayImage.of(image, region);
+        TemplateMatching.Match match = mTemplateMatching.match(source, template, threshold, method, maxLevel, threadCount);
+        if (match == null) {
+            return null;
+        }
+        return new Point(ScreenMetrics.scaleX(match.x + region.left, image.getWidth()),
+                ScreenMetrics.scaleY(match.y + region.top, image.getHeight()));
+    }
+
+    public Point findImage(Image image, Template template, float threshold, Rect region) {
+        return findImage(image, template, threshold, region, TemplateMatching.MATCHING_METHOD_NCC,
+                TemplateMatching.DEFAULT_MAX_LEVEL, Runtime.getRuntime().availableProcessors());
+    }
+
+    public Point findImage(Image image, Template template) {
+        return findImage(image, template, 0.9f, new Rect(0, 0, image.getWidth(), image.getHeight()));
+    }
+
     public void releaseScreenCapturer() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && mScreenCapturer != null) {
             mScreenCapturer.release();
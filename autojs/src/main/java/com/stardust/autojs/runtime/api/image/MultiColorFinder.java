@@ -0,0 +1,176 @@
+package com.stardust.autojs.runtime.api.image;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.media.Image;
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by Stardust on 2017/10/28.
+ * <p>
+ * 多点找色：以第一个颜色所在的点为锚点，其余颜色以相对锚点的偏移给出。
+ * <p>
+ * 扫描前先对区域抽样，估计每个颜色的命中率，只对最稀有的颜色做整行扫描，
+ * 命中后再按命中率从低到高依次检查其余的点，从而尽可能早地排除候选锚点。
+ */
+@RequiresApi(api = Build.VERSION_CODES.KITKAT)
+public class MultiColorFinder {
+
+    private static final int MAX_SAMPLE_COUNT = 4096;
+
+    private final RowBandScanner mRowBandScanner;
+
+    public MultiColorFinder(RowBandScanner rowBandScanner) {
+        mRowBandScanner = rowBandScanner;
+    }
+
+    /**
+     * @param points 每个元素为{dx, dy, color}，第一个元素即锚点{0, 0, firstColor}
+     * @param rect   锚点所在的区域
+     * @return 第一个(按从上到下、从左到右的顺序)满足所有条件的锚点，找不到时返回null
+     */
+    public Point findFirst(Image image, int[][] points, Rect rect, int threshold, int threadCount) {
+        Plan plan = plan(image, points, rect, threshold);
+        if (plan == null) {
+            return null;
+        }
+        Point point = mRowBandScanner.findFirst(image, plan.scanDetector, plan, plan.scanRect, threadCount);
+        if (point != null) {
+            point.offset(-plan.scanDx, -plan.scanDy);
+        }
+        return point;
+    }
+
+    /**
+     * @return 所有满足条件的锚点，按从上到下、从左到右的顺序排列
+     */
+    public List<Point> findAll(Image image, int[][] points, Rect rect, int threshold, int threadCount) {
+        Plan plan = plan(image, points, rect, threshold);
+        if (plan == null) {
+            return new ArrayList<>();
+        }
+        List<Point> result = mRowBandScanner.findAll(image, plan.scanDetector, plan, plan.scanRect, threadCount);
+        for (Point point : result) {
+            point.offset(-plan.scanDx, -plan.scanDy);
+        }
+        return result;
+    }
+
+    private Plan plan(Image image, int[][] points, Rect rect, int threshold) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        // 锚点的范围需保证所有点都落在图片内
+        Rect anchors = new Rect(rect);
+        for (int[] point : points) {
+            int dx = point[0], dy = point[1];
+            anchors.left = Math.max(anchors.left, -dx);
+            anchors.top = Math.max(anchors.top, -dy);
+            anchors.right = Math.min(anchors.right, width - dx);
+            anchors.bottom = Math.min(anchors.bottom, height - dy);
+        }
+        if (anchors.isEmpty()) {
+            return null;
+        }
+        Image.Plane plane = image.getPlanes()[0];
+        int[] hits = sample(plane, points, anchors, threshold);
+        int n = points.length;
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        // 点数一般很少，插入排序即可
+        for (int i = 1; i < n; i++) {
+            Integer current = order[i];
+            int j = i - 1;
+            while (j >= 0 && hits[order[j]] > hits[current]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = current;
+        }
+        int[] scan = points[order[0]];
+        int[] checkDx = new int[n - 1];
+        int[] checkDy = new int[n - 1];
+        ColorDetector[] checkDetectors = new ColorDetector[n - 1];
+        for (int i = 1; i < n; i++) {
+            int[] point = points[order[i]];
+            // 相对于扫描点的偏移
+            checkDx[i - 1] = point[0] - scan[0];
+            checkDy[i - 1] = point[1] - scan[1];
+            checkDetectors[i - 1] = detector(point[2], threshold);
+        }
+        Rect scanRect = new Rect(anchors);
+        scanRect.offset(scan[0], scan[1]);
+        return new Plan(detector(scan[2], threshold), scanRect, scan[0], scan[1],
+                plane.getRowStride(), plane.getPixelStride(), checkDx, checkDy, checkDetectors);
+    }
+
+    private static int[] sample(Image.Plane plane, int[][] points, Rect anchors, int threshold) {
+        ByteBuffer buffer = plane.getBuffer().duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int rowStride = plane.getRowStride();
+        int pixelStride = plane.getPixelStride();
+        int step = (int) Math.ceil(Math.sqrt((double) anchors.width() * anchors.height() / MAX_SAMPLE_COUNT));
+        step = Math.max(step, 1);
+        int[] hits = new int[points.length];
+        for (int i = 0; i < points.length; i++) {
+            int[] point = points[i];
+            ColorDetector detector = detector(point[2], threshold);
+            for (int y = anchors.top; y < anchors.bottom; y += step) {
+                for (int x = anchors.left; x < anchors.right; x += step) {
+                    int c = buffer.getInt((y + point[1]) * rowStride + (x + point[0]) * pixelStride);
+                    if (detector.detectsColor(c & 0xff, (c >> 8) & 0xff, (c >> 16) & 0xff)) {
+                        hits[i]++;
+                    }
+                }
+            }
+        }
+        return hits;
+    }
+
+    private static ColorDetector detector(int color, int threshold) {
+        return new ColorDetector.RGBDistanceDetector(color, threshold);
+    }
+
+    private static class Plan implements RowBandScanner.Verifier {
+
+        final ColorDetector scanDetector;
+        final Rect scanRect;
+        final int scanDx, scanDy;
+        private final int mRowStride, mPixelStride;
+        private final int[] mOffsets;
+        private final ColorDetector[] mDetectors;
+
+        Plan(ColorDetector scanDetector, Rect scanRect, int scanDx, int scanDy, int rowStride, int pixelStride,
+             int[] checkDx, int[] checkDy, ColorDetector[] checkDetectors) {
+            this.scanDetector = scanDetector;
+            this.scanRect = scanRect;
+            this.scanDx = scanDx;
+            this.scanDy = scanDy;
+            mRowStride = rowStride;
+            mPixelStride = pixelStride;
+            mDetectors = checkDetectors;
+            mOffsets = new int[checkDx.length];
+            for (int i = 0; i < mOffsets.length; i++) {
+                mOffsets[i] = checkDy[i] * rowStride + checkDx[i] * pixelStride;
+            }
+        }
+
+        @Override
+        public boolean verify(ByteBuffer buffer, int x, int y) {
+            int base = y * mRowStride + x * mPixelStride;
+            for (int i = 0; i < mOffsets.length; i++) {
+                int c = buffer.getInt(base + mOffsets[i]);
+                if (!mDetectors[i].detectsColor(c & 0xff, (c >> 8) & 0xff, (c >> 16) & 0xff)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
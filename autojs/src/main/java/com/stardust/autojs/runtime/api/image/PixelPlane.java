@@ -0,0 +1,43 @@
+package com.stardust.autojs.runtime.api.image;
+
+import android.media.Image;
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Created by Stardust on 2017/10/28.
+ * <p>
+ * RGBA_8888格式的像素缓冲区。可以来自Image的第一个plane，也可以是{@link CaptureRegion}复制出来的区域。
+ */
+public class PixelPlane {
+
+    private final ByteBuffer mBuffer;
+    private final int mRowStride;
+    private final int mPixelStride;
+
+    public PixelPlane(ByteBuffer buffer, int rowStride, int pixelStride) {
+        mBuffer = buffer;
+        mRowStride = rowStride;
+        mPixelStride = pixelStride;
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.KITKAT)
+    public static PixelPlane of(Image image) {
+        Image.Plane plane = image.getPlanes()[0];
+        return new PixelPlane(plane.getBuffer(), plane.getRowStride(), plane.getPixelStride());
+    }
+
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    public int getRowStride() {
+        return mRowStride;
+    }
+
+    public int getPixelStride() {
+        return mPixelStride;
+    }
+}
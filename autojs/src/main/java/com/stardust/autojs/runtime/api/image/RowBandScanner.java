@@ -0,0 +1,301 @@
+package com.stardust.autojs.runtime.api.image;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.media.Image;
+import android.os.Build;
+import android.support.annotation.Nullable;
+import android.support.annotation.RequiresApi;
+
+import com.stardust.autojs.runtime.exception.ScriptInterruptedException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by Stardust on 2017/10/28.
+ * <p>
+ * 把图片的扫描区域按行划分为若干条带，交给多个线程并行扫描。
+ * 每个条带持有自己的ByteBuffer视图并使用绝对索引按int读取像素，线程之间不共享锁，
+ * 结果写入各自的槽位，全部条带结束后再合并。
+ * bandCount为1时只在当前线程扫描，不占用线程池。
+ */
+@RequiresApi(api = Build.VERSION_CODES.KITKAT)
+public class RowBandScanner {
+
+    /**
+     * 对检测器命中的像素做进一步确认。
+     */
+    public interface Verifier {
+
+        /**
+         * @param buffer 当前条带独占的小端视图，可用绝对索引读取任意像素
+         */
+        boolean verify(ByteBuffer buffer, int x, int y);
+    }
+
+    private final Executor mExecutor;
+
+    public RowBandScanner(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * 查找区域内第一个(按从上到下、从左到右的顺序)满足条件的像素。
+     * 某个条带找到结果后，位于其下方的条带会尽早停止扫描。
+     */
+    public Point findFirst(Image image, ColorDetector detector, Rect rect, int bandCount) {
+        return findFirst(image, detector, null, rect, bandCount);
+    }
+
+    public Point findFirst(Image image, ColorDetector detector, @Nullable Verifier verifier, Rect rect, int bandCount) {
+        return findFirst(PixelPlane.of(image), detector, verifier, rect, bandCount);
+    }
+
+    public Point findFirst(PixelPlane plane, ColorDetector detector, @Nullable Verifier verifier, Rect rect, int bandCount) {
+        Rect[] bands = divideIntoBands(rect, bandCount);
+        Point[] results = new Point[bands.length];
+        AtomicInteger firstBand = new AtomicInteger(Integer.MAX_VALUE);
+        CountDownLatch latch = new CountDownLatch(bands.length);
+        for (int i = 1; i < bands.length; i++) {
+            execute(new FindFirstTask(plane, bands[i], i, latch, detector, verifier, results, firstBand));
+        }
+        new FindFirstTask(plane, bands[0], 0, latch, detector, verifier, results, firstBand).run();
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            // 让所有条带尽快停止
+            firstBand.set(-1);
+            throw new ScriptInterruptedException();
+        }
+        int first = firstBand.get();
+        return first == Integer.MAX_VALUE ? null : results[first];
+    }
+
+    /**
+     * 查找区域内所有满足条件的像素，结果按从上到下、从左到右的顺序排列。
+     */
+    public List<Point> findAll(Image image, ColorDetector detector, Rect rect, int bandCount) {
+        return findAll(image, detector, null, rect, bandCount);
+    }
+
+    public List<Point> findAll(Image image, ColorDetector detector, @Nullable Verifier verifier, Rect rect, int bandCount) {
+        return findAll(PixelPlane.of(image), detector, verifier, rect, bandCount);
+    }
+
+    public List<Point> findAll(PixelPlane plane, ColorDetector detector, @Nullable Verifier verifier, Rect rect, int bandCount) {
+        Rect[] bands = divideIntoBands(rect, bandCount);
+        List<List<Point>> results = new ArrayList<>(bands.length);
+        for (int i = 0; i < bands.length; i++) {
+            results.add(new ArrayList<Point>());
+        }
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+        CountDownLatch latch = new CountDownLatch(bands.length);
+        for (int i = 1; i < bands.length; i++) {
+            execute(new FindAllTask(plane, bands[i], i, latch, detector, verifier, results.get(i), cancelled));
+        }
+        new FindAllTask(plane, bands[0], 0, latch, detector, verifier, results.get(0), cancelled).run();
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            cancelled.set(true);
+            throw new ScriptInterruptedException();
+        }
+        int size = 0;
+        for (List<Point> points : results) {
+            size += points.size();
+        }
+        List<Point> all = new ArrayList<>(size);
+        for (List<Point> points : results) {
+            all.addAll(points);
+        }
+        return all;
+    }
+
+    private void execute(Runnable task) {
+        try {
+            mExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // 线程池已满时直接在当前线程扫描该条带
+            task.run();
+        }
+    }
+
+    static Rect[] divideIntoBands(Rect rect, int count) {
+        int height = rect.height();
+        count = Math.max(1, Math.min(count, height));
+        Rect[] bands = new Rect[count];
+        int bandHeight = height / count;
+        int remainder = height % count;
+        int top = rect.top;
+        for (int i = 0; i < count; i++) {
+            int bottom = top + bandHeight + (i < remainder ? 1 : 0);
+            bands[i] = new Rect(rect.left, top, rect.right, bottom);
+            top = bottom;
+        }
+        return bands;
+    }
+
+    private static abstract class BandTask implements Runnable {
+
+        protected final ByteBuffer mBuffer;
+        protected final int mRowStride;
+        protected final int mPixelStride;
+        protected final Rect mBand;
+        protected final int mIndex;
+        protected final ColorDetector mDetector;
+        private final Verifier mVerifier;
+        private final CountDownLatch mLatch;
+
+        BandTask(PixelPlane plane, Rect band, int index, CountDownLatch latch, ColorDetector detector, Verifier verifier) {
+            // 每个条带使用独立的视图，position等状态互不干扰；按小端读取时低字节为R。
+            // duplicate()会沿用原缓冲区当前的position(其他迭代器可能移动过它)，而asIntBuffer()从position开始，因此先归零
+            ByteBuffer buffer = plane.getBuffer().duplicate();
+            buffer.clear();
+            mBuffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+            mRowStride = plane.getRowStride();
+            mPixelStride = plane.getPixelStride();
+            mBand = band;
+            mIndex = index;
+            mLatch = latch;
+            mDetector = detector;
+            mVerifier = verifier;
+        }
+
+        @Override
+        public void run() {
+            try {
+                scan();
+            } finally {
+                mLatch.countDown();
+            }
+        }
+
+        private void scan() {
+            if (mPixelStride == 4 && mRowStride % 4 == 0 && mDetector instanceof ColorDetector.AbstractColorDetector) {
+                scanRows((ColorDetector.AbstractColorDetector) mDetector);
+            } else {
+                scanPixels();
+            }
+        }
+
+        /**
+         * 把每一行批量复制到可复用的int数组中，交给检测器的detectRow处理
+         */
+        private void scanRows(ColorDetector.AbstractColorDetector detector) {
+            IntBuffer buffer = mBuffer.asIntBuffer();
+            int left = mBand.left;
+            int width = mBand.width();
+            int intsPerRow = mRowStride / 4;
+            int[] row = new int[width];
+            for (int y = mBand.top; y < mBand.bottom; y++) {
+                if (shouldStop() || Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                buffer.position(y * intsPerRow + left);
+                buffer.get(row, 0, width);
+                int i = -1;
+                while ((i = detector.detectRow(row, i + 1, width)) >= 0) {
+                    if (!onHit(left + i, y)) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void scanPixels() {
+            ByteBuffer buffer = mBuffer;
+            ColorDetector detector = mDetector;
+            int left = mBand.left;
+            int right = mBand.right;
+            int pixelStride = mPixelStride;
+            for (int y = mBand.top; y < mBand.bottom; y++) {
+                if (shouldStop() || Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                int offset = y * mRowStride + left * pixelStride;
+                for (int x = left; x < right; x++, offset += pixelStride) {
+                    int c = buffer.getInt(offset);
+                    if (detector.detectsColor(c & 0xff, (c >> 8) & 0xff, (c >> 16) & 0xff)) {
+                        if (!onHit(x, y)) {
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+
+        private boolean onHit(int x, int y) {
+            if (mVerifier != null && !mVerifier.verify(mBuffer, x, y)) {
+                return true;
+            }
+            return onFound(x, y);
+        }
+
+        protected abstract boolean shouldStop();
+
+        /**
+         * @return 是否继续扫描
+         */
+        protected abstract boolean onFound(int x, int y);
+    }
+
+    private static class FindFirstTask extends BandTask {
+
+        private final Point[] mResults;
+        private final AtomicInteger mFirstBand;
+
+        FindFirstTask(PixelPlane plane, Rect band, int index, CountDownLatch latch, ColorDetector detector,
+                      Verifier verifier, Point[] results, AtomicInteger firstBand) {
+            super(plane, band, index, latch, detector, verifier);
+            mResults = results;
+            mFirstBand = firstBand;
+        }
+
+        @Override
+        protected boolean shouldStop() {
+            // 上方的条带已经找到结果，本条带的结果不会再被采用
+            return mFirstBand.get() < mIndex;
+        }
+
+        @Override
+        protected boolean onFound(int x, int y) {
+            mResults[mIndex] = new Point(x, y);
+            int current;
+            while ((current = mFirstBand.get()) > mIndex && !mFirstBand.compareAndSet(current, mIndex)) ;
+            return false;
+        }
+    }
+
+    private static class FindAllTask extends BandTask {
+
+        private final List<Point> mResult;
+        private final AtomicBoolean mCancelled;
+
+        FindAllTask(PixelPlane plane, Rect band, int index, CountDownLatch latch, ColorDetector detector,
+                    Verifier verifier, List<Point> result, AtomicBoolean cancelled) {
+            super(plane, band, index, latch, detector, verifier);
+            mResult = result;
+            mCancelled = cancelled;
+        }
+
+        @Override
+        protected boolean shouldStop() {
+            return mCancelled.get();
+        }
+
+        @Override
+        protected boolean onFound(int x, int y) {
+            mResult.add(new Point(x, y));
+            return true;
+        }
+    }
+}
@@ -26,20 +26,28 @@ import com.stardust.util.ScreenMetrics;
 @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
 public class ScreenCapturer {
 
+    /**
+     * ImageReader的缓冲区数量。发布中的最新帧和脚本正在使用的帧各占一个，
+     * 还需要留一个给acquireLatestImage()，这样获取新帧时不必等待脚本释放旧帧。
+     */
+    private static final int MAX_IMAGES = 3;
+
     private static final String LOG_TAG = "ScreenCapturer";
     private ImageReader mImageReader;
     private MediaProjection mMediaProjection;
     private VirtualDisplay mVirtualDisplay;
     private volatile Looper mImageAcquireLooper;
-    private final Object mImageWaitingLock = new Object();
-    private volatile Image mImage;
-    private volatile Image mLatestImage;
+    private final Object mFrameLock = new Object();
+    // 以下字段由mFrameLock保护
+    private Image mLatestImage;
+    private long mLatestSequence;
+    private Image mHeldImage;
+    private long mHeldSequence;
+    private boolean mReleased;
     private final int mScreenWidth;
     private final int mScreenHeight;
     private final int mScreenDensity;
     private Handler mHandler;
-    private volatile boolean mImageAvailable = false;
-
     public ScreenCapturer(Context context, Intent data, int screenWidth, int screenHeight, int screenDensity, Handler handler) {
         mScreenWidth = screenWidth;
         mScreenHeight = screenHeight;
@@ -60,7 +68,7 @@ public class ScreenCapturer {
     }
 
     private void initVirtualDisplay(MediaProjectionManager manager, Intent data, int screenWidth, int screenHeight, int screenDensity) {
-        mImageReader = ImageReader.newInstance(screenWidth, screenHeight, PixelFormat.RGBA_8888, 1);
+        mImageReader = ImageReader.newInstance(screenWidth, screenHeight, PixelFormat.RGBA_8888, MAX_IMAGES);
         mMediaProjection = manager.getMediaProjection(Activity.RESULT_OK, data);
         mVirtualDisplay = mMediaProjection.createVirtualDisplay("screen-mirror",
                 screenWidth, screenHeight, screenDensity, DisplayManager.VIRTUAL_DISPLAY_FLAG_AUTO_MIRROR,
@@ -87,31 +95,105 @@ public class ScreenCapturer {
         mImageReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
             @Override
             public void onImageAvailable(ImageReader reader) {
-                if (mImageAvailable) {
+                Image image;
+                try {
+                    image = reader.acquireLatestImage();
+                } catch (IllegalStateException e) {
+                    // 缓冲区都被占用，等脚本释放后的下一帧再取
+                    Log.w(LOG_TAG, "acquireLatestImage", e);
                     return;
                 }
-                mLatestImage = reader.acquireLatestImage();
-                if (mLatestImage != null) {
-                    mImageAvailable = true;
-                    synchronized (mImageWaitingLock) {
-                        mImageWaitingLock.notify();
-                    }
+                if (image != null) {
+                    publish(image);
                 }
             }
         }, handler);
     }
 
+    private void publish(Image image) {
+        synchronized (mFrameLock) {
+            if (mReleased) {
+                tryClose(image);
+                return;
+            }
+            if (mLatestImage != null && mLatestImage != mHeldImage) {
+                tryClose(mLatestImage);
+            }
+            mLatestImage = image;
+            mLatestSequence++;
+            mFrameLock.notifyAll();
+        }
+    }
+
+    /**
+     * 获取最新的一帧，在第一帧到来之前阻塞。
+     * 返回的Image在下一次capture()或tryCapture()返回其他帧之前都有效，调用者不需要关闭它。
+     */
     @Nullable
     public Image capture() {
-        if (!mImageAvailable) {
-            waitForImageAvailable();
-            return mLatestImage;
+        synchronized (mFrameLock) {
+            while (mLatestImage == null && !mReleased) {
+                Log.d(LOG_TAG, "waitForImageAvailable");
+                try {
+                    mFrameLock.wait();
+                } catch (InterruptedException e) {
+                    throw new ScriptInterruptedException();
+                }
+            }
+            return holdLatestImage();
+        }
+    }
+
+    /**
+     * 非阻塞地获取最新的一帧。
+     *
+     * @param afterSequence 只有帧序号大于该值时才返回，传入-1表示不限制
+     * @return 最新的一帧；还没有满足条件的帧时返回null
+     */
+    @Nullable
+    public Image tryCapture(long afterSequence) {
+        synchronized (mFrameLock) {
+            if (mLatestImage == null || mLatestSequence <= afterSequence) {
+                return null;
+            }
+            return holdLatestImage();
+        }
+    }
+
+    private Image holdLatestImage() {
+        if (mHeldImage != null && mHeldImage != mLatestImage) {
+            tryClose(mHeldImage);
+        }
+        mHeldImage = mLatestImage;
+        mHeldSequence = mLatestSequence;
+        return mHeldImage;
+    }
+
+    /**
+     * @return 最近一次capture()或tryCapture()返回的帧的序号，从1开始递增
+     */
+    public long getFrameSequence() {
+        synchronized (mFrameLock) {
+            return mHeldSequence;
         }
-        if (mLatestImage != null) {
-            tryClose(mLatestImage);
+    }
+
+    /**
+     * @return 已收到的最新帧的序号，可用于判断画面是否有更新
+     */
+    public long getLatestFrameSequence() {
+        synchronized (mFrameLock) {
+            return mLatestSequence;
+        }
+    }
+
+    /**
+     * @return 最近一次capture()或tryCapture()返回的帧的时间戳(纳秒)
+     */
+    public long getFrameTimestamp() {
+        synchronized (mFrameLock) {
+            return mHeldImage == null ? 0 : mHeldImage.getTimestamp();
         }
-        mLatestImage = mImageReader.acquireLatestImage();
-        return mLatestImage;
     }
 
     private void tryClose(Image image) {
@@ -122,17 +204,6 @@ public class ScreenCapturer {
         }
     }
 
-    private void waitForImageAvailable() {
-        Log.d(LOG_TAG, "waitForImageAvailable");
-        synchronized (mImageWaitingLock) {
-            try {
-                mImageWaitingLock.wait();
-            } catch (InterruptedException e) {
-                throw new ScriptInterruptedException();
-            }
-        }
-    }
-
     public int getScreenWidth() {
         return mScreenWidth;
     }
@@ -159,11 +230,17 @@ public class ScreenCapturer {
         if (mImageAcquireLooper != null) {
             mImageAcquireLooper.quit();
         }
-        if (mImage != null) {
-            mImage.close();
-        }
-        if (mLatestImage != null) {
-            mLatestImage.close();
+        synchronized (mFrameLock) {
+            mReleased = true;
+            if (mHeldImage != null) {
+                tryClose(mHeldImage);
+            }
+            if (mLatestImage != null && mLatestImage != mHeldImage) {
+                tryClose(mLatestImage);
+            }
+            mHeldImage = null;
+            mLatestImage = null;
+            mFrameLock.notifyAll();
         }
     }
 }
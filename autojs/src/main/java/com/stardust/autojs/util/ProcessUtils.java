@@ -3,6 +3,8 @@ package com.stardust.autojs.util;
 import android.util.Log;
 
 import com.stardust.autojs.runtime.api.ProcessShell;
+import com.stardust.pio.PFiles;
+import com.stardust.pio.UncheckedIOException;
 
 import java.lang.reflect.Field;
 
@@ -14,6 +16,8 @@ public class ProcessUtils {
 
 
     private static final String LOG_TAG = "ProcessUtils";
+    // Android上的USER_HZ
+    private static final int CLOCK_TICKS_PER_SECOND = 100;
 
     // FIXME: 2017/8/3
     public static void killProcessTree(Process process) {
@@ -35,9 +39,38 @@ public class ProcessUtils {
         }
     }
 
+    /**
+     * 从/proc读取线程已使用的CPU时间(用户态+内核态)，精度为一个时钟节拍(10ms)。
+     * 只能读取本进程的线程。
+     *
+     * @return 毫秒数，读取失败时返回-1
+     */
+    public static long getThreadCpuTime(int tid) {
+        String stat;
+        try {
+            stat = PFiles.read("/proc/self/task/" + tid + "/stat");
+        } catch (UncheckedIOException e) {
+            return -1;
+        }
+        // 线程名可能包含空格和括号，从最后一个')'之后开始解析。之后第12、13个字段为utime、stime
+        int i = stat.lastIndexOf(')');
+        if (i < 0) {
+            return -1;
+        }
+        String[] fields = stat.substring(i + 2).split(" ");
+        if (fields.length < 13) {
+            return -1;
+        }
+        try {
+            return (Long.parseLong(fields[11]) + Long.parseLong(fields[12])) * 1000 / CLOCK_TICKS_PER_SECOND;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     public static void kill(int pid) {
         String cmd = "kill -TERM -- -" + pid;
         Log.d(LOG_TAG, cmd);
-        ProcessShell.exec(cmd, true);
+        ProcessShell.execInNewShell(cmd, true);
     }
 }
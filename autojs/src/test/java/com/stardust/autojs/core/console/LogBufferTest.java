@@ -0,0 +1,77 @@
+package com.stardust.autojs.core.console;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created by Stardust on 2017/11/3.
+ */
+public class LogBufferTest {
+
+    @Test
+    public void readNewLogs() {
+        LogBuffer<Integer> buffer = new LogBuffer<>(8);
+        List<Integer> out = new ArrayList<>();
+        buffer.add(0);
+        buffer.add(1);
+        long next = buffer.read(0, out);
+        assertEquals(2, next);
+        buffer.add(2);
+        next = buffer.read(next, out);
+        assertEquals(3, next);
+        assertEquals("[0, 1, 2]", out.toString());
+    }
+
+    @Test
+    public void overwriteOldest() {
+        LogBuffer<Integer> buffer = new LogBuffer<>(5);
+        assertEquals(8, buffer.getCapacity());
+        for (int i = 0; i < 20; i++) {
+            buffer.add(i);
+        }
+        List<Integer> out = new ArrayList<>();
+        assertEquals(20, buffer.read(3, out));
+        assertEquals("[12, 13, 14, 15, 16, 17, 18, 19]", out.toString());
+        assertEquals(8, buffer.size());
+    }
+
+    @Test
+    public void clear() {
+        LogBuffer<Integer> buffer = new LogBuffer<>(8);
+        buffer.add(0);
+        buffer.add(1);
+        buffer.clear();
+        buffer.add(2);
+        List<Integer> out = new ArrayList<>();
+        buffer.read(0, out);
+        assertEquals("[2]", out.toString());
+        assertEquals(1, buffer.size());
+    }
+
+    @Test
+    public void concurrentWriters() throws InterruptedException {
+        final LogBuffer<Integer> buffer = new LogBuffer<>(1 << 16);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        buffer.add(i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        List<Integer> out = new ArrayList<>();
+        assertEquals(40000, buffer.read(0, out));
+        assertEquals(40000, out.size());
+    }
+}
@@ -0,0 +1,70 @@
+package com.stardust.autojs.core.console;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by Stardust on 2017/11/3.
+ */
+public class LogFileSinkTest {
+
+    private File mDir;
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("logs", "");
+        mDir.delete();
+        mFile = new File(mDir, "log.txt");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void filterLevel() throws InterruptedException {
+        LogFileSink sink = new LogFileSink(mFile, Log.INFO, 0, 0);
+        assertFalse(sink.offer(Log.DEBUG, "debug", true));
+        assertTrue(sink.offer(Log.INFO, "info", true));
+        assertTrue(sink.offer(Log.ERROR, "err", false));
+        assertTrue(sink.offer(Log.ERROR, "or", true));
+        sink.close();
+        sink.awaitTermination(5000);
+        assertFalse(sink.offer(Log.ERROR, "closed", true));
+        // 两行，每行开头一个时间
+        assertEquals(2 * "yyyy-MM-dd HH:mm:ss.SSS X: ".length() + "info\nerror\n".length(), mFile.length());
+    }
+
+    @Test
+    public void rotate() throws InterruptedException {
+        LogFileSink sink = new LogFileSink(mFile, Log.VERBOSE, 200, 2);
+        for (int i = 0; i < 100; i++) {
+            sink.offer(Log.DEBUG, "line " + i, true);
+        }
+        sink.close();
+        sink.awaitTermination(5000);
+        assertTrue(mFile.exists());
+        assertTrue(new File(mFile.getPath() + ".1").exists());
+        assertTrue(new File(mFile.getPath() + ".2").exists());
+        assertFalse(new File(mFile.getPath() + ".3").exists());
+        assertTrue(mFile.length() < 200 + 64);
+    }
+}
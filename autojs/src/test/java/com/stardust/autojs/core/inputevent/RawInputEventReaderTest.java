@@ -0,0 +1,64 @@
+package com.stardust.autojs.core.inputevent;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by Stardust on 2017/11/1.
+ */
+public class RawInputEventReaderTest {
+
+    @Test
+    public void read32() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RawInputEventReader.RECORD_SIZE_32 * 2).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(1234).putInt(500000).putShort((short) 3).putShort((short) 0x35).putInt(420);
+        buffer.putInt(1235).putInt(0).putShort((short) 1).putShort((short) 0x74).putInt(-1);
+        RawInputEventReader reader = new RawInputEventReader(new ByteArrayInputStream(buffer.array()), 2, false);
+        InputEventObserver.InputEvent event = new InputEventObserver.InputEvent();
+        assertTrue(reader.read(event));
+        assertEquals(1234.5, event.time, 1e-9);
+        assertEquals(2, event.device);
+        assertEquals(3, event.type);
+        assertEquals(0x35, event.code);
+        assertEquals(420, event.value);
+        assertTrue(reader.read(event));
+        assertEquals(0x74, event.code);
+        assertEquals(-1, event.value);
+        assertFalse(reader.read(event));
+    }
+
+    @Test
+    public void read64() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RawInputEventReader.RECORD_SIZE_64).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(99).putLong(250000).putShort((short) 0xffff).putShort((short) 0x36).putInt(7);
+        RawInputEventReader reader = new RawInputEventReader(new ByteArrayInputStream(buffer.array()), 5, true);
+        InputEventObserver.InputEvent event = new InputEventObserver.InputEvent();
+        assertTrue(reader.read(event));
+        assertEquals(99.25, event.time, 1e-9);
+        assertEquals(0xffff, event.type);
+        assertEquals(0x36, event.code);
+        assertEquals(7, event.value);
+    }
+
+    @Test
+    public void parseGetEventLine() {
+        InputEventObserver.InputEvent event = new InputEventObserver.InputEvent();
+        assertTrue(InputEventObserver.InputEvent.parse("[   1234.567890] /dev/input/event2: 0003 0035 000001a4", event));
+        assertEquals(1234.56789, event.time, 1e-9);
+        assertEquals(2, event.device);
+        assertEquals(3, event.type);
+        assertEquals(0x35, event.code);
+        assertEquals(0x1a4, event.value);
+        assertTrue(InputEventObserver.InputEvent.parse("[ 1.0] /dev/input/event0: 0003 0039 ffffffff", event));
+        assertEquals(-1, event.value);
+        assertFalse(InputEventObserver.InputEvent.parse("add device 1: /dev/input/event2", event));
+    }
+}
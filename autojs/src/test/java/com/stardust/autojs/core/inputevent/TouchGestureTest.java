@@ -0,0 +1,49 @@
+package com.stardust.autojs.core.inputevent;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created by Stardust on 2017/10/31.
+ */
+public class TouchGestureTest {
+
+    @Test
+    public void swipeIsSampledAtReportRate() {
+        List<TouchGesture.Frame> frames = TouchGesture.plan(100,
+                new TouchGesture.Stroke(1, 0, 100).moveTo(0, 0).lineTo(100, 0));
+        // 按下 + 9次移动 + 到达终点 + 抬起
+        assertEquals(12, frames.size());
+        assertEquals(TouchGesture.ACTION_DOWN, frames.get(0).getAction(0));
+        assertEquals(50, frames.get(5).getX(0));
+        assertEquals(50000000L, frames.get(5).getTimeNanos());
+        assertEquals(100, frames.get(10).getX(0));
+        assertEquals(TouchGesture.ACTION_UP, frames.get(11).getAction(0));
+        assertEquals(100000000L, frames.get(11).getTimeNanos());
+    }
+
+    @Test
+    public void fingersShareFrames() {
+        List<TouchGesture.Frame> frames = TouchGesture.plan(100,
+                new TouchGesture.Stroke(1, 0, 100).moveTo(0, 0).lineTo(100, 0),
+                new TouchGesture.Stroke(2, 0, 100).moveTo(0, 100).cubicTo(0, 0, 100, 0, 100, 100));
+        assertEquals(12, frames.size());
+        for (TouchGesture.Frame frame : frames) {
+            assertEquals(2, frame.getContactCount());
+        }
+        assertEquals(100, frames.get(10).getX(1));
+        assertEquals(100, frames.get(10).getY(1));
+    }
+
+    @Test
+    public void tapHasNoMoves() {
+        List<TouchGesture.Frame> frames = TouchGesture.plan(120,
+                new TouchGesture.Stroke(1, 0, 0).moveTo(10, 20));
+        assertEquals(2, frames.size());
+        assertEquals(TouchGesture.ACTION_DOWN, frames.get(0).getAction(0));
+        assertEquals(TouchGesture.ACTION_UP, frames.get(1).getAction(0));
+    }
+}
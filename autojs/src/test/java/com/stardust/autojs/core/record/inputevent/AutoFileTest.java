@@ -0,0 +1,174 @@
+package com.stardust.autojs.core.record.inputevent;
+
+import com.stardust.autojs.core.inputevent.InputEventCodes;
+import com.stardust.autojs.core.inputevent.InputEventObserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by Stardust on 2017/11/2.
+ */
+public class AutoFileTest {
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("test", ".auto");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    /**
+     * 每10毫秒一帧，共frames帧，x每帧增加1，y每帧减少2
+     */
+    private void record(int frames, boolean close) throws IOException {
+        AutoFileWriter writer = new AutoFileWriter(new BufferedOutputStream(new FileOutputStream(mFile)), 1080, 1920);
+        for (int i = 0; i < frames; i++) {
+            writer.writeEvent(i * 10, InputEventCodes.EV_ABS, InputEventCodes.ABS_MT_TRACKING_ID, i % 3 == 0 ? -1 : 1);
+            writer.writeEvent(i * 10, InputEventCodes.EV_ABS, InputEventCodes.ABS_MT_POSITION_X, 500 + i);
+            writer.writeEvent(i * 10, InputEventCodes.EV_ABS, InputEventCodes.ABS_MT_POSITION_Y, 1000 - 2 * i);
+            writer.writeEvent(i * 10, InputEventCodes.EV_SYN, InputEventCodes.SYN_REPORT, 0);
+        }
+        if (close) {
+            writer.close();
+        } else {
+            writer.close();
+            // 去掉索引和结尾，模拟录制中途被中断
+            RandomAccessFile f = new RandomAccessFile(mFile, "rw");
+            f.seek(f.length() - 12);
+            long indexOffset = f.readLong();
+            f.setLength(indexOffset);
+            f.close();
+        }
+    }
+
+    private void assertFrame(AutoFileReader reader, int i) throws IOException {
+        InputEventObserver.InputEvent event = new InputEventObserver.InputEvent();
+        assertTrue(reader.next(event));
+        assertEquals(i * 10, Math.round(event.time * 1000));
+        assertEquals(InputEventCodes.ABS_MT_TRACKING_ID, event.code);
+        assertEquals(i % 3 == 0 ? -1 : 1, event.value);
+        assertTrue(reader.next(event));
+        assertEquals(InputEventCodes.ABS_MT_POSITION_X, event.code);
+        assertEquals(500 + i, event.value);
+        assertTrue(reader.next(event));
+        assertEquals(InputEventCodes.ABS_MT_POSITION_Y, event.code);
+        assertEquals(1000 - 2 * i, event.value);
+        assertTrue(reader.next(event));
+        assertEquals(InputEventCodes.EV_SYN, event.type);
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        record(500, true);
+        assertEquals(AutoFileWriter.VERSION, AutoFileReader.readVersion(mFile));
+        AutoFileReader reader = new AutoFileReader(mFile);
+        assertEquals(1080, reader.getWidth());
+        assertEquals(1920, reader.getHeight());
+        for (int i = 0; i < 500; i++) {
+            assertFrame(reader, i);
+        }
+        assertFalse(reader.next(new InputEventObserver.InputEvent()));
+        reader.close();
+    }
+
+    @Test
+    public void seekToKeyFrame() throws IOException {
+        record(500, true);
+        AutoFileReader reader = new AutoFileReader(mFile);
+        // 每块不超过1000毫秒，3500毫秒处之前的关键帧在3000毫秒以后
+        reader.seek(3500);
+        InputEventObserver.InputEvent event = new InputEventObserver.InputEvent();
+        assertTrue(reader.next(event));
+        long time = Math.round(event.time * 1000);
+        assertTrue(time <= 3500 && time > 2000);
+        reader.seek(time);
+        assertFrame(reader, (int) (time / 10));
+        reader.seek(0);
+        assertFrame(reader, 0);
+        reader.close();
+    }
+
+    @Test
+    public void readWithoutIndex() throws IOException {
+        record(300, false);
+        AutoFileReader reader = new AutoFileReader(mFile);
+        reader.seek(1500);
+        InputEventObserver.InputEvent event = new InputEventObserver.InputEvent();
+        assertTrue(reader.next(event));
+        long time = Math.round(event.time * 1000);
+        reader.seek(time);
+        for (int i = (int) (time / 10); i < 300; i++) {
+            assertFrame(reader, i);
+        }
+        reader.close();
+    }
+
+    @Test
+    public void playRangeInMiddleOfDrag() throws IOException, InterruptedException {
+        AutoFileWriter writer = new AutoFileWriter(new BufferedOutputStream(new FileOutputStream(mFile)), 1080, 1920);
+        writer.writeEvent(0, InputEventCodes.EV_ABS, InputEventCodes.ABS_MT_TRACKING_ID, 7);
+        writer.writeEvent(0, InputEventCodes.EV_KEY, InputEventCodes.BTN_TOUCH, 1);
+        for (int i = 0; i < 300; i++) {
+            writer.writeEvent(i * 10, InputEventCodes.EV_ABS, InputEventCodes.ABS_MT_POSITION_X, 100 + i);
+            writer.writeEvent(i * 10, InputEventCodes.EV_ABS, InputEventCodes.ABS_MT_POSITION_Y, 200 + i);
+            writer.writeEvent(i * 10, InputEventCodes.EV_SYN, InputEventCodes.SYN_REPORT, 0);
+        }
+        writer.writeEvent(3000, InputEventCodes.EV_ABS, InputEventCodes.ABS_MT_TRACKING_ID, -1);
+        writer.writeEvent(3000, InputEventCodes.EV_KEY, InputEventCodes.BTN_TOUCH, 0);
+        writer.writeEvent(3000, InputEventCodes.EV_SYN, InputEventCodes.SYN_REPORT, 0);
+        writer.close();
+
+        final List<int[]> events = new ArrayList<>();
+        AutoFileReader reader = new AutoFileReader(mFile);
+        new AutoFilePlayer(reader, new AutoFilePlayer.EventSink() {
+            @Override
+            public void sendEvent(int type, int code, int value) {
+                events.add(new int[]{type, code, value});
+            }
+        }).range(1500, 2000).speed(100).loopTimes(2).play();
+        reader.close();
+
+        // 每次播放都以按下开始，以抬起结束
+        int downs = 0, ups = 0;
+        boolean down = false;
+        for (int[] e : events) {
+            if (e[1] == InputEventCodes.ABS_MT_TRACKING_ID) {
+                if (e[2] == -1) {
+                    assertTrue(down);
+                    ups++;
+                } else {
+                    assertFalse(down);
+                    assertEquals(7, e[2]);
+                    downs++;
+                }
+                down = e[2] != -1;
+            } else if (e[1] == InputEventCodes.ABS_MT_POSITION_X) {
+                assertTrue(down);
+            }
+        }
+        assertEquals(2, downs);
+        assertEquals(2, ups);
+        int[] last = events.get(events.size() - 1);
+        assertEquals(InputEventCodes.SYN_REPORT, last[1]);
+        assertEquals(InputEventCodes.EV_SYN, last[0]);
+    }
+}
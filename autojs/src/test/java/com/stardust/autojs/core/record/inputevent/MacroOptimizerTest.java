@@ -0,0 +1,112 @@
+package com.stardust.autojs.core.record.inputevent;
+
+import com.stardust.autojs.core.inputevent.InputEventCodes;
+import com.stardust.autojs.core.inputevent.InputEventObserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by Stardust on 2017/11/3.
+ */
+public class MacroOptimizerTest {
+
+    private File mInput;
+    private File mOutput;
+
+    @Before
+    public void setUp() throws IOException {
+        mInput = File.createTempFile("input", ".auto");
+        mOutput = File.createTempFile("output", ".auto");
+    }
+
+    @After
+    public void tearDown() {
+        mInput.delete();
+        mOutput.delete();
+    }
+
+    /**
+     * 一次沿直线的滑动(100个移动帧)，空闲5秒后一次点击
+     */
+    private void record() throws IOException {
+        AutoFileWriter writer = new AutoFileWriter(new BufferedOutputStream(new FileOutputStream(mInput)), 1080, 1920);
+        touch(writer, 0, 1, 100, 100);
+        for (int i = 1; i <= 100; i++) {
+            writer.writeEvent(i * 8, InputEventCodes.EV_ABS, InputEventCodes.ABS_MT_POSITION_X, 100 + 5 * i);
+            writer.writeEvent(i * 8, InputEventCodes.EV_ABS, InputEventCodes.ABS_MT_POSITION_Y, 100 + 10 * i);
+            writer.writeEvent(i * 8, InputEventCodes.EV_SYN, InputEventCodes.SYN_REPORT, 0);
+        }
+        up(writer, 810);
+        touch(writer, 5810, 2, 300, 300);
+        up(writer, 5900);
+        writer.close();
+    }
+
+    private static void touch(AutoFileWriter writer, long time, int id, int x, int y) throws IOException {
+        writer.writeEvent(time, InputEventCodes.EV_ABS, InputEventCodes.ABS_MT_TRACKING_ID, id);
+        writer.writeEvent(time, InputEventCodes.EV_ABS, InputEventCodes.ABS_MT_POSITION_X, x);
+        writer.writeEvent(time, InputEventCodes.EV_ABS, InputEventCodes.ABS_MT_POSITION_Y, y);
+        writer.writeEvent(time, InputEventCodes.EV_SYN, InputEventCodes.SYN_REPORT, 0);
+    }
+
+    private static void up(AutoFileWriter writer, long time) throws IOException {
+        writer.writeEvent(time, InputEventCodes.EV_ABS, InputEventCodes.ABS_MT_TRACKING_ID, -1);
+        writer.writeEvent(time, InputEventCodes.EV_SYN, InputEventCodes.SYN_REPORT, 0);
+    }
+
+    @Test
+    public void optimize() throws IOException {
+        record();
+        MacroOptimizer.Report report = new MacroOptimizer().tolerance(2).maxIdle(1000).optimize(mInput, mOutput);
+        assertEquals(312, report.originalEvents);
+        assertEquals(5900, report.originalDuration);
+        // 滑动只剩按下和终点，空闲的5秒缩短为1秒
+        assertEquals(15, report.optimizedEvents);
+        assertEquals(1900, report.optimizedDuration);
+        assertTrue(report.optimizedSize < report.originalSize);
+
+        AutoFileReader reader = new AutoFileReader(mOutput);
+        InputEventObserver.InputEvent event = new InputEventObserver.InputEvent();
+        int count = 0, x = 0, y = 0;
+        long upTime = -1;
+        while (reader.next(event)) {
+            count++;
+            if (event.code == InputEventCodes.ABS_MT_POSITION_X) {
+                x = event.value;
+            } else if (event.code == InputEventCodes.ABS_MT_POSITION_Y) {
+                y = event.value;
+            } else if (event.code == InputEventCodes.ABS_MT_TRACKING_ID && event.value == -1 && upTime < 0) {
+                upTime = Math.round(event.time * 1000);
+                // 抬起前的位置应当是滑动的终点
+                assertEquals(600, x);
+                assertEquals(1100, y);
+            }
+        }
+        reader.close();
+        assertEquals(15, count);
+        assertEquals(810, upTime);
+        assertEquals(300, x);
+        assertEquals(300, y);
+    }
+
+    @Test
+    public void optimizeToJs() throws IOException {
+        record();
+        StringBuilder js = new StringBuilder();
+        MacroOptimizer.Report report = new MacroOptimizer().optimizeToJs(mInput, js);
+        assertEquals(15, report.optimizedEvents);
+        assertTrue(js.toString().startsWith("var ra = new RootAutomator();\nra.setScreenMetrics(1080, 1920);\n"));
+        assertTrue(js.toString().contains("sleep(1000);\n"));
+        assertTrue(js.toString().endsWith("ra.exit();"));
+    }
+}
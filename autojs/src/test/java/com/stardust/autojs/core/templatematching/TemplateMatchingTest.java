@@ -0,0 +1,112 @@
+package com.stardust.autojs.core.templatematching;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Created by Stardust on 2017/10/28.
+ */
+public class TemplateMatchingTest {
+
+    private static GrayImage randomImage(int width, int height, long seed) {
+        Random random = new Random(seed);
+        byte[] pixels = new byte[width * height];
+        // 由随机色块组成，类似界面截图，避免金字塔缩小后变成噪声
+        int[] blocks = new int[(width / 8 + 1) * (height / 8 + 1)];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = random.nextInt(256);
+        }
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = (byte) ((blocks[(y / 8) * (width / 8 + 1) + x / 8] + x / 4) & 0xff);
+            }
+        }
+        return new GrayImage(width, height, pixels);
+    }
+
+    private static GrayImage crop(GrayImage image, int left, int top, int width, int height) {
+        byte[] pixels = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(image.getPixels(), (top + y) * image.getWidth() + left, pixels, y * width, width);
+        }
+        return new GrayImage(width, height, pixels);
+    }
+
+    private void match(int method) {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            GrayImage source = randomImage(320, 480, 1);
+            Template template = new Template(crop(source, 137, 291, 48, 40), TemplateMatching.DEFAULT_MAX_LEVEL);
+            TemplateMatching matching = new TemplateMatching(executor);
+            TemplateMatching.Match match = matching.match(source, template, 0.95f, method, TemplateMatching.DEFAULT_MAX_LEVEL, 4);
+            assertNotNull(match);
+            assertEquals(137, match.x);
+            assertEquals(291, match.y);
+
+            Template other = new Template(randomImage(48, 40, 2), TemplateMatching.DEFAULT_MAX_LEVEL);
+            assertNull(matching.match(source, other, 0.95f, method, TemplateMatching.DEFAULT_MAX_LEVEL, 4));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void matchNcc() {
+        match(TemplateMatching.MATCHING_METHOD_NCC);
+    }
+
+    @Test
+    public void matchSad() {
+        match(TemplateMatching.MATCHING_METHOD_SAD);
+    }
+
+    private static GrayImage flatImage(int width, int height, int value) {
+        byte[] pixels = new byte[width * height];
+        Arrays.fill(pixels, (byte) value);
+        return new GrayImage(width, height, pixels);
+    }
+
+    @Test
+    public void matchFlatTemplateNcc() {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            GrayImage source = randomImage(320, 480, 1);
+            for (int y = 200; y < 240; y++) {
+                Arrays.fill(source.getPixels(), y * 320 + 100, y * 320 + 148, (byte) 77);
+            }
+            TemplateMatching matching = new TemplateMatching(executor);
+            // 纯色模板没有方差，不能让所有平均亮度相同的位置都得到1
+            Template flat = new Template(flatImage(48, 40, 77), TemplateMatching.DEFAULT_MAX_LEVEL);
+            TemplateMatching.Match match = matching.match(source, flat, 0.95f, TemplateMatching.MATCHING_METHOD_NCC, TemplateMatching.DEFAULT_MAX_LEVEL, 4);
+            assertNotNull(match);
+            assertEquals(100, match.x);
+            assertEquals(200, match.y);
+
+            Template other = new Template(flatImage(48, 40, 200), TemplateMatching.DEFAULT_MAX_LEVEL);
+            assertNull(matching.match(source, other, 0.95f, TemplateMatching.MATCHING_METHOD_NCC, TemplateMatching.DEFAULT_MAX_LEVEL, 4));
+            assertNull(matching.match(randomImage(320, 480, 3), flat, 0.95f, TemplateMatching.MATCHING_METHOD_NCC, TemplateMatching.DEFAULT_MAX_LEVEL, 4));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void pyrDown() {
+        byte[] pixels = new byte[5 * 3];
+        Arrays.fill(pixels, (byte) 200);
+        GrayImage down = new GrayImage(5, 3, pixels).pyrDown();
+        assertEquals(2, down.getWidth());
+        assertEquals(1, down.getHeight());
+        assertEquals(200, down.get(0, 0));
+        assertEquals(200, down.get(1, 0));
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.stardust.autojs.engine;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Created by Stardust on 2017/10/29.
+ */
+public class CompiledScriptCacheTest {
+
+    private static Script compile(String source) {
+        Context context = Context.enter();
+        try {
+            context.setOptimizationLevel(-1);
+            return context.compileString(source, "<test>", 1, null);
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private static Object exec(Script script) {
+        Context context = Context.enter();
+        try {
+            Scriptable scope = context.initStandardObjects();
+            return Context.toNumber(script.exec(context, scope));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        CompiledScriptCache cache = new CompiledScriptCache(2);
+        Script a = compile("1");
+        cache.put("a", a);
+        cache.put("b", compile("2"));
+        assertSame(a, cache.get("a"));
+        cache.put("c", compile("3"));
+        assertNull(cache.get("b"));
+        assertSame(a, cache.get("a"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void shareBetweenThreads() throws InterruptedException {
+        final Script script = compile("var i = 0; for (var j = 0; j < 10; j++) i += j; i");
+        final Object[] result = new Object[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result[0] = exec(script);
+            }
+        });
+        thread.start();
+        thread.join();
+        assertEquals(45.0, result[0]);
+        assertEquals(45.0, exec(script));
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.stardust.autojs.rhino;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Created by Stardust on 2017/11/3.
+ */
+public class AndroidContextFactoryTest {
+
+    /**
+     * 记录每次dx的类名, 第一次dx阻塞到release被调用
+     */
+    private static class RecordingDexer implements AndroidClassLoader.Dexer {
+
+        final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public AndroidClassLoader.DexedClasses dex(File jar, File dexFile, File odexFile) throws IOException {
+            final List<String> names = new ArrayList<>();
+            ZipFile zipFile = new ZipFile(jar);
+            try {
+                for (ZipEntry entry : Collections.list(zipFile.entries())) {
+                    String name = entry.getName();
+                    names.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                }
+            } finally {
+                zipFile.close();
+            }
+            batches.add(names);
+            if (batches.size() == 1) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            return new AndroidClassLoader.DexedClasses() {
+                @Override
+                public List<String> getClassNames() {
+                    return names;
+                }
+
+                @Override
+                public Class<?> loadClass(String name, ClassLoader loader) {
+                    return Object.class;
+                }
+            };
+        }
+    }
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private static Thread define(final AndroidContextFactory factory, final ClassLoader parent, final String name) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                factory.createClassLoader(parent).defineClass(name, new byte[]{0});
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitBlocked(Thread thread) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (thread.getState() != Thread.State.BLOCKED && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void sharesOneLoaderPerParent() throws IOException {
+        AndroidContextFactory factory = new AndroidContextFactory(mTemporaryFolder.newFolder(), new RecordingDexer());
+        ClassLoader parent = getClass().getClassLoader();
+        AndroidClassLoader loader = factory.createClassLoader(parent);
+        assertSame(factory.getApplicationClassLoader(), loader);
+        assertSame(loader, factory.createClassLoader(parent));
+        assertSame(loader, factory.createClassLoader(loader));
+    }
+
+    @Test
+    public void classesDefinedMeanwhileShareOneDex() throws Exception {
+        RecordingDexer dexer = new RecordingDexer();
+        AndroidContextFactory factory = new AndroidContextFactory(mTemporaryFolder.newFolder(), dexer);
+        ClassLoader parent = getClass().getClassLoader();
+        Thread first = define(factory, parent, "gen.Adapter0");
+        dexer.started.await();
+        // 第一次dx进行时, 两个引擎各定义一个类, 它们在同一个加载器中排队
+        Thread second = define(factory, parent, "gen.Adapter1");
+        Thread third = define(factory, parent, "gen.Adapter2");
+        awaitBlocked(second);
+        awaitBlocked(third);
+        dexer.release.countDown();
+        first.join();
+        second.join();
+        third.join();
+        assertEquals(2, dexer.batches.size());
+        assertEquals(Collections.singletonList("gen.Adapter0"), dexer.batches.get(0));
+        assertEquals(new HashSet<>(Arrays.asList("gen.Adapter1", "gen.Adapter2")), new HashSet<>(dexer.batches.get(1)));
+    }
+}
@@ -0,0 +1,82 @@
+package com.stardust.autojs.rhino;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created by Stardust on 2017/10/29.
+ */
+public class InheritedTopLevelTest {
+
+    private Context mContext;
+    private Scriptable mSharedScope;
+
+    @Before
+    public void setUp() {
+        mContext = Context.enter();
+        mContext.setOptimizationLevel(-1);
+        mSharedScope = InheritedTopLevel.createSharedScope(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        Context.exit();
+    }
+
+    private Object eval(Scriptable scope, String script) {
+        return mContext.evaluateString(scope, script, "<test>", 1, null);
+    }
+
+    @Test
+    public void globalsAreNotShared() {
+        InheritedTopLevel a = new InheritedTopLevel(mContext, mSharedScope);
+        InheritedTopLevel b = new InheritedTopLevel(mContext, mSharedScope);
+        eval(a, "var x = 1; function f() { return x + 1; } JSON = 'a';");
+        assertEquals("undefined", eval(b, "typeof x"));
+        assertEquals("object", eval(b, "typeof JSON"));
+        assertEquals(2.0, Context.toNumber(eval(a, "f()")), 0);
+        assertEquals("a", eval(a, "JSON"));
+    }
+
+    @Test
+    public void importClassAndPackage() {
+        InheritedTopLevel a = new InheritedTopLevel(mContext, mSharedScope);
+        InheritedTopLevel b = new InheritedTopLevel(mContext, mSharedScope);
+        eval(a, "importClass(java.util.ArrayList); importPackage(java.lang);");
+        assertEquals("function", eval(a, "typeof ArrayList"));
+        assertEquals("function", eval(a, "typeof StringBuilder"));
+        // 标准库中的String优先于java.lang.String
+        assertEquals("abc", eval(a, "String('abc')"));
+        assertEquals("undefined", eval(b, "typeof ArrayList"));
+        assertEquals("undefined", eval(b, "typeof StringBuilder"));
+    }
+
+    @Test
+    public void builtinsArePerScope() {
+        InheritedTopLevel a = new InheritedTopLevel(mContext, mSharedScope);
+        InheritedTopLevel b = new InheritedTopLevel(mContext, mSharedScope);
+        eval(a, "Array.prototype.foo = 1; Function.prototype.getName = function() { return 'f'; };");
+        assertEquals(1.0, Context.toNumber(eval(a, "[].foo")), 0);
+        assertEquals("f", eval(a, "(function() {}).getName()"));
+        assertEquals("undefined", eval(b, "typeof [].foo"));
+        assertEquals("undefined", eval(b, "typeof Function.prototype.getName"));
+        assertEquals("function", eval(b, "typeof java.util.ArrayList"));
+    }
+
+    @Test
+    public void sharedScopeHasOnlyPackages() {
+        assertEquals(Scriptable.NOT_FOUND, mSharedScope.get("Object", mSharedScope));
+        assertEquals(Scriptable.NOT_FOUND, mSharedScope.get("JavaAdapter", mSharedScope));
+        InheritedTopLevel a = new InheritedTopLevel(mContext, mSharedScope);
+        assertEquals("object", eval(a, "typeof Packages.java"));
+        assertEquals("function", eval(a, "typeof getClass"));
+        assertEquals("function", eval(a, "typeof JavaAdapter"));
+        assertEquals("object", eval(a, "typeof new JavaImporter(java.util)"));
+    }
+
+}
@@ -0,0 +1,147 @@
+package com.stardust.autojs.runtime.api;
+
+import com.stardust.autojs.runtime.ScriptBridges;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Created by Stardust on 2017/11/3.
+ */
+public class TimersTest {
+
+    /**
+     * 手动推进的时钟，只保存最后一次投递的唤醒消息
+     */
+    private static class FakeScheduler implements Timers.Scheduler {
+
+        long now;
+        long wakeupAt = -1;
+        Runnable wakeup;
+        int wakeups;
+
+        @Override
+        public long uptimeMillis() {
+            return now;
+        }
+
+        @Override
+        public void postAtTime(Runnable r, long uptimeMillis) {
+            wakeup = r;
+            wakeupAt = uptimeMillis;
+        }
+
+        @Override
+        public void removeCallbacks(Runnable r) {
+            if (wakeup == r) {
+                wakeup = null;
+                wakeupAt = -1;
+            }
+        }
+
+        /**
+         * 执行下一次唤醒，Looper晚了lateBy毫秒才处理这个消息
+         */
+        void runNext(long lateBy) {
+            Runnable r = wakeup;
+            now = Math.max(now, wakeupAt) + lateBy;
+            wakeup = null;
+            wakeupAt = -1;
+            wakeups++;
+            r.run();
+        }
+    }
+
+    private FakeScheduler mScheduler;
+    private Timers mTimers;
+    private final List<String> mFired = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mScheduler = new FakeScheduler();
+        ScriptBridges bridges = new ScriptBridges();
+        bridges.setFunctionCaller(new ScriptBridges.FunctionCaller() {
+            @Override
+            public Object call(Object func, Object target, Object[] arg) {
+                mFired.add(func + "@" + mScheduler.now);
+                return null;
+            }
+        });
+        mTimers = new Timers(bridges, mScheduler);
+    }
+
+    @Test
+    public void loneTimerFiresOnTime() {
+        mTimers.setTimeout("a", 1000);
+        assertEquals(1000, mScheduler.wakeupAt);
+        mScheduler.runNext(0);
+        assertEquals(Arrays.asList("a@1000"), mFired);
+        assertEquals(0, mTimers.getPendingCount());
+        assertEquals(-1, mScheduler.wakeupAt);
+    }
+
+    @Test
+    public void nearbyTimersShareOneWakeup() {
+        // a最晚可以推迟到1050，b的触发时间在此之前，两者在b的触发时间一起执行
+        mTimers.setTimeout("a", 1000);
+        mTimers.setTimeout("b", 1020);
+        mTimers.setTimeout("c", 2000);
+        assertEquals(1020, mScheduler.wakeupAt);
+        mScheduler.runNext(0);
+        assertEquals(Arrays.asList("a@1020", "b@1020"), mFired);
+        assertEquals(2000, mScheduler.wakeupAt);
+        mScheduler.runNext(0);
+        assertEquals(Arrays.asList("a@1020", "b@1020", "c@2000"), mFired);
+        assertEquals(2, mScheduler.wakeups);
+    }
+
+    @Test
+    public void mergingStopsAtEarliestDeadline() {
+        mTimers.setTimeout("a", 1000);
+        mScheduler.now = 1005;
+        // b不能被推迟，c虽然在a的推迟范围内，但合并它会使b晚于最晚触发时间
+        mTimers.setImmediate("b");
+        mTimers.setTimeout("c", 30);
+        assertEquals(1005, mScheduler.wakeupAt);
+        mScheduler.runNext(0);
+        assertEquals(Arrays.asList("a@1005", "b@1005"), mFired);
+        assertEquals(1035, mScheduler.wakeupAt);
+    }
+
+    @Test
+    public void intervalDoesNotDrift() {
+        mTimers.setInterval("a", 100);
+        for (int i = 0; i < 5; i++) {
+            mScheduler.runNext(7);
+        }
+        assertEquals(Arrays.asList("a@107", "a@207", "a@307", "a@407", "a@507"), mFired);
+        assertEquals(600, mScheduler.wakeupAt);
+    }
+
+    @Test
+    public void intervalSkipsMissedPeriods() {
+        mTimers.setInterval("a", 100);
+        mScheduler.runNext(250);
+        assertEquals(Arrays.asList("a@350"), mFired);
+        assertEquals(400, mScheduler.wakeupAt);
+    }
+
+    @Test
+    public void clearedTimerDoesNotFire() {
+        int id = mTimers.setTimeout("a", 100);
+        mTimers.setTimeout("b", 200);
+        mTimers.clearTimeout(id);
+        assertEquals(100, mScheduler.wakeupAt);
+        mScheduler.runNext(0);
+        assertEquals(0, mFired.size());
+        assertEquals(200, mScheduler.wakeupAt);
+        mScheduler.runNext(0);
+        assertEquals(Arrays.asList("b@200"), mFired);
+    }
+}
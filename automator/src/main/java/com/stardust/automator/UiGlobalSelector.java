@@ -7,6 +7,7 @@ import android.support.annotation.Nullable;
 import com.stardust.automator.filter.BooleanFilter;
 import com.stardust.automator.filter.BoundsFilter;
 import com.stardust.automator.filter.ClassNameFilter;
+import com.stardust.automator.filter.CompositeFilter;
 import com.stardust.automator.filter.DescFilter;
 import com.stardust.automator.filter.DfsFilter;
 import com.stardust.automator.filter.IdFilter;
@@ -352,18 +353,63 @@ public class UiGlobalSelector {
     }
 
     public UiObjectCollection findOf(UiObject node) {
+        return findOf(node, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 查找最多max个符合条件的控件, 找到max个后立即停止遍历。
+     */
+    public UiObjectCollection findOf(UiObject node, int max) {
         List<UiObject> list = new ArrayList<>();
         list.add(node);
+        DfsFilter compiled = compile();
+        if (compiled != null) {
+            return UiObjectCollection.of(compiled.filter(list, max));
+        }
         for (ListFilter filter : mFilters) {
             list = filter.filter(list);
         }
-        return UiObjectCollection.of(list);
+        return UiObjectCollection.of(limit(list, node, max));
+    }
+
+    private static List<UiObject> limit(List<UiObject> list, UiObject root, int max) {
+        max = Math.max(max, 0);
+        if (list.size() <= max) {
+            return list;
+        }
+        for (UiObject uiObject : list.subList(max, list.size())) {
+            if (uiObject != root) {
+                uiObject.recycle();
+            }
+        }
+        return new ArrayList<>(list.subList(0, max));
+    }
+
+    /**
+     * 把所有条件合并为一个条件, 使查找只需遍历一次控件树。
+     * 没有条件或者存在不能逐个控件判断的条件(非DfsFilter)时返回null, 此时按顺序逐个应用条件。
+     */
+    @Nullable
+    private DfsFilter compile() {
+        if (mFilters.isEmpty()) {
+            return null;
+        }
+        List<DfsFilter> filters = new ArrayList<>(mFilters.size());
+        for (ListFilter filter : mFilters) {
+            if (!(filter instanceof DfsFilter)) {
+                return null;
+            }
+            filters.add((DfsFilter) filter);
+        }
+        if (filters.size() == 1) {
+            return filters.get(0);
+        }
+        return new CompositeFilter(filters);
     }
 
     @Nullable
     public UiObject findOneOf(UiObject node) {
-        // TODO: 2017/3/9 优化
-        UiObjectCollection collection = findOf(node);
+        UiObjectCollection collection = findOf(node, 1);
         if (collection.size() == 0) {
             return null;
         }
@@ -0,0 +1,82 @@
+package com.stardust.automator.filter;
+
+import com.stardust.automator.UiObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by Stardust on 2017/10/26.
+ * <p>
+ * 把选择器中的多个筛选条件编译为一个条件, 只需要对控件树进行一次深度优先遍历。
+ * 如果条件中存在id或文本这类可以由系统直接检索的条件, 则先用它检索出候选控件, 再用其他条件逐个判断。
+ */
+
+public class CompositeFilter extends DfsFilter {
+
+    private final DfsFilter[] mFilters;
+    private final IndexedFilter mIndexedFilter;
+
+    public CompositeFilter(List<DfsFilter> filters) {
+        IndexedFilter indexedFilter = null;
+        List<DfsFilter> rest = new ArrayList<>(filters.size());
+        for (DfsFilter filter : filters) {
+            if (indexedFilter == null && filter instanceof IndexedFilter) {
+                indexedFilter = (IndexedFilter) filter;
+            } else {
+                rest.add(filter);
+            }
+        }
+        mIndexedFilter = indexedFilter;
+        mFilters = rest.toArray(new DfsFilter[rest.size()]);
+    }
+
+    @Override
+    public List<UiObject> filter(List<UiObject> nodes, int limit) {
+        if (mIndexedFilter == null) {
+            return super.filter(nodes, limit);
+        }
+        List<UiObject> list = new ArrayList<>();
+        for (UiObject node : nodes) {
+            if (list.size() >= limit) {
+                break;
+            }
+            list.addAll(filter(node, limit - list.size()));
+        }
+        return list;
+    }
+
+    @Override
+    public List<UiObject> filter(UiObject node, int limit) {
+        if (mIndexedFilter == null) {
+            return super.filter(node, limit);
+        }
+        List<UiObject> candidates = mIndexedFilter.search(node);
+        List<UiObject> list = new ArrayList<>(Math.min(candidates.size(), limit));
+        for (UiObject candidate : candidates) {
+            if (list.size() < limit && isIncludedByRest(candidate)) {
+                list.add(candidate);
+            } else if (candidate != node) {
+                candidate.recycle();
+            }
+        }
+        return list;
+    }
+
+    @Override
+    protected boolean isIncluded(UiObject nodeInfo) {
+        if (mIndexedFilter != null && !mIndexedFilter.isIncluded(nodeInfo)) {
+            return false;
+        }
+        return isIncludedByRest(nodeInfo);
+    }
+
+    private boolean isIncludedByRest(UiObject nodeInfo) {
+        for (DfsFilter filter : mFilters) {
+            if (!filter.isIncluded(nodeInfo)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -13,27 +13,47 @@ public abstract class DfsFilter implements ListFilter, Filter {
 
     @Override
     public List<UiObject> filter(List<UiObject> nodes) {
+        return filter(nodes, Integer.MAX_VALUE);
+    }
+
+    public List<UiObject> filter(List<UiObject> nodes, int limit) {
         ArrayList<UiObject> list = new ArrayList<>();
         for (UiObject node : nodes) {
+            if (list.size() >= limit) {
+                break;
+            }
             if (isIncluded(node)) {
                 list.add(node);
             }
-            filterChildren(node, list);
+            filterChildren(node, list, limit);
         }
         return list;
     }
 
     public List<UiObject> filter(UiObject node) {
+        return filter(node, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 查找到limit个控件后立即停止遍历, 尚未遍历到的控件不会被获取。
+     */
+    public List<UiObject> filter(UiObject node, int limit) {
         ArrayList<UiObject> list = new ArrayList<>();
+        if (limit <= 0) {
+            return list;
+        }
         if (isIncluded(node)) {
             list.add(node);
         }
-        filterChildren(node, list);
+        filterChildren(node, list, limit);
         return list;
     }
 
-    private void filterChildren(UiObject parent, List<UiObject> list) {
+    private void filterChildren(UiObject parent, List<UiObject> list, int limit) {
         for (int i = 0; i < parent.getChildCount(); i++) {
+            if (list.size() >= limit) {
+                return;
+            }
             UiObject child = parent.child(i);
             if (child == null)
                 continue;
@@ -41,7 +61,7 @@ public abstract class DfsFilter implements ListFilter, Filter {
             if (included) {
                 list.add(child);
             }
-            filterChildren(child, list);
+            filterChildren(child, list, limit);
             if (!included) {
                 child.recycle();
             }
@@ -8,7 +8,7 @@ import java.util.List;
  * Created by Stardust on 2017/3/9.
  */
 
-public class IdFilter extends ListFilter.Default {
+public class IdFilter extends IndexedFilter {
 
     private static final KeyGetter ID_GETTER = new KeyGetter() {
 
@@ -45,9 +45,14 @@ public class IdFilter extends ListFilter.Default {
     }
 
     @Override
-    public List<UiObject> filter(UiObject node) {
+    protected List<UiObject> search(UiObject node) {
         return node.findByViewId(mId);
     }
 
+    @Override
+    protected boolean isIncluded(UiObject nodeInfo) {
+        return mId.equals(nodeInfo.getViewIdResourceName());
+    }
+
 
 }
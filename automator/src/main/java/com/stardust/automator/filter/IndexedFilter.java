@@ -0,0 +1,46 @@
+package com.stardust.automator.filter;
+
+import com.stardust.automator.UiObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by Stardust on 2017/10/26.
+ * <p>
+ * 可以通过系统提供的检索方法(例如findAccessibilityNodeInfosByViewId)直接查找的筛选条件。
+ * 单独使用时由系统检索, 与其他条件组合时也可以作为普通条件逐个判断控件。
+ */
+
+public abstract class IndexedFilter extends DfsFilter {
+
+    @Override
+    public List<UiObject> filter(List<UiObject> nodes, int limit) {
+        List<UiObject> list = new ArrayList<>();
+        for (UiObject node : nodes) {
+            if (list.size() >= limit) {
+                break;
+            }
+            list.addAll(filter(node, limit - list.size()));
+        }
+        return list;
+    }
+
+    @Override
+    public List<UiObject> filter(UiObject node, int limit) {
+        List<UiObject> list = search(node);
+        if (list.size() <= limit) {
+            return list;
+        }
+        List<UiObject> limited = new ArrayList<>(list.subList(0, Math.max(limit, 0)));
+        for (UiObject uiObject : list.subList(limited.size(), list.size())) {
+            if (uiObject != node) {
+                uiObject.recycle();
+            }
+        }
+        return limited;
+    }
+
+    protected abstract List<UiObject> search(UiObject node);
+
+}
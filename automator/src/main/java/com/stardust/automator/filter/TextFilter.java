@@ -8,7 +8,7 @@ import java.util.List;
  * Created by Stardust on 2017/3/9.
  */
 
-public class TextFilter extends ListFilter.Default {
+public class TextFilter extends IndexedFilter {
 
     private static final KeyGetter TEXT_GETTER = new KeyGetter() {
         @Override
@@ -39,14 +39,26 @@ public class TextFilter extends ListFilter.Default {
     }
 
     private String mText;
+    private String mLowerCaseText;
 
     private TextFilter(String text) {
         mText = text;
+        mLowerCaseText = text.toLowerCase();
     }
 
 
     @Override
-    public List<UiObject> filter(UiObject node) {
+    protected List<UiObject> search(UiObject node) {
         return node.findByText(mText);
     }
+
+    // 与findAccessibilityNodeInfosByText一致: 忽略大小写, 匹配文本或描述
+    @Override
+    protected boolean isIncluded(UiObject nodeInfo) {
+        return containsIgnoreCase(nodeInfo.getText()) || containsIgnoreCase(nodeInfo.getContentDescription());
+    }
+
+    private boolean containsIgnoreCase(CharSequence charSequence) {
+        return charSequence != null && charSequence.toString().toLowerCase().contains(mLowerCaseText);
+    }
 }
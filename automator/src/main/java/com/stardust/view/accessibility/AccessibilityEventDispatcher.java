@@ -0,0 +1,177 @@
+package com.stardust.view.accessibility;
+
+import android.accessibilityservice.AccessibilityService;
+import android.support.annotation.Nullable;
+import android.view.accessibility.AccessibilityEvent;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Created by Stardust on 2017/11/3.
+ * <p>
+ * 把无障碍事件分发给各个{@link AccessibilityDelegate}。
+ * <p>
+ * 事件类型用位掩码预先过滤(事件类型都是单独的一位)，再按包名过滤。同步的代理按优先级在服务的主线程中调用，
+ * 返回true时不再分发给之后的代理；异步的代理各自有一个有界队列和线程，队列满时丢弃新事件，
+ * 因此一个慢的代理不会拖慢其他代理和系统的事件流。异步代理的返回值被忽略。
+ * <p>
+ * 分发给异步代理的是事件的副本，处理完后回收。具体实现见{@link EventDispatcher}。
+ */
+public class AccessibilityEventDispatcher {
+
+    public static class Options {
+
+        boolean mAsync = true;
+        int mQueueCapacity = 64;
+        boolean mCoalesceContentChanges = false;
+        Set<String> mPackages;
+
+        /**
+         * 在服务的主线程中调用，只适用于很快的代理
+         */
+        public Options sync() {
+            mAsync = false;
+            return this;
+        }
+
+        public Options queueCapacity(int queueCapacity) {
+            if (queueCapacity <= 0) {
+                throw new IllegalArgumentException("queueCapacity = " + queueCapacity);
+            }
+            mQueueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * 队列中已有同一窗口尚未处理的TYPE_WINDOW_CONTENT_CHANGED时，不再加入新的内容变化事件
+         */
+        public Options coalesceContentChanges() {
+            mCoalesceContentChanges = true;
+            return this;
+        }
+
+        /**
+         * 只接收这些应用的事件，不调用时接收所有应用的事件
+         */
+        public Options packages(String... packages) {
+            mPackages = new HashSet<>(Arrays.asList(packages));
+            return this;
+        }
+    }
+
+    public static class Stats {
+
+        public final int priority;
+        public final String delegate;
+        public final long dispatched;
+        public final long dropped;
+        public final long coalesced;
+        public final int queueSize;
+        // 从收到事件到处理完成的时间(纳秒)
+        public final long averageLatency;
+        public final long maxLatency;
+
+        Stats(int priority, String delegate, long dispatched, long dropped, long coalesced,
+              int queueSize, long averageLatency, long maxLatency) {
+            this.priority = priority;
+            this.delegate = delegate;
+            this.dispatched = dispatched;
+            this.dropped = dropped;
+            this.coalesced = coalesced;
+            this.queueSize = queueSize;
+            this.averageLatency = averageLatency;
+            this.maxLatency = maxLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "priority=" + priority +
+                    ", delegate=" + delegate +
+                    ", dispatched=" + dispatched +
+                    ", dropped=" + dropped +
+                    ", coalesced=" + coalesced +
+                    ", queueSize=" + queueSize +
+                    ", averageLatency=" + averageLatency / 1000 + "us" +
+                    ", maxLatency=" + maxLatency / 1000 + "us" +
+                    '}';
+        }
+    }
+
+    private static final EventDispatcher.Events<AccessibilityEvent> EVENTS = new EventDispatcher.Events<AccessibilityEvent>() {
+        @Override
+        public int getEventType(AccessibilityEvent event) {
+            return event.getEventType();
+        }
+
+        @Override
+        public CharSequence getPackageName(AccessibilityEvent event) {
+            return event.getPackageName();
+        }
+
+        @Override
+        public int getWindowId(AccessibilityEvent event) {
+            return event.getWindowId();
+        }
+
+        @Override
+        public AccessibilityEvent copy(AccessibilityEvent event) {
+            return AccessibilityEvent.obtain(event);
+        }
+
+        @Override
+        public void recycle(AccessibilityEvent event) {
+            event.recycle();
+        }
+    };
+
+    private final EventDispatcher<AccessibilityEvent> mDispatcher = new EventDispatcher<>(EVENTS);
+
+    static int toMask(@Nullable Set<Integer> eventTypes) {
+        if (eventTypes == null) {
+            return AccessibilityEvent.TYPES_ALL_MASK;
+        }
+        int mask = 0;
+        for (int type : eventTypes) {
+            mask |= type;
+        }
+        return mask;
+    }
+
+    /**
+     * 添加代理。优先级相同的代理会被替换
+     */
+    public void addDelegate(int uniquePriority, final AccessibilityDelegate delegate, Options options) {
+        mDispatcher.add(uniquePriority, delegate, toMask(delegate.getEventTypes()), new EventDispatcher.Handler<AccessibilityEvent>() {
+            @Override
+            public boolean handle(AccessibilityService service, AccessibilityEvent event) {
+                return delegate.onAccessibilityEvent(service, event);
+            }
+        }, options);
+    }
+
+    public boolean removeDelegate(AccessibilityDelegate delegate) {
+        return mDispatcher.remove(delegate);
+    }
+
+    /**
+     * @return 是否有代理关心这种事件，可以在处理事件之前调用以尽早返回
+     */
+    public boolean accepts(int eventType) {
+        return mDispatcher.accepts(eventType);
+    }
+
+    public void dispatch(AccessibilityService service, AccessibilityEvent event) {
+        mDispatcher.dispatch(service, event);
+    }
+
+    /**
+     * @return 各个代理的分发数、丢弃数、合并数和延迟，用于找出慢的代理
+     */
+    public List<Stats> getStats() {
+        return mDispatcher.getStats();
+    }
+}
@@ -9,13 +9,9 @@ import android.view.KeyEvent;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityNodeInfo;
 
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.SortedMap;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.TreeMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -32,24 +28,35 @@ public class AccessibilityService extends android.accessibilityservice.Accessibi
 
     private static final String TAG = "AccessibilityService";
 
-    private static final SortedMap<Integer, AccessibilityDelegate> mDelegates = new TreeMap<>();
+    private static final AccessibilityEventDispatcher DISPATCHER = new AccessibilityEventDispatcher();
     private static final ReentrantLock LOCK = new ReentrantLock();
     private static final Condition ENABLED = LOCK.newCondition();
     private static AccessibilityService instance;
     private static final OnKeyListener.Observer stickOnKeyObserver = new OnKeyListener.Observer();
-    private static boolean containsAllEventTypes = false;
-    private static final Set<Integer> eventTypes = new HashSet<>();
     private OnKeyListener.Observer mOnKeyObserver = new OnKeyListener.Observer();
     private ExecutorService mKeyEventExecutor;
     private AccessibilityNodeInfo mFastRootInActiveWindow;
 
+    /**
+     * 添加在独立线程中接收事件的代理，见{@link AccessibilityEventDispatcher}
+     */
     public static void addDelegate(int uniquePriority, AccessibilityDelegate delegate) {
-        mDelegates.put(uniquePriority, delegate);
-        Set<Integer> set = delegate.getEventTypes();
-        if (set == null)
-            containsAllEventTypes = true;
-        else
-            eventTypes.addAll(set);
+        addDelegate(uniquePriority, delegate, new AccessibilityEventDispatcher.Options());
+    }
+
+    public static void addDelegate(int uniquePriority, AccessibilityDelegate delegate, AccessibilityEventDispatcher.Options options) {
+        DISPATCHER.addDelegate(uniquePriority, delegate, options);
+    }
+
+    public static boolean removeDelegate(AccessibilityDelegate delegate) {
+        return DISPATCHER.removeDelegate(delegate);
+    }
+
+    /**
+     * @return 各个代理的分发数、丢弃数和延迟
+     */
+    public static List<AccessibilityEventDispatcher.Stats> getDelegateStats() {
+        return DISPATCHER.getStats();
     }
 
     public static AccessibilityService getInstance() {
@@ -58,24 +65,14 @@ public class AccessibilityService extends android.accessibilityservice.Accessibi
 
     @Override
     public void onAccessibilityEvent(final AccessibilityEvent event) {
-        Log.v(TAG, "onAccessibilityEvent: " + event);
-        if (!containsAllEventTypes && !eventTypes.contains(event.getEventType()))
-            return;
         int type = event.getEventType();
+        if (!DISPATCHER.accepts(type))
+            return;
         if (type == AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED || type == AccessibilityEvent.TYPE_VIEW_HOVER_ENTER
                 || type == AccessibilityEvent.TYPE_VIEW_HOVER_EXIT) {
             mFastRootInActiveWindow = super.getRootInActiveWindow();
         }
-        for (Map.Entry<Integer, AccessibilityDelegate> entry : mDelegates.entrySet()) {
-            AccessibilityDelegate delegate = entry.getValue();
-            Set<Integer> types = delegate.getEventTypes();
-            if (types != null && !delegate.getEventTypes().contains(event.getEventType()))
-                continue;
-            long start = System.currentTimeMillis();
-            if (delegate.onAccessibilityEvent(AccessibilityService.this, event))
-                break;
-            Log.v(TAG, "millis: " + (System.currentTimeMillis() - start) + " delegate: " + entry.getValue().getClass().getName());
-        }
+        DISPATCHER.dispatch(this, event);
     }
 
 
@@ -0,0 +1,273 @@
+package com.stardust.view.accessibility;
+
+import android.accessibilityservice.AccessibilityService;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.view.accessibility.AccessibilityEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Created by Stardust on 2017/11/3.
+ * <p>
+ * {@link AccessibilityEventDispatcher}的实现。分发只用到事件的类型、包名和窗口id，以及复制和回收，
+ * 这些都通过{@link Events}访问，因此不依赖AccessibilityEvent本身，可以用简单的事件类进行单元测试。
+ */
+class EventDispatcher<E> {
+
+    interface Events<E> {
+
+        int getEventType(E event);
+
+        @Nullable
+        CharSequence getPackageName(E event);
+
+        int getWindowId(E event);
+
+        /**
+         * 异步分发时放入队列的副本
+         */
+        E copy(E event);
+
+        void recycle(E event);
+    }
+
+    interface Handler<E> {
+
+        /**
+         * @return 是否消费了该事件，只对同步的处理者有效
+         */
+        boolean handle(AccessibilityService service, E event);
+    }
+
+    private static final String TAG = "AccessibilityDispatcher";
+
+    private static class QueuedEvent<E> {
+        final E event;
+        final long time;
+        // 事件被处理后会被回收，合并时只能比较这里保存的windowId
+        final int windowId;
+
+        QueuedEvent(E event, long time, int windowId) {
+            this.event = event;
+            this.time = time;
+            this.windowId = windowId;
+        }
+    }
+
+    private static final QueuedEvent QUIT = new QueuedEvent<>(null, 0, -1);
+
+    private class Entry implements Runnable {
+
+        final int priority;
+        final Object key;
+        final Handler<E> handler;
+        final int eventTypeMask;
+        final Set<String> packages;
+        final boolean coalesce;
+        final BlockingQueue<QueuedEvent<E>> queue;
+        final AtomicReference<QueuedEvent<E>> pendingContentChange = new AtomicReference<>();
+        final AtomicLong dispatched = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong coalesced = new AtomicLong();
+        final AtomicLong totalLatency = new AtomicLong();
+        final AtomicLong maxLatency = new AtomicLong();
+        volatile AccessibilityService service;
+        Thread thread;
+
+        Entry(int priority, Object key, int eventTypeMask, Handler<E> handler, AccessibilityEventDispatcher.Options options) {
+            this.priority = priority;
+            this.key = key;
+            this.handler = handler;
+            this.eventTypeMask = eventTypeMask;
+            this.packages = options.mPackages;
+            this.coalesce = options.mCoalesceContentChanges;
+            this.queue = options.mAsync ? new ArrayBlockingQueue<QueuedEvent<E>>(options.mQueueCapacity) : null;
+        }
+
+        boolean accepts(int type, @Nullable CharSequence packageName) {
+            if ((eventTypeMask & type) == 0) {
+                return false;
+            }
+            return packages == null || (packageName != null && packages.contains(packageName.toString()));
+        }
+
+        void enqueue(AccessibilityService service, E event, int type, long time) {
+            this.service = service;
+            boolean contentChange = coalesce && type == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED;
+            int windowId = mEvents.getWindowId(event);
+            if (contentChange) {
+                QueuedEvent<E> pending = pendingContentChange.get();
+                if (pending != null && pending.windowId == windowId) {
+                    coalesced.incrementAndGet();
+                    return;
+                }
+            }
+            QueuedEvent<E> queued = new QueuedEvent<>(mEvents.copy(event), time, windowId);
+            // 必须在放入队列之前设置，否则处理线程可能在设置之前就取走了它，之后的内容变化会一直被合并
+            if (contentChange) {
+                pendingContentChange.set(queued);
+            }
+            if (!queue.offer(queued)) {
+                pendingContentChange.compareAndSet(queued, null);
+                mEvents.recycle(queued.event);
+                dropped.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                QueuedEvent<E> queued;
+                try {
+                    queued = queue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (queued == QUIT) {
+                    break;
+                }
+                pendingContentChange.compareAndSet(queued, null);
+                try {
+                    handler.handle(service, queued.event);
+                } catch (Exception e) {
+                    Log.e(TAG, "delegate " + key.getClass().getName() + " failed", e);
+                } finally {
+                    mEvents.recycle(queued.event);
+                    onHandled(queued.time);
+                }
+            }
+            QueuedEvent<E> queued;
+            while ((queued = queue.poll()) != null) {
+                if (queued != QUIT) {
+                    mEvents.recycle(queued.event);
+                }
+            }
+        }
+
+        void onHandled(long time) {
+            long latency = System.nanoTime() - time;
+            dispatched.incrementAndGet();
+            totalLatency.addAndGet(latency);
+            long max;
+            while (latency > (max = maxLatency.get()) && !maxLatency.compareAndSet(max, latency)) {
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void quit() {
+            if (!queue.offer(QUIT)) {
+                thread.interrupt();
+            }
+        }
+
+        AccessibilityEventDispatcher.Stats getStats() {
+            long count = dispatched.get();
+            return new AccessibilityEventDispatcher.Stats(priority, key.getClass().getName(), count, dropped.get(), coalesced.get(),
+                    queue == null ? 0 : queue.size(), count == 0 ? 0 : totalLatency.get() / count, maxLatency.get());
+        }
+    }
+
+    private final Events<E> mEvents;
+    // 按优先级排序，修改时整体替换，分发时不需要加锁
+    private volatile List<Entry> mEntries = Collections.emptyList();
+    private volatile int mEventTypeMask = 0;
+
+    EventDispatcher(Events<E> events) {
+        mEvents = events;
+    }
+
+    /**
+     * 添加处理者。优先级相同的处理者会被替换
+     *
+     * @param key 用于{@link #remove(Object)}和统计信息
+     */
+    synchronized void add(int uniquePriority, Object key, int eventTypeMask, Handler<E> handler, AccessibilityEventDispatcher.Options options) {
+        Entry entry = new Entry(uniquePriority, key, eventTypeMask, handler, options);
+        List<Entry> entries = new ArrayList<>(mEntries);
+        int i = 0;
+        while (i < entries.size() && entries.get(i).priority < uniquePriority) {
+            i++;
+        }
+        if (i < entries.size() && entries.get(i).priority == uniquePriority) {
+            stop(entries.remove(i));
+        }
+        entries.add(i, entry);
+        if (entry.queue != null) {
+            entry.thread = new Thread(entry, "AccessibilityDelegate-" + uniquePriority);
+            entry.thread.setDaemon(true);
+            entry.thread.start();
+        }
+        update(entries);
+    }
+
+    synchronized boolean remove(Object key) {
+        List<Entry> entries = new ArrayList<>(mEntries);
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).key == key) {
+                stop(entries.remove(i));
+                update(entries);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void update(List<Entry> entries) {
+        int mask = 0;
+        for (Entry entry : entries) {
+            mask |= entry.eventTypeMask;
+        }
+        mEntries = entries;
+        mEventTypeMask = mask;
+    }
+
+    private void stop(Entry entry) {
+        if (entry.queue != null) {
+            entry.quit();
+        }
+    }
+
+    boolean accepts(int eventType) {
+        return (mEventTypeMask & eventType) != 0;
+    }
+
+    void dispatch(AccessibilityService service, E event) {
+        int type = mEvents.getEventType(event);
+        if ((mEventTypeMask & type) == 0) {
+            return;
+        }
+        long time = System.nanoTime();
+        CharSequence packageName = mEvents.getPackageName(event);
+        for (Entry entry : mEntries) {
+            if (!entry.accepts(type, packageName)) {
+                continue;
+            }
+            if (entry.queue != null) {
+                entry.enqueue(service, event, type, time);
+                continue;
+            }
+            boolean consumed = entry.handler.handle(service, event);
+            entry.onHandled(time);
+            if (consumed) {
+                break;
+            }
+        }
+    }
+
+    List<AccessibilityEventDispatcher.Stats> getStats() {
+        List<Entry> entries = mEntries;
+        List<AccessibilityEventDispatcher.Stats> stats = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            stats.add(entry.getStats());
+        }
+        return Collections.unmodifiableList(stats);
+    }
+}
@@ -0,0 +1,107 @@
+package com.stardust.view.accessibility;
+
+import android.accessibilityservice.AccessibilityService;
+import android.support.annotation.Nullable;
+import android.view.accessibility.AccessibilityEvent;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Created by Stardust on 2017/10/27.
+ * <p>
+ * 记录窗口内容的变化次数(generation), 使查找控件的线程可以等待窗口变化后再重新查找, 而不必不停地轮询。
+ * 窗口切换(TYPE_WINDOW_STATE_CHANGED)会唤醒所有等待者, 内容变化只唤醒等待对应包名的等待者。
+ */
+
+public class WindowContentObserver implements AccessibilityDelegate {
+
+    private static final Set<Integer> EVENT_TYPES = new HashSet<>(Arrays.asList(
+            AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED,
+            AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED
+    ));
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mChanged = mLock.newCondition();
+    private final Map<String, Long> mPackageGenerations = new HashMap<>();
+    private long mStateGeneration = 0;
+    private long mGeneration = 0;
+
+    @Override
+    public boolean onAccessibilityEvent(AccessibilityService service, AccessibilityEvent event) {
+        onWindowChanged(event.getEventType(), event.getPackageName());
+        return false;
+    }
+
+    void onWindowChanged(int eventType, @Nullable CharSequence packageName) {
+        mLock.lock();
+        try {
+            mGeneration++;
+            if (eventType == AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED) {
+                mStateGeneration = mGeneration;
+            }
+            if (packageName != null) {
+                mPackageGenerations.put(packageName.toString(), mGeneration);
+            }
+            mChanged.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Set<Integer> getEventTypes() {
+        return EVENT_TYPES;
+    }
+
+    /**
+     * 返回当前的generation, 在查找控件之前调用, 查找失败后把它传给{@link #awaitChange(long, String, long)}。
+     *
+     * @param packageName 只关心该包名的内容变化, 为null时关心所有变化
+     */
+    public long getGeneration(@Nullable String packageName) {
+        mLock.lock();
+        try {
+            return generationOf(packageName);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * 等待窗口在generation之后发生变化。
+     *
+     * @return 窗口是否已经发生变化。超时返回false
+     * @throws InterruptedException 等待时线程被中断
+     */
+    public boolean awaitChange(long generation, @Nullable String packageName, long timeout) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+        mLock.lockInterruptibly();
+        try {
+            while (generationOf(packageName) == generation) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = mChanged.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private long generationOf(@Nullable String packageName) {
+        if (packageName == null) {
+            return mGeneration;
+        }
+        Long generation = mPackageGenerations.get(packageName);
+        return Math.max(mStateGeneration, generation == null ? 0 : generation);
+    }
+
+}
@@ -0,0 +1,506 @@
+package com.stardust.view.accessibility;
+
+import android.graphics.Rect;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.view.accessibility.AccessibilityNodeInfoCompat;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import com.stardust.automator.UiObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Created by Stardust on 2017/10/27.
+ * <p>
+ * 某一时刻窗口控件树的不可变快照。控件按广度优先的顺序存放在数组中, 每个控件的子控件是连续的,
+ * 控件的属性在截取时一次性读取。在快照上查找控件不需要再跨进程获取子控件, 多个脚本也可以共享同一个快照。
+ * 查找结果按深度优先的前序排列, 与在实时的控件树上查找的顺序相同。
+ * <p>
+ * 快照持有截取时获取的所有AccessibilityNodeInfo, 使用引用计数, 最后一个使用者{@link #release()}时回收。
+ */
+
+public class WindowSnapshot {
+
+    public static final int FLAG_CHECKABLE = 1;
+    public static final int FLAG_CHECKED = 1 << 1;
+    public static final int FLAG_FOCUSABLE = 1 << 2;
+    public static final int FLAG_FOCUSED = 1 << 3;
+    public static final int FLAG_VISIBLE_TO_USER = 1 << 4;
+    public static final int FLAG_ACCESSIBILITY_FOCUSED = 1 << 5;
+    public static final int FLAG_SELECTED = 1 << 6;
+    public static final int FLAG_CLICKABLE = 1 << 7;
+    public static final int FLAG_LONG_CLICKABLE = 1 << 8;
+    public static final int FLAG_ENABLED = 1 << 9;
+    public static final int FLAG_PASSWORD = 1 << 10;
+    public static final int FLAG_SCROLLABLE = 1 << 11;
+    public static final int FLAG_EDITABLE = 1 << 12;
+    public static final int FLAG_CONTENT_INVALID = 1 << 13;
+    public static final int FLAG_CONTEXT_CLICKABLE = 1 << 14;
+    public static final int FLAG_MULTI_LINE = 1 << 15;
+    public static final int FLAG_DISMISSABLE = 1 << 16;
+
+    private final long mGeneration;
+    private final int mSize;
+    private final AccessibilityNodeInfo[] mInfos;
+    private final int[] mParents;
+    private final int[] mChildStarts;
+    private final int[] mChildCounts;
+    private final String[] mIds;
+    private final String[] mTexts;
+    private final String[] mDescs;
+    private final String[] mClassNames;
+    private final String[] mPackageNames;
+    private final int[] mFlags;
+    private final int[] mDrawingOrders;
+    private final int[] mBounds;
+    private final Node[] mNodes;
+    // 由this保护
+    private int mRefCount = 1;
+
+    private WindowSnapshot(long generation, List<AccessibilityNodeInfo> infos, int[] parents, int[] childStarts, int[] childCounts) {
+        mGeneration = generation;
+        mSize = infos.size();
+        mInfos = infos.toArray(new AccessibilityNodeInfo[mSize]);
+        mParents = parents;
+        mChildStarts = childStarts;
+        mChildCounts = childCounts;
+        mIds = new String[mSize];
+        mTexts = new String[mSize];
+        mDescs = new String[mSize];
+        mClassNames = new String[mSize];
+        mPackageNames = new String[mSize];
+        mFlags = new int[mSize];
+        mDrawingOrders = new int[mSize];
+        mBounds = new int[mSize * 4];
+        mNodes = new Node[mSize];
+        Rect rect = new Rect();
+        for (int i = 0; i < mSize; i++) {
+            AccessibilityNodeInfoCompat node = new AccessibilityNodeInfoCompat(mInfos[i]);
+            mIds[i] = node.getViewIdResourceName();
+            mTexts[i] = toString(node.getText());
+            mDescs[i] = toString(node.getContentDescription());
+            mClassNames[i] = toString(node.getClassName());
+            mPackageNames[i] = toString(node.getPackageName());
+            mFlags[i] = flagsOf(node);
+            mDrawingOrders[i] = node.getDrawingOrder();
+            node.getBoundsInScreen(rect);
+            mBounds[i * 4] = rect.left;
+            mBounds[i * 4 + 1] = rect.top;
+            mBounds[i * 4 + 2] = rect.right;
+            mBounds[i * 4 + 3] = rect.bottom;
+            mNodes[i] = new Node(this, i);
+        }
+    }
+
+    /**
+     * 截取以root为根的控件树。会跨进程获取所有子控件, 应尽量在同一个generation内复用结果。
+     */
+    public static WindowSnapshot capture(@NonNull AccessibilityNodeInfo root, long generation) {
+        List<AccessibilityNodeInfo> infos = new ArrayList<>();
+        List<Integer> parents = new ArrayList<>();
+        infos.add(root);
+        parents.add(-1);
+        int[] childStarts = new int[16];
+        int[] childCounts = new int[16];
+        for (int i = 0; i < infos.size(); i++) {
+            if (i >= childStarts.length) {
+                childStarts = grow(childStarts);
+                childCounts = grow(childCounts);
+            }
+            AccessibilityNodeInfo parent = infos.get(i);
+            childStarts[i] = infos.size();
+            int childCount = parent.getChildCount();
+            for (int j = 0; j < childCount; j++) {
+                AccessibilityNodeInfo child;
+                try {
+                    child = parent.getChild(j);
+                } catch (IllegalStateException e) {
+                    child = null;
+                }
+                if (child != null) {
+                    infos.add(child);
+                    parents.add(i);
+                }
+            }
+            childCounts[i] = infos.size() - childStarts[i];
+        }
+        int[] parentArray = new int[parents.size()];
+        for (int i = 0; i < parentArray.length; i++) {
+            parentArray[i] = parents.get(i);
+        }
+        return new WindowSnapshot(generation, infos, parentArray, childStarts, childCounts);
+    }
+
+    private static int[] grow(int[] array) {
+        int[] newArray = new int[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    private static String toString(CharSequence charSequence) {
+        return charSequence == null ? null : charSequence.toString();
+    }
+
+    private static int flagsOf(AccessibilityNodeInfoCompat node) {
+        int flags = 0;
+        if (node.isCheckable()) flags |= FLAG_CHECKABLE;
+        if (node.isChecked()) flags |= FLAG_CHECKED;
+        if (node.isFocusable()) flags |= FLAG_FOCUSABLE;
+        if (node.isFocused()) flags |= FLAG_FOCUSED;
+        if (node.isVisibleToUser()) flags |= FLAG_VISIBLE_TO_USER;
+        if (node.isAccessibilityFocused()) flags |= FLAG_ACCESSIBILITY_FOCUSED;
+        if (node.isSelected()) flags |= FLAG_SELECTED;
+        if (node.isClickable()) flags |= FLAG_CLICKABLE;
+        if (node.isLongClickable()) flags |= FLAG_LONG_CLICKABLE;
+        if (node.isEnabled()) flags |= FLAG_ENABLED;
+        if (node.isPassword()) flags |= FLAG_PASSWORD;
+        if (node.isScrollable()) flags |= FLAG_SCROLLABLE;
+        if (node.isEditable()) flags |= FLAG_EDITABLE;
+        if (node.isContentInvalid()) flags |= FLAG_CONTENT_INVALID;
+        if (node.isContextClickable()) flags |= FLAG_CONTEXT_CLICKABLE;
+        if (node.isMultiLine()) flags |= FLAG_MULTI_LINE;
+        if (node.isDismissable()) flags |= FLAG_DISMISSABLE;
+        return flags;
+    }
+
+    /**
+     * @return 快照已经被回收时返回false
+     */
+    synchronized boolean retain() {
+        if (mRefCount <= 0) {
+            return false;
+        }
+        mRefCount++;
+        return true;
+    }
+
+    public void release() {
+        synchronized (this) {
+            if (--mRefCount != 0) {
+                return;
+            }
+        }
+        for (AccessibilityNodeInfo info : mInfos) {
+            info.recycle();
+        }
+    }
+
+    public long getGeneration() {
+        return mGeneration;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isSnapshotOf(AccessibilityNodeInfo root) {
+        return mInfos[0].equals(root);
+    }
+
+    @NonNull
+    public UiObject getRoot() {
+        return mNodes[0];
+    }
+
+    @NonNull
+    public UiObject getNode(int index) {
+        return mNodes[index];
+    }
+
+    public int getParent(int index) {
+        return mParents[index];
+    }
+
+    public int getChildCount(int index) {
+        return mChildCounts[index];
+    }
+
+    public int getChild(int index, int i) {
+        return mChildStarts[index] + i;
+    }
+
+    public String getId(int index) {
+        return mIds[index];
+    }
+
+    public String getText(int index) {
+        return mTexts[index];
+    }
+
+    public String getDesc(int index) {
+        return mDescs[index];
+    }
+
+    public String getClassName(int index) {
+        return mClassNames[index];
+    }
+
+    public String getPackageName(int index) {
+        return mPackageNames[index];
+    }
+
+    public boolean hasFlag(int index, int flag) {
+        return (mFlags[index] & flag) != 0;
+    }
+
+    public int getDrawingOrder(int index) {
+        return mDrawingOrders[index];
+    }
+
+    public void getBounds(int index, Rect outBounds) {
+        int i = index * 4;
+        outBounds.set(mBounds[i], mBounds[i + 1], mBounds[i + 2], mBounds[i + 3]);
+    }
+
+    /**
+     * 在index及其所有子孙控件中查找id完全相同的控件, 与findAccessibilityNodeInfosByViewId的规则相同
+     */
+    public List<UiObject> findById(int index, @NonNull String id) {
+        List<UiObject> list = new ArrayList<>();
+        for (int i : preOrder(mChildStarts, mChildCounts, index)) {
+            if (id.equals(mIds[i])) {
+                list.add(mNodes[i]);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 在index及其所有子孙控件中查找文本或描述包含text(忽略大小写)的控件, 与findAccessibilityNodeInfosByText的规则相同
+     */
+    public List<UiObject> findByText(int index, @NonNull String text) {
+        List<UiObject> list = new ArrayList<>();
+        String lowerCaseText = text.toLowerCase();
+        for (int i : preOrder(mChildStarts, mChildCounts, index)) {
+            if (containsIgnoreCase(mTexts[i], lowerCaseText) || containsIgnoreCase(mDescs[i], lowerCaseText)) {
+                list.add(mNodes[i]);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 按深度优先的前序列出index及其所有子孙控件。数组中的控件是广度优先存放的, 直接按下标遍历得到的顺序与
+     * UiSelector在控件树上逐个子控件查找的顺序不同
+     */
+    static int[] preOrder(int[] childStarts, int[] childCounts, int index) {
+        int[] order = new int[16];
+        int size = 0;
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = index;
+        while (top > 0) {
+            int i = stack[--top];
+            if (size == order.length) {
+                order = grow(order);
+            }
+            order[size++] = i;
+            // 逆序入栈, 先访问第一个子控件
+            for (int child = childStarts[i] + childCounts[i] - 1; child >= childStarts[i]; child--) {
+                if (top == stack.length) {
+                    stack = grow(stack);
+                }
+                stack[top++] = child;
+            }
+        }
+        return Arrays.copyOf(order, size);
+    }
+
+    private static boolean containsIgnoreCase(String str, String lowerCaseText) {
+        return str != null && str.toLowerCase().contains(lowerCaseText);
+    }
+
+    /**
+     * 快照中的控件。属性和子控件都从快照中读取; 控件由快照共享, 因此不会被回收。
+     */
+    private static class Node extends UiObject {
+
+        private final WindowSnapshot mSnapshot;
+        private final int mIndex;
+
+        Node(WindowSnapshot snapshot, int index) {
+            super(snapshot.mInfos[index], null, index == 0);
+            mSnapshot = snapshot;
+            mIndex = index;
+        }
+
+        @Nullable
+        @Override
+        public UiObject child(int i) {
+            if (i < 0 || i >= getChildCount()) {
+                return null;
+            }
+            return mSnapshot.mNodes[mSnapshot.getChild(mIndex, i)];
+        }
+
+        @Nullable
+        @Override
+        public UiObject parent() {
+            int parent = mSnapshot.mParents[mIndex];
+            return parent < 0 ? null : mSnapshot.mNodes[parent];
+        }
+
+        @Override
+        public List<UiObject> findByViewId(String viewId) {
+            return mSnapshot.findById(mIndex, viewId);
+        }
+
+        @Override
+        public List<UiObject> findByText(String text) {
+            return mSnapshot.findByText(mIndex, text);
+        }
+
+        @Override
+        public List<AccessibilityNodeInfoCompat> findAccessibilityNodeInfosByViewId(String viewId) {
+            return new ArrayList<AccessibilityNodeInfoCompat>(findByViewId(viewId));
+        }
+
+        @Override
+        public List<AccessibilityNodeInfoCompat> findAccessibilityNodeInfosByText(String text) {
+            return new ArrayList<AccessibilityNodeInfoCompat>(findByText(text));
+        }
+
+        @Override
+        public AccessibilityNodeInfoCompat getChild(int index) {
+            return child(index);
+        }
+
+        @Override
+        public AccessibilityNodeInfoCompat getParent() {
+            return parent();
+        }
+
+        @Override
+        public int getChildCount() {
+            return mSnapshot.mChildCounts[mIndex];
+        }
+
+        @Override
+        public String getViewIdResourceName() {
+            return mSnapshot.mIds[mIndex];
+        }
+
+        @Override
+        public CharSequence getText() {
+            return mSnapshot.mTexts[mIndex];
+        }
+
+        @Override
+        public CharSequence getContentDescription() {
+            return mSnapshot.mDescs[mIndex];
+        }
+
+        @Override
+        public CharSequence getClassName() {
+            return mSnapshot.mClassNames[mIndex];
+        }
+
+        @Override
+        public CharSequence getPackageName() {
+            return mSnapshot.mPackageNames[mIndex];
+        }
+
+        @Override
+        public int getDrawingOrder() {
+            return mSnapshot.mDrawingOrders[mIndex];
+        }
+
+        @Override
+        public void getBoundsInScreen(Rect outBounds) {
+            mSnapshot.getBounds(mIndex, outBounds);
+        }
+
+        @Override
+        public boolean isCheckable() {
+            return mSnapshot.hasFlag(mIndex, FLAG_CHECKABLE);
+        }
+
+        @Override
+        public boolean isChecked() {
+            return mSnapshot.hasFlag(mIndex, FLAG_CHECKED);
+        }
+
+        @Override
+        public boolean isFocusable() {
+            return mSnapshot.hasFlag(mIndex, FLAG_FOCUSABLE);
+        }
+
+        @Override
+        public boolean isFocused() {
+            return mSnapshot.hasFlag(mIndex, FLAG_FOCUSED);
+        }
+
+        @Override
+        public boolean isVisibleToUser() {
+            return mSnapshot.hasFlag(mIndex, FLAG_VISIBLE_TO_USER);
+        }
+
+        @Override
+        public boolean isAccessibilityFocused() {
+            return mSnapshot.hasFlag(mIndex, FLAG_ACCESSIBILITY_FOCUSED);
+        }
+
+        @Override
+        public boolean isSelected() {
+            return mSnapshot.hasFlag(mIndex, FLAG_SELECTED);
+        }
+
+        @Override
+        public boolean isClickable() {
+            return mSnapshot.hasFlag(mIndex, FLAG_CLICKABLE);
+        }
+
+        @Override
+        public boolean isLongClickable() {
+            return mSnapshot.hasFlag(mIndex, FLAG_LONG_CLICKABLE);
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return mSnapshot.hasFlag(mIndex, FLAG_ENABLED);
+        }
+
+        @Override
+        public boolean isPassword() {
+            return mSnapshot.hasFlag(mIndex, FLAG_PASSWORD);
+        }
+
+        @Override
+        public boolean isScrollable() {
+            return mSnapshot.hasFlag(mIndex, FLAG_SCROLLABLE);
+        }
+
+        @Override
+        public boolean isEditable() {
+            return mSnapshot.hasFlag(mIndex, FLAG_EDITABLE);
+        }
+
+        @Override
+        public boolean isContentInvalid() {
+            return mSnapshot.hasFlag(mIndex, FLAG_CONTENT_INVALID);
+        }
+
+        @Override
+        public boolean isContextClickable() {
+            return mSnapshot.hasFlag(mIndex, FLAG_CONTEXT_CLICKABLE);
+        }
+
+        @Override
+        public boolean isMultiLine() {
+            return mSnapshot.hasFlag(mIndex, FLAG_MULTI_LINE);
+        }
+
+        @Override
+        public boolean isDismissable() {
+            return mSnapshot.hasFlag(mIndex, FLAG_DISMISSABLE);
+        }
+
+        @Override
+        public void recycle() {
+
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.stardust.view.accessibility;
+
+import android.support.annotation.NonNull;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+/**
+ * Created by Stardust on 2017/10/27.
+ * <p>
+ * 缓存当前窗口的快照。窗口没有发生变化(generation不变)时, 所有脚本共享同一个快照;
+ * 收到窗口内容变化的事件后, 下一次获取时重新截取。
+ * <p>
+ * 缓存自己持有快照的一个引用, {@link #get(AccessibilityNodeInfo)}返回的快照使用完后要调用{@link WindowSnapshot#release()}。
+ */
+
+public class WindowSnapshotCache {
+
+    private final WindowContentObserver mObserver;
+    private WindowSnapshot mSnapshot;
+
+    public WindowSnapshotCache(WindowContentObserver observer) {
+        mObserver = observer;
+    }
+
+    /**
+     * @param root 当前窗口的根控件, 由快照接管: 截取时成为快照的一部分, 复用已有快照时被回收
+     */
+    @NonNull
+    public synchronized WindowSnapshot get(@NonNull AccessibilityNodeInfo root) {
+        // 先读取generation再截取, 截取期间发生的变化会使快照在下一次获取时失效
+        long generation = mObserver.getGeneration(null);
+        if (mSnapshot != null && mSnapshot.getGeneration() == generation && mSnapshot.isSnapshotOf(root)
+                && mSnapshot.retain()) {
+            root.recycle();
+            return mSnapshot;
+        }
+        WindowSnapshot snapshot = WindowSnapshot.capture(root, generation);
+        snapshot.retain();
+        clear();
+        mSnapshot = snapshot;
+        return snapshot;
+    }
+
+    public synchronized void clear() {
+        if (mSnapshot != null) {
+            // 还在使用旧快照的脚本释放后才会真正回收
+            mSnapshot.release();
+            mSnapshot = null;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.stardust.automator.filter;
+
+import com.stardust.automator.UiObject;
+import com.stardust.automator.test.TestUiObject;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by Stardust on 2017/10/26.
+ */
+public class CompositeFilterTest {
+
+    /**
+     * 按控件的hashCode(TestUiObject中是随机的)筛选, 记录判断过的和通过的控件
+     */
+    private static class SelectiveDfsFilter extends DfsFilter {
+
+        private final int mModulo;
+        private final Set<UiObject> mSeen = Collections.newSetFromMap(new IdentityHashMap<UiObject, Boolean>());
+        private final Set<UiObject> mAccepted = Collections.newSetFromMap(new IdentityHashMap<UiObject, Boolean>());
+        private int mCount = 0;
+
+        SelectiveDfsFilter(int modulo) {
+            mModulo = modulo;
+        }
+
+        boolean accepts(UiObject nodeInfo) {
+            return (nodeInfo.hashCode() & Integer.MAX_VALUE) % mModulo == 0;
+        }
+
+        @Override
+        protected boolean isIncluded(UiObject nodeInfo) {
+            mCount++;
+            mSeen.add(nodeInfo);
+            if (accepts(nodeInfo)) {
+                mAccepted.add(nodeInfo);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    @Test
+    public void filter() throws Exception {
+        SelectiveDfsFilter first = new SelectiveDfsFilter(4);
+        SelectiveDfsFilter second = new SelectiveDfsFilter(3);
+        CompositeFilter filter = new CompositeFilter(Arrays.<DfsFilter>asList(first, second));
+        TestUiObject.count = 0;
+        UiObject root = new TestUiObject(10);
+        List<UiObject> list = filter.filter(root);
+        Set<UiObject> result = Collections.newSetFromMap(new IdentityHashMap<UiObject, Boolean>());
+        result.addAll(list);
+        for (UiObject uiObject : list) {
+            if (root != uiObject)
+                uiObject.recycle();
+        }
+        // 结果恰好是两个条件都满足的控件
+        Set<UiObject> expected = Collections.newSetFromMap(new IdentityHashMap<UiObject, Boolean>());
+        for (UiObject uiObject : first.mSeen) {
+            if (first.accepts(uiObject) && second.accepts(uiObject)) {
+                expected.add(uiObject);
+            }
+        }
+        assertEquals(list.size(), result.size());
+        assertEquals(expected, result);
+        // 每个控件只被第一个条件判断一次, 第一个条件不满足时不再判断第二个条件
+        assertEquals(first.mCount, first.mSeen.size());
+        assertEquals(first.mAccepted, second.mSeen);
+        assertEquals(first.mAccepted.size(), second.mCount);
+        assertTrue(second.mCount < first.mCount);
+        assertEquals(1, TestUiObject.count);
+        root.recycle();
+    }
+
+}
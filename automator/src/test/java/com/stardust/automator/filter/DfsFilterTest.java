@@ -38,4 +38,24 @@ public class DfsFilterTest {
         assertEquals(1, TestUiObject.count);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void filterWithLimit() throws Exception {
+        DfsFilter filter = new DfsFilter() {
+            @Override
+            protected boolean isIncluded(UiObject nodeInfo) {
+                return true;
+            }
+        };
+        TestUiObject.count = 0;
+        UiObject root = new TestUiObject(10);
+        List<UiObject> list = filter.filter(root, 3);
+        assertEquals(3, list.size());
+        for (UiObject uiObject : list) {
+            if (root != uiObject)
+                uiObject.recycle();
+        }
+        assertEquals(1, TestUiObject.count);
+        root.recycle();
+    }
+
+}
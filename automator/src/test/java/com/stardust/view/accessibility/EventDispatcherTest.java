@@ -0,0 +1,189 @@
+package com.stardust.view.accessibility;
+
+import android.accessibilityservice.AccessibilityService;
+import android.view.accessibility.AccessibilityEvent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Created by Stardust on 2017/11/3.
+ */
+public class EventDispatcherTest {
+
+    private static class FakeEvent {
+
+        final int type;
+        final String packageName;
+        final int windowId;
+
+        FakeEvent(int type, String packageName, int windowId) {
+            this.type = type;
+            this.packageName = packageName;
+            this.windowId = windowId;
+        }
+    }
+
+    /**
+     * 记录复制和回收的次数，所有事件处理完后两者应相等
+     */
+    private static class FakeEvents implements EventDispatcher.Events<FakeEvent> {
+
+        final AtomicInteger copied = new AtomicInteger();
+        final AtomicInteger recycled = new AtomicInteger();
+
+        @Override
+        public int getEventType(FakeEvent event) {
+            return event.type;
+        }
+
+        @Override
+        public CharSequence getPackageName(FakeEvent event) {
+            return event.packageName;
+        }
+
+        @Override
+        public int getWindowId(FakeEvent event) {
+            return event.windowId;
+        }
+
+        @Override
+        public FakeEvent copy(FakeEvent event) {
+            copied.incrementAndGet();
+            return new FakeEvent(event.type, event.packageName, event.windowId);
+        }
+
+        @Override
+        public void recycle(FakeEvent event) {
+            recycled.incrementAndGet();
+        }
+    }
+
+    private static class RecordingHandler implements EventDispatcher.Handler<FakeEvent> {
+
+        final List<String> packages = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch release;
+        final boolean consume;
+
+        RecordingHandler(CountDownLatch release, boolean consume) {
+            this.release = release;
+            this.consume = consume;
+        }
+
+        @Override
+        public boolean handle(AccessibilityService service, FakeEvent event) {
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+            packages.add(event.packageName);
+            return consume;
+        }
+    }
+
+    private static FakeEvent event(int type, String packageName) {
+        return new FakeEvent(type, packageName, 1);
+    }
+
+    private static void awaitDispatched(EventDispatcher<?> dispatcher, int index, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dispatcher.getStats().get(index).dispatched < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void filterByTypeAndPackage() throws InterruptedException {
+        FakeEvents events = new FakeEvents();
+        EventDispatcher<FakeEvent> dispatcher = new EventDispatcher<>(events);
+        RecordingHandler handler = new RecordingHandler(null, false);
+        dispatcher.add(100, handler, AccessibilityEvent.TYPE_VIEW_CLICKED, handler, new AccessibilityEventDispatcher.Options().packages("com.a"));
+        assertTrue(dispatcher.accepts(AccessibilityEvent.TYPE_VIEW_CLICKED));
+        assertFalse(dispatcher.accepts(AccessibilityEvent.TYPE_VIEW_SCROLLED));
+
+        dispatcher.dispatch(null, event(AccessibilityEvent.TYPE_VIEW_SCROLLED, "com.a"));
+        dispatcher.dispatch(null, event(AccessibilityEvent.TYPE_VIEW_CLICKED, "com.b"));
+        dispatcher.dispatch(null, event(AccessibilityEvent.TYPE_VIEW_CLICKED, "com.a"));
+        awaitDispatched(dispatcher, 0, 1);
+        assertEquals(Collections.singletonList("com.a"), handler.packages);
+        dispatcher.remove(handler);
+        assertFalse(dispatcher.accepts(AccessibilityEvent.TYPE_VIEW_CLICKED));
+    }
+
+    @Test
+    public void slowHandlerDoesNotBlockOthers() throws InterruptedException {
+        FakeEvents events = new FakeEvents();
+        EventDispatcher<FakeEvent> dispatcher = new EventDispatcher<>(events);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingHandler slow = new RecordingHandler(release, false);
+        RecordingHandler fast = new RecordingHandler(null, false);
+        dispatcher.add(100, slow, AccessibilityEvent.TYPES_ALL_MASK, slow, new AccessibilityEventDispatcher.Options().queueCapacity(4));
+        dispatcher.add(200, fast, AccessibilityEvent.TYPES_ALL_MASK, fast, new AccessibilityEventDispatcher.Options().sync());
+        for (int i = 0; i < 10; i++) {
+            dispatcher.dispatch(null, event(AccessibilityEvent.TYPE_VIEW_CLICKED, "com.a"));
+        }
+        // 同步的处理者已经收到所有事件，慢的处理者最多处理1个，队列中4个，其余被丢弃
+        assertEquals(10, fast.packages.size());
+        AccessibilityEventDispatcher.Stats stats = dispatcher.getStats().get(0);
+        assertTrue(stats.dropped >= 5);
+        release.countDown();
+        awaitDispatched(dispatcher, 0, 10 - stats.dropped);
+        assertEquals(10 - stats.dropped, slow.packages.size());
+        // 被丢弃的和处理完的副本都已回收
+        assertEquals(10, events.copied.get());
+        assertEquals(10, events.recycled.get());
+        dispatcher.remove(slow);
+    }
+
+    @Test
+    public void consumeStopsLaterHandlers() {
+        FakeEvents events = new FakeEvents();
+        EventDispatcher<FakeEvent> dispatcher = new EventDispatcher<>(events);
+        RecordingHandler first = new RecordingHandler(null, true);
+        RecordingHandler second = new RecordingHandler(null, false);
+        dispatcher.add(200, second, AccessibilityEvent.TYPES_ALL_MASK, second, new AccessibilityEventDispatcher.Options().sync());
+        dispatcher.add(100, first, AccessibilityEvent.TYPES_ALL_MASK, first, new AccessibilityEventDispatcher.Options().sync());
+        dispatcher.dispatch(null, event(AccessibilityEvent.TYPE_VIEW_CLICKED, "com.a"));
+        assertEquals(1, first.packages.size());
+        assertEquals(0, second.packages.size());
+        // 同步分发不复制事件
+        assertEquals(0, events.copied.get());
+    }
+
+    @Test
+    public void coalesceContentChanges() throws InterruptedException {
+        FakeEvents events = new FakeEvents();
+        EventDispatcher<FakeEvent> dispatcher = new EventDispatcher<>(events);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingHandler handler = new RecordingHandler(release, false);
+        dispatcher.add(100, handler, AccessibilityEvent.TYPES_ALL_MASK, handler, new AccessibilityEventDispatcher.Options().coalesceContentChanges());
+        // 第一个事件被取出后阻塞在处理者中，第二个在队列中等待，之后的都被合并
+        dispatcher.dispatch(null, event(AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED, "com.a"));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dispatcher.getStats().get(0).queueSize > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        for (int i = 0; i < 10; i++) {
+            dispatcher.dispatch(null, event(AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED, "com.a"));
+        }
+        assertEquals(9, dispatcher.getStats().get(0).coalesced);
+        release.countDown();
+        awaitDispatched(dispatcher, 0, 2);
+        assertEquals(2, handler.packages.size());
+        assertEquals(2, events.copied.get());
+        assertEquals(2, events.recycled.get());
+        dispatcher.remove(handler);
+    }
+}
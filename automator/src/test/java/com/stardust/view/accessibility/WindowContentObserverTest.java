@@ -0,0 +1,45 @@
+package com.stardust.view.accessibility;
+
+import android.view.accessibility.AccessibilityEvent;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by Stardust on 2017/10/27.
+ */
+public class WindowContentObserverTest {
+
+    @Test
+    public void awaitChange() throws Exception {
+        final WindowContentObserver observer = new WindowContentObserver();
+        long generation = observer.getGeneration("com.a");
+        assertFalse(observer.awaitChange(generation, "com.a", 10));
+
+        observer.onWindowChanged(AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED, "com.b");
+        assertFalse(observer.awaitChange(generation, "com.a", 10));
+        assertTrue(observer.awaitChange(0, null, 10));
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ignored) {
+                }
+                observer.onWindowChanged(AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED, "com.a");
+            }
+        }).start();
+        assertTrue(observer.awaitChange(generation, "com.a", 5000));
+    }
+
+    @Test
+    public void windowStateChangeWakesAll() throws Exception {
+        WindowContentObserver observer = new WindowContentObserver();
+        long generation = observer.getGeneration("com.a");
+        observer.onWindowChanged(AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED, "com.b");
+        assertTrue(observer.awaitChange(generation, "com.a", 10));
+    }
+
+}
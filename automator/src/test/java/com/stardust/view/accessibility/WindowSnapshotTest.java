@@ -0,0 +1,29 @@
+package com.stardust.view.accessibility;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Created by Stardust on 2017/11/3.
+ */
+public class WindowSnapshotTest {
+
+    /**
+     * 下标即控件在快照中按广度优先存放的位置:
+     * 0 - 1 - 3 - 6
+     * |   \ - 4
+     * \ - 2 - 5
+     * 逐层遍历得到0到6, 前序为0, 1, 3, 6, 4, 2, 5
+     */
+    private static final int[] CHILD_STARTS = {1, 3, 5, 6, 7, 7, 7};
+    private static final int[] CHILD_COUNTS = {2, 2, 1, 1, 0, 0, 0};
+
+    @Test
+    public void preOrder() {
+        assertArrayEquals(new int[]{0, 1, 3, 6, 4, 2, 5}, WindowSnapshot.preOrder(CHILD_STARTS, CHILD_COUNTS, 0));
+        assertArrayEquals(new int[]{1, 3, 6, 4}, WindowSnapshot.preOrder(CHILD_STARTS, CHILD_COUNTS, 1));
+        assertArrayEquals(new int[]{4}, WindowSnapshot.preOrder(CHILD_STARTS, CHILD_COUNTS, 4));
+    }
+
+}
@@ -14,6 +14,7 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.nio.charset.Charset;
 import java.util.Locale;
 
@@ -127,6 +128,20 @@ public class PFiles {
         return read(inputStream, "utf-8");
     }
 
+    public static String read(Reader reader) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[8192];
+            int len;
+            while ((len = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, len);
+            }
+            return sb.toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     public static boolean copyRaw(Context context, int rawId, String path) {
         InputStream is = context.getResources().openRawResource(rawId);
         return copyStream(is, path);
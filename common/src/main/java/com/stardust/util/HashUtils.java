@@ -12,6 +12,23 @@ import java.security.NoSuchAlgorithmException;
 public class HashUtils {
 
     public static String md5(String text) {
+        return Base64.encodeToString(md5Digest(text), Base64.DEFAULT);
+    }
+
+    /**
+     * @return 小写十六进制的md5，可以用作文件名
+     */
+    public static String md5Hex(String text) {
+        byte[] digest = md5Digest(text);
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] md5Digest(String text) {
         MessageDigest md;
         byte[] bytesOfMessage = text.getBytes();
         try {
@@ -19,7 +36,6 @@ public class HashUtils {
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
-        byte[] thedigest = md.digest(bytesOfMessage);
-        return Base64.encodeToString(thedigest, Base64.DEFAULT);
+        return md.digest(bytesOfMessage);
     }
 }